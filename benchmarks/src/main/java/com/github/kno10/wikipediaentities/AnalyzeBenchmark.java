@@ -0,0 +1,111 @@
+package com.github.kno10.wikipediaentities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark the candidate analysis: phrase search, loading the documents and
+ * counting their link targets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalyzeBenchmark {
+  /** Copies of each fixture, so that the phrases have enough mentions */
+  static final int COPIES = 100;
+
+  /** Temporary index directory */
+  Path dir;
+
+  /** Index reader */
+  IndexReader reader;
+
+  /** Candidate phrases */
+  String[] phrases;
+
+  /** Worker */
+  AnalyzeLinks.WorkerThread worker;
+
+  @Setup
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("bench-analyze");
+    // Link targets, mapped to themselves instead of Wikidata ids.
+    final Map<String, String> datamap = new HashMap<>();
+    LuceneLinkTokenizer tokenizer = new LuceneLinkTokenizer(null);
+    final LuceneLinkTokenizer.LinkHandler labels = (LuceneLinkTokenizer.LinkHandler) tokenizer.makeThreadHandler();
+    HandlerList handlers = new HandlerList();
+    handlers.add(labels);
+    handlers.add(new AbstractHandler() {
+      @Override
+      public void linkDetected(String prefix, String title, String label, String target) {
+        datamap.put(target, target);
+      }
+    });
+    LuceneWikipediaIndexer indexer = new LuceneWikipediaIndexer(dir.toString());
+    Handler handler = indexer.makeThreadHandler(handlers);
+    for(String name : Fixtures.ALL) {
+      String prefix = Fixtures.prefix(name), text = Fixtures.cleaned(name);
+      for(int i = 0; i < COPIES; i++)
+        handler.rawArticle(prefix, name + " " + i, text);
+    }
+    indexer.close();
+    phrases = labels.links.keySet().toArray(new String[labels.links.size()]);
+
+    reader = DirectoryReader.open(FSDirectory.open(dir));
+    AnalyzeLinks al = new AnalyzeLinks();
+    al.searcher = new IndexSearcher(reader);
+    worker = al.new WorkerThread("bench", datamap);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    reader.close();
+    try (Stream<Path> files = Files.list(dir)) {
+      for(Path p : (Iterable<Path>) files::iterator)
+        Files.delete(p);
+    }
+    Files.delete(dir);
+  }
+
+  /**
+   * Analyze all link labels of the fixtures.
+   *
+   * @return Number of candidates with matches
+   * @throws IOException on index errors
+   */
+  @Benchmark
+  public int analyze() throws IOException {
+    int found = 0;
+    for(String phrase : phrases) {
+      AnalyzeLinks.Candidate cand = new AnalyzeLinks.Candidate(phrase);
+      worker.analyze(cand);
+      if(cand.query != null)
+        found++;
+    }
+    return found;
+  }
+}
@@ -0,0 +1,928 @@
+package com.github.kno10.wikipediaentities;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Generate a synthetic Wikipedia dump in several languages, and a matching
+ * Wikidata dump. The output is deterministic for a given seed.
+ *
+ * The articles contain the markup the parser has to deal with: infoboxes with
+ * nested templates, tables, references, comments, file links with links in
+ * their captions, links with labels and anchors, and HTML entities. There are
+ * redirects (with chains and anchors), disambiguation and list pages (which
+ * are excluded via their Wikidata P31 claims), and pages in other namespaces.
+ * Links prefer popular entities, following a Zipf distribution, and the
+ * article sizes follow a log-normal distribution.
+ *
+ * The dumps can be written plain, bzip2 compressed, or in the multistream
+ * format of Wikipedia: bzip2 streams of 100 pages each, with an index of the
+ * stream offsets.
+ */
+public class DumpGenerator {
+  /**
+   * Language specific names and words.
+   */
+  static class Language {
+    /** Language code */
+    final String code;
+
+    /** Probability that an entity has an article in the language */
+    final double coverage;
+
+    /** Redirect magic word */
+    final String redirect;
+
+    /** Namespace names: talk (1), file (6), category (14) */
+    final String[] namespaces;
+
+    /** Type names */
+    final String[] types;
+
+    /**
+     * Title patterns: river, river alias, disambiguation page, list page, and
+     * the references heading
+     */
+    final String river, riverAlias, disambiguation, list, references;
+
+    /** Section headings */
+    final String[] sections;
+
+    /** Filler words */
+    final String[] words;
+
+    Language(String code, double coverage, String redirect, String[] namespaces, String[] types, String river, String riverAlias, String disambiguation, String list, String references, String[] sections, String[] words) {
+      this.code = code;
+      this.coverage = coverage;
+      this.redirect = redirect;
+      this.namespaces = namespaces;
+      this.types = types;
+      this.river = river;
+      this.riverAlias = riverAlias;
+      this.disambiguation = disambiguation;
+      this.list = list;
+      this.references = references;
+      this.sections = sections;
+      this.words = words;
+    }
+  }
+
+  /** Available languages */
+  static final Language[] LANGUAGES = { //
+      new Language("en", 1., "#REDIRECT", new String[] { "Talk", "File", "Category" }, //
+          new String[] { "city", "person", "river", "band", "album" }, //
+          "%s River", "River %s", "%s (disambiguation)", "List of %ss", "References", //
+          new String[] { "History", "Overview", "Reception", "Legacy" }, //
+          new String[] { "the", "of", "and", "in", "was", "is", "a", "to", "by", "with", "from", "for", "as", "its", "first", "known", "built", "century", "early", "later", "region", "national", "north", "south", "local", "history", "several", "population", "released", "founded", "became", "river", "music", "record", "town", "during", "after", "main", "new", "large" }), //
+      new Language("de", .7, "#WEITERLEITUNG", new String[] { "Diskussion", "Datei", "Kategorie" }, //
+          new String[] { "Stadt", "Person", "Fluss", "Band", "Album" }, //
+          "%s (Fluss)", "%s-Fluss", "%s (Begriffsklärung)", "Liste (%s)", "Einzelnachweise", //
+          new String[] { "Geschichte", "Überblick", "Rezeption", "Nachwirkung" }, //
+          new String[] { "der", "die", "das", "und", "in", "von", "mit", "wurde", "ist", "ein", "eine", "im", "als", "auf", "zu", "den", "Stadt", "Fluss", "Jahrhundert", "später", "Region", "bekannt", "erste", "nach", "während", "Musik", "gegründet", "veröffentlicht", "Einwohner", "Norden", "Süden", "große", "neue", "dem" }), //
+      new Language("fr", .5, "#REDIRECTION", new String[] { "Discussion", "Fichier", "Catégorie" }, //
+          new String[] { "ville", "personnalité", "rivière", "groupe", "album" }, //
+          "%s (rivière)", "%s-rivière", "%s (homonymie)", "Liste (%s)", "Références", //
+          new String[] { "Histoire", "Présentation", "Réception", "Postérité" }, //
+          new String[] { "le", "la", "les", "et", "de", "du", "des", "en", "est", "un", "une", "dans", "par", "avec", "pour", "ville", "rivière", "siècle", "région", "connu", "plus", "premier", "après", "pendant", "musique", "fondé", "publié", "habitants", "nord", "sud", "grand", "nouvelle", "au", "sur" }), //
+      new Language("es", .4, "#REDIRECCIÓN", new String[] { "Discusión", "Archivo", "Categoría" }, //
+          new String[] { "ciudad", "persona", "río", "banda", "álbum" }, //
+          "Río %s", "%s (río)", "%s (desambiguación)", "Anexo:%s", "Referencias", //
+          new String[] { "Historia", "Descripción", "Recepción", "Legado" }, //
+          new String[] { "el", "la", "los", "y", "de", "del", "en", "es", "un", "una", "por", "con", "para", "como", "fue", "ciudad", "río", "siglo", "región", "conocido", "más", "primer", "después", "durante", "música", "fundado", "publicado", "habitantes", "norte", "sur", "grande", "nueva", "al", "sobre" }) };
+
+  /** Entity types */
+  static final int CITY = 0, PERSON = 1, RIVER = 2, BAND = 3, ALBUM = 4, DISAMBIGUATION = 5, LIST = 6;
+
+  /** Wikidata classes of the types */
+  static final int[] CLASSES = { 515, 5, 4022, 215380, 482994, 4167410, 13406463 };
+
+  /** Syllables for names */
+  static final String[] SYLLABLES = { "ka", "lo", "mir", "ten", "va", "dor", "sel", "an", "ri", "bo", "len", "tha", "gor", "mi", "es", "ul", "var", "no", "kes", "tra", "bel", "fin", "dal", "ro", "sen", "ve", "hal", "ma", "zu", "ber" };
+
+  /** HTML entities, as used in the wikitext */
+  static final String[] ENTITIES = { "&nbsp;", "&ndash;", "&amp;", "&#039;", "&eacute;", "&mdash;", "&#8211;", "&quot;" };
+
+  /** Pages per stream, in the multistream format */
+  static final int PAGES_PER_STREAM = 100;
+
+  /**
+   * Output formats.
+   */
+  public enum Format {
+    /** Uncompressed */
+    PLAIN,
+    /** Single bzip2 stream */
+    BZ2,
+    /** Concatenated bzip2 streams, with an index for Wikipedia */
+    MULTISTREAM
+  }
+
+  /** Number of entities */
+  private int entities;
+
+  /** Random generator seed */
+  private long seed;
+
+  /** Languages */
+  private Language[] langs = { LANGUAGES[0], LANGUAGES[1], LANGUAGES[2] };
+
+  /** Zipf exponent of the link targets */
+  private double skew = 1.;
+
+  /** Log-normal distribution of the number of paragraphs */
+  private double mu = .8, sigma = .9;
+
+  /** Output format */
+  private Format format = Format.PLAIN;
+
+  /** Random generator */
+  private Random rnd;
+
+  /** Entities */
+  private List<Entity> all;
+
+  /** Cumulative link weights, for sampling link targets */
+  private double[] cumulative;
+
+  /** Number of main namespace pages written */
+  private int articles;
+
+  /** Number of Wikidata items written */
+  private int items;
+
+  /**
+   * An entity, with its titles in the different languages.
+   */
+  static class Entity {
+    /** Wikidata id */
+    int id;
+
+    /** Type */
+    int type;
+
+    /** Titles, {@code null} if there is no article in the language */
+    String[] titles;
+
+    /** Short label, alternative name for the redirect */
+    String[] shortLabels, aliases;
+
+    /** Redirect to the alias, for redirect chains */
+    String[] chained;
+
+    /**
+     * Constructor.
+     *
+     * @param langs Number of languages
+     */
+    Entity(int langs) {
+      titles = new String[langs];
+      shortLabels = new String[langs];
+      aliases = new String[langs];
+      chained = new String[langs];
+    }
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param entities Number of entities
+   * @param seed Random generator seed
+   */
+  public DumpGenerator(int entities, long seed) {
+    this.entities = entities;
+    this.seed = seed;
+  }
+
+  /**
+   * Set the languages. All entities have an article in the first language.
+   *
+   * @param codes Language codes, of {@link #LANGUAGES}
+   * @return this
+   */
+  public DumpGenerator setLanguages(String... codes) {
+    langs = new Language[codes.length];
+    for(int i = 0; i < codes.length; i++) {
+      for(Language l : LANGUAGES)
+        if(l.code.equals(codes[i]))
+          langs[i] = l;
+      if(langs[i] == null)
+        throw new IllegalArgumentException("Unsupported language: " + codes[i]);
+    }
+    return this;
+  }
+
+  /**
+   * Set the skew of the link graph.
+   *
+   * @param skew Zipf exponent of the link targets, 0 for uniform
+   * @return this
+   */
+  public DumpGenerator setSkew(double skew) {
+    this.skew = skew;
+    return this;
+  }
+
+  /**
+   * Set the size distribution of the articles.
+   *
+   * @param median Median number of paragraphs
+   * @param sigma Standard deviation of the log-normal distribution
+   * @return this
+   */
+  public DumpGenerator setArticleSize(double median, double sigma) {
+    this.mu = Math.log(median);
+    this.sigma = sigma;
+    return this;
+  }
+
+  /**
+   * Set the output format.
+   *
+   * @param format Format
+   * @return this
+   */
+  public DumpGenerator setFormat(Format format) {
+    this.format = format;
+    return this;
+  }
+
+  /**
+   * Write the Wikipedia and Wikidata dumps.
+   *
+   * @param dir Output directory
+   * @param name Dump name, used in the file names
+   * @return Files written: one Wikipedia dump per language, then Wikidata
+   * @throws IOException on errors
+   */
+  public List<File> write(File dir, String name) throws IOException {
+    dir.mkdirs();
+    rnd = new Random(seed);
+    makeEntities();
+    final String suffix = format == Format.PLAIN ? "" : ".bz2";
+    List<File> files = new ArrayList<>();
+    articles = 0;
+    for(int l = 0; l < langs.length; l++) {
+      String base = langs[l].code + "wiki-" + name + "-pages-articles" + (format == Format.MULTISTREAM ? "-multistream" : "");
+      File f = new File(dir, base + ".xml" + suffix);
+      try (Output out = new Output(f, format);
+          Output index = format == Format.MULTISTREAM ? new Output(new File(dir, base + "-index.txt.bz2"), Format.BZ2) : null) {
+        writeWikipedia(out, index, l);
+      }
+      files.add(f);
+    }
+    File f = new File(dir, "wikidata-" + name + "-all.json" + suffix);
+    try (Output out = new Output(f, format)) {
+      writeWikidata(out);
+    }
+    files.add(f);
+    return files;
+  }
+
+  /**
+   * @return Number of main namespace pages written, including redirects
+   */
+  public int getArticles() {
+    return articles;
+  }
+
+  /**
+   * @return Number of Wikidata items written
+   */
+  public int getItems() {
+    return items;
+  }
+
+  /**
+   * Output file, written as one or more (compressed) streams.
+   */
+  private static class Output extends Writer {
+    /** Output file */
+    private final FileOutputStream file;
+
+    /** Output format */
+    private final Format format;
+
+    /** Writer for the current stream */
+    private Writer out;
+
+    /** File offset of the current stream */
+    private long offset;
+
+    /**
+     * Constructor.
+     *
+     * @param f File
+     * @param format Format
+     * @throws IOException on errors
+     */
+    Output(File f, Format format) throws IOException {
+      this.file = new FileOutputStream(f);
+      this.format = format;
+      open();
+    }
+
+    /**
+     * Begin a new stream.
+     *
+     * @throws IOException on errors
+     */
+    private void open() throws IOException {
+      offset = file.getChannel().position();
+      // Closing the stream must not close the file.
+      OutputStream os = new BufferedOutputStream(new FilterOutputStream(file) {
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+          flush();
+        }
+      }, 1 << 16);
+      if(format != Format.PLAIN)
+        os = new BZip2CompressorOutputStream(os);
+      out = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Begin a new stream in the multistream format.
+     *
+     * @return File offset of the current stream
+     * @throws IOException on errors
+     */
+    long split() throws IOException {
+      if(format == Format.MULTISTREAM) {
+        out.close();
+        open();
+      }
+      return offset;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      out.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      out.write(str, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+      file.close();
+    }
+  }
+
+  /**
+   * Make the entities, with unique titles in each language.
+   */
+  private void makeEntities() {
+    all = new ArrayList<>(entities);
+    List<Set<String>> used = new ArrayList<>();
+    for(int l = 0; l < langs.length; l++)
+      used.add(new HashSet<String>());
+    for(int i = 0; i < entities; i++) {
+      Entity e = new Entity(langs.length);
+      e.id = 1000 + i;
+      e.type = i % 50 == 49 ? DISAMBIGUATION : rnd.nextInt(ALBUM + 1);
+      String a = name(), b = name();
+      for(int l = 0; l < langs.length; l++) {
+        if(l > 0 && rnd.nextDouble() >= langs[l].coverage)
+          continue;
+        String title = title(e.type, langs[l], a, b);
+        if(!used.get(l).add(title))
+          continue; // Name clash, no article in this language.
+        e.titles[l] = title;
+        e.shortLabels[l] = e.type == PERSON ? b : e.type == ALBUM ? a + " " + b : a;
+        String alias = rnd.nextDouble() < .3 ? alias(e.type, langs[l], a, b) : null;
+        if(alias != null && used.get(l).add(alias)) {
+          e.aliases[l] = alias;
+          String chain = alias.charAt(0) + alias.substring(1).toLowerCase();
+          if(rnd.nextDouble() < .2 && used.get(l).add(chain))
+            e.chained[l] = chain;
+        }
+      }
+      all.add(e);
+    }
+    // List pages, of the entities of one type.
+    for(int t = 0; t <= ALBUM; t++) {
+      Entity e = new Entity(langs.length);
+      e.id = 1000 + all.size();
+      e.type = LIST;
+      for(int l = 0; l < langs.length; l++)
+        e.titles[l] = String.format(langs[l].list, langs[l].types[t]);
+      all.add(e);
+    }
+    // Zipf distribution of link targets, in random order of the entities.
+    cumulative = new double[all.size()];
+    int[] rank = new int[all.size()];
+    for(int i = 0; i < rank.length; i++)
+      rank[i] = i;
+    for(int i = rank.length - 1; i > 0; i--) {
+      int j = rnd.nextInt(i + 1), tmp = rank[i];
+      rank[i] = rank[j];
+      rank[j] = tmp;
+    }
+    double sum = 0;
+    for(int i = 0; i < cumulative.length; i++)
+      cumulative[i] = sum += all.get(i).type < DISAMBIGUATION ? Math.pow(rank[i] + 1, -skew) : 0;
+  }
+
+  /**
+   * Make a random name.
+   *
+   * @return Name
+   */
+  private String name() {
+    StringBuilder buf = new StringBuilder();
+    for(int i = 2 + rnd.nextInt(2); i > 0; i--)
+      buf.append(SYLLABLES[rnd.nextInt(SYLLABLES.length)]);
+    buf.setCharAt(0, Character.toUpperCase(buf.charAt(0)));
+    return buf.toString();
+  }
+
+  /**
+   * Make the title of an entity.
+   *
+   * @param type Type
+   * @param lang Language
+   * @param a First name part
+   * @param b Second name part
+   * @return Title
+   */
+  private static String title(int type, Language lang, String a, String b) {
+    switch(type){
+    case CITY:
+      return a;
+    case PERSON:
+      return a + " " + b;
+    case RIVER:
+      return String.format(lang.river, a);
+    case BAND:
+      return "The " + a + " " + b;
+    case ALBUM:
+      return a + " " + b + " (album)";
+    default:
+      return String.format(lang.disambiguation, a);
+    }
+  }
+
+  /**
+   * Make an alternative name of an entity, for a redirect.
+   *
+   * @param type Type
+   * @param lang Language
+   * @param a First name part
+   * @param b Second name part
+   * @return Alias
+   */
+  private static String alias(int type, Language lang, String a, String b) {
+    switch(type){
+    case CITY:
+      return a + " (" + lang.types[CITY] + ")";
+    case PERSON:
+      return a.charAt(0) + ". " + b;
+    case RIVER:
+      return String.format(lang.riverAlias, a);
+    case BAND:
+      return a + " " + b;
+    case ALBUM:
+      return a + " " + b;
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Pick a link target.
+   *
+   * @return Entity
+   */
+  private Entity target() {
+    double r = rnd.nextDouble() * cumulative[cumulative.length - 1];
+    int lo = 0, hi = cumulative.length - 1;
+    while(lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if(cumulative[mid] < r)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return all.get(lo);
+  }
+
+  /**
+   * Write the dump of one language.
+   *
+   * @param out Output
+   * @param index Index of the streams, may be {@code null}
+   * @param l Language
+   * @throws IOException on errors
+   */
+  private void writeWikipedia(Output out, Output index, int l) throws IOException {
+    final Language lang = langs[l];
+    out.append("<mediawiki xmlns=\"http://www.mediawiki.org/xml/export-0.10/\" version=\"0.10\" xml:lang=\"").append(lang.code).append("\">\n");
+    out.append("  <siteinfo>\n    <sitename>Wikipedia</sitename>\n    <dbname>").append(lang.code).append("wiki</dbname>\n");
+    out.append("    <namespaces>\n      <namespace key=\"0\" case=\"first-letter\" />\n");
+    out.append("      <namespace key=\"1\" case=\"first-letter\">").append(lang.namespaces[0]).append("</namespace>\n");
+    out.append("      <namespace key=\"6\" case=\"first-letter\">").append(lang.namespaces[1]).append("</namespace>\n");
+    out.append("      <namespace key=\"14\" case=\"first-letter\">").append(lang.namespaces[2]).append("</namespace>\n");
+    out.append("    </namespaces>\n  </siteinfo>\n");
+    int[] id = { 0 };
+    StringBuilder buf = new StringBuilder();
+    for(Entity e : all) {
+      if(e.titles[l] == null)
+        continue;
+      page(out, index, id, 0, e.titles[l], null, article(buf, e, l));
+      articles++;
+      if(e.aliases[l] != null) {
+        // Some redirects point to a section, some go through a second redirect.
+        String target = rnd.nextDouble() < .1 ? e.titles[l] + "#" + lang.sections[0] : e.titles[l];
+        page(out, index, id, 0, e.aliases[l], e.titles[l], lang.redirect + " [[" + target + "]]\n\n{{R from alternative name}}");
+        articles++;
+        if(e.chained[l] != null) {
+          page(out, index, id, 0, e.chained[l], e.aliases[l], lang.redirect + " [[" + e.aliases[l] + "]]");
+          articles++;
+        }
+      }
+      if(rnd.nextDouble() < .1)
+        page(out, index, id, 1, lang.namespaces[0] + ":" + e.titles[l], null, "== " + lang.sections[0] + " ==\nSee [[" + e.titles[l] + "]]. ~~~~");
+    }
+    for(int t = 0; t <= ALBUM; t++)
+      page(out, index, id, 14, lang.namespaces[2] + ":" + lang.types[t], null, "[[" + lang.namespaces[2] + ":" + lang.code + "]]");
+    out.split(); // The footer is a separate stream, too.
+    out.append("</mediawiki>\n");
+  }
+
+  /**
+   * Write a page.
+   *
+   * @param out Output
+   * @param index Index of the streams, may be {@code null}
+   * @param id Page id, incremented
+   * @param ns Namespace
+   * @param title Title
+   * @param redirect Redirect target, or {@code null}
+   * @param text Wikitext
+   * @throws IOException on errors
+   */
+  private static void page(Output out, Output index, int[] id, int ns, String title, String redirect, CharSequence text) throws IOException {
+    final int pid = ++id[0];
+    long offset = (pid - 1) % PAGES_PER_STREAM == 0 ? out.split() : out.offset;
+    if(index != null)
+      index.append(Long.toString(offset)).append(':').append(Integer.toString(pid)).append(':').append(title).append('\n');
+    out.append("  <page>\n    <title>");
+    escape(out, title);
+    out.append("</title>\n    <ns>").append(Integer.toString(ns)).append("</ns>\n    <id>").append(Integer.toString(pid)).append("</id>\n");
+    if(redirect != null) {
+      out.append("    <redirect title=\"");
+      escape(out, redirect);
+      out.append("\" />\n");
+    }
+    out.append("    <revision>\n      <id>").append(Integer.toString(pid + 100000)).append("</id>\n");
+    out.append("      <timestamp>2015-12-02T00:00:00Z</timestamp>\n      <contributor>\n        <username>Generator</username>\n        <id>1</id>\n      </contributor>\n");
+    out.append("      <model>wikitext</model>\n      <format>text/x-wiki</format>\n      <text xml:space=\"preserve\">");
+    escape(out, text);
+    out.append("</text>\n    </revision>\n  </page>\n");
+  }
+
+  /**
+   * Escape XML special characters.
+   *
+   * @param out Output
+   * @param s Text
+   * @throws IOException on errors
+   */
+  private static void escape(Writer out, CharSequence s) throws IOException {
+    for(int i = 0, l = s.length(); i < l; i++) {
+      char c = s.charAt(i);
+      switch(c){
+      case '&':
+        out.append("&amp;");
+        break;
+      case '<':
+        out.append("&lt;");
+        break;
+      case '>':
+        out.append("&gt;");
+        break;
+      case '"':
+        out.append("&quot;");
+        break;
+      default:
+        out.append(c);
+      }
+    }
+  }
+
+  /**
+   * Generate the text of an article.
+   *
+   * @param buf Buffer
+   * @param e Entity
+   * @param l Language
+   * @return Buffer, with the text
+   */
+  private StringBuilder article(StringBuilder buf, Entity e, int l) {
+    final Language lang = langs[l];
+    buf.setLength(0);
+    if(e.type == DISAMBIGUATION) {
+      buf.append("'''").append(e.titles[l], 0, e.titles[l].indexOf(" (")).append("''' may refer to:\n");
+      for(int i = 2 + rnd.nextInt(4); i > 0; i--) {
+        buf.append("* ");
+        link(buf, l);
+        buf.append('\n');
+      }
+      return buf.append("\n{{disambiguation}}");
+    }
+    if(e.type == LIST) {
+      buf.append("This is a list.\n");
+      for(int i = 20 + rnd.nextInt(20); i > 0; i--) {
+        buf.append("* ");
+        link(buf, l);
+        buf.append('\n');
+      }
+      return buf;
+    }
+    if(rnd.nextDouble() < .1)
+      buf.append("__NOTOC__\n");
+    // Infobox, with nested templates and a file link with a link in its caption.
+    buf.append("{{Infobox ").append(lang.types[e.type]).append("\n| name = ").append(e.titles[l]).append('\n');
+    buf.append("| image = [[").append(lang.namespaces[1]).append(':').append(e.shortLabels[l]).append(".jpg|thumb|").append(e.shortLabels[l]).append(", ");
+    link(buf, l);
+    buf.append("]]\n| location = ");
+    link(buf, l);
+    buf.append("\n| coordinates = {{Coord|").append(rnd.nextInt(90)).append('|').append(rnd.nextInt(60)).append("|N|").append(rnd.nextInt(180)).append("|E|display=inline}}\n");
+    buf.append("| size = {{nowrap|{{convert|").append(1 + rnd.nextInt(999)).append("|km|mi}}}}\n}}\n");
+    buf.append("'''").append(e.titles[l]).append("''' ").append(lang.words[5]).append(' ').append(lang.words[6]).append(' ').append(lang.types[e.type]).append(' ');
+    link(buf, l);
+    buf.append(".<ref>{{cite web|url=http://example.org/").append(e.id).append("|title=").append(e.shortLabels[l]).append("}}</ref>\n\n");
+    // Article size follows a log-normal distribution: mostly stubs.
+    int paragraphs = (int) Math.min(40, Math.exp(mu + sigma * rnd.nextGaussian()));
+    for(int p = 0; p < paragraphs; p++) {
+      if(p % 3 == 0)
+        buf.append("== ").append(lang.sections[(p / 3) % lang.sections.length]).append(" ==\n");
+      paragraph(buf, l);
+      if(rnd.nextDouble() < .1)
+        table(buf, l);
+    }
+    if(rnd.nextDouble() < .2)
+      buf.append("<!-- ").append(lang.words[rnd.nextInt(lang.words.length)]).append(" [[").append(e.titles[l]).append("]] -->\n");
+    buf.append("\n== ").append(lang.references).append(" ==\n<references />\n\n");
+    buf.append("[[").append(lang.namespaces[2]).append(':').append(lang.types[e.type]).append("]]");
+    return buf;
+  }
+
+  /**
+   * Generate a paragraph.
+   *
+   * @param buf Output
+   * @param l Language
+   */
+  private void paragraph(StringBuilder buf, int l) {
+    final String[] words = langs[l].words;
+    for(int s = 3 + rnd.nextInt(5); s > 0; s--) {
+      int n = 6 + rnd.nextInt(11);
+      for(int w = 0; w < n; w++) {
+        if(w > 0)
+          buf.append(rnd.nextDouble() < .02 ? ENTITIES[rnd.nextInt(ENTITIES.length)] : " ");
+        double r = rnd.nextDouble();
+        if(r < .12)
+          link(buf, l);
+        else if(r < .14)
+          buf.append("''").append(words[rnd.nextInt(words.length)]).append("''");
+        else if(r < .15)
+          buf.append("{{lang|").append(langs[rnd.nextInt(langs.length)].code).append('|').append(words[rnd.nextInt(words.length)]).append("}}");
+        else if(r < .155)
+          buf.append("<math>x^").append(rnd.nextInt(9)).append("</math>");
+        else
+          buf.append(words[rnd.nextInt(words.length)]);
+      }
+      buf.append('.');
+      if(rnd.nextDouble() < .1)
+        buf.append("<ref name=\"r").append(rnd.nextInt(5)).append("\">").append(words[rnd.nextInt(words.length)]).append(" {{cite book|title=").append(words[rnd.nextInt(words.length)]).append("}}</ref>");
+      else if(rnd.nextDouble() < .05)
+        buf.append("<ref name=\"r").append(rnd.nextInt(5)).append("\" />");
+      buf.append(' ');
+    }
+    buf.append("\n\n");
+  }
+
+  /**
+   * Generate a table.
+   *
+   * @param buf Output
+   * @param l Language
+   */
+  private void table(StringBuilder buf, int l) {
+    buf.append("{| class=\"wikitable sortable\"\n! ").append(langs[l].types[0]).append(" !! ").append(langs[l].words[27]).append('\n');
+    for(int r = 1 + rnd.nextInt(6); r > 0; r--) {
+      buf.append("|-\n| ");
+      link(buf, l);
+      buf.append(" || style=\"text-align:right\" | {{formatnum:").append(rnd.nextInt(1000000)).append("}}\n");
+    }
+    buf.append("|}\n\n");
+  }
+
+  /**
+   * Generate a link to a random entity.
+   *
+   * @param buf Output
+   * @param l Language
+   */
+  private void link(StringBuilder buf, int l) {
+    final String[] sections = langs[l].sections;
+    Entity e = target();
+    String title = e.titles[l];
+    if(title == null || rnd.nextDouble() < .03) {
+      // Red link, to an article that does not exist in this language.
+      buf.append("[[").append(e.titles[0] != null ? e.titles[0] : "Missing " + e.id).append("]]");
+      return;
+    }
+    double r = rnd.nextDouble();
+    buf.append("[[");
+    if(r < .5)
+      buf.append(title);
+    else if(r < .75)
+      buf.append(title).append('|').append(e.shortLabels[l]);
+    else if(r < .85 && e.aliases[l] != null)
+      buf.append(e.aliases[l]);
+    else if(r < .9)
+      buf.append(title).append('#').append(sections[rnd.nextInt(sections.length)]).append('|').append(e.shortLabels[l]);
+    else if(r < .95)
+      buf.append(Character.toLowerCase(title.charAt(0))).append(title, 1, title.length());
+    else
+      buf.append(title).append('|').append(e.shortLabels[l].toLowerCase());
+    buf.append("]]");
+  }
+
+  /**
+   * Write the Wikidata dump: a JSON array, with one item per line.
+   *
+   * @param out Output
+   * @throws IOException on errors
+   */
+  private void writeWikidata(Output out) throws IOException {
+    items = 0;
+    JsonGenerator gen = new JsonFactory().createGenerator(out);
+    gen.writeRaw("[\n");
+    for(Entity e : all) {
+      // Some items have no article in any of the languages.
+      boolean other = rnd.nextDouble() < .05;
+      if(items > 0)
+        gen.writeRaw(",\n");
+      if(items % PAGES_PER_STREAM == 0) {
+        gen.flush();
+        out.split();
+      }
+      gen.writeStartObject();
+      gen.writeStringField("type", "item");
+      gen.writeStringField("id", "Q" + e.id);
+      gen.writeObjectFieldStart("labels");
+      for(int l = 0; l < langs.length; l++)
+        if(e.titles[l] != null) {
+          gen.writeObjectFieldStart(langs[l].code);
+          gen.writeStringField("language", langs[l].code);
+          gen.writeStringField("value", e.titles[l]);
+          gen.writeEndObject();
+        }
+      gen.writeEndObject();
+      gen.writeObjectFieldStart("claims");
+      gen.writeArrayFieldStart("P31");
+      gen.writeStartObject();
+      gen.writeObjectFieldStart("mainsnak");
+      gen.writeStringField("snaktype", "value");
+      gen.writeStringField("property", "P31");
+      gen.writeObjectFieldStart("datavalue");
+      gen.writeObjectFieldStart("value");
+      gen.writeStringField("entity-type", "item");
+      gen.writeNumberField("numeric-id", CLASSES[e.type]);
+      gen.writeStringField("id", "Q" + CLASSES[e.type]);
+      gen.writeEndObject();
+      gen.writeStringField("type", "wikibase-entityid");
+      gen.writeEndObject();
+      gen.writeEndObject();
+      gen.writeStringField("type", "statement");
+      gen.writeStringField("rank", "normal");
+      gen.writeEndObject();
+      gen.writeEndArray();
+      gen.writeEndObject();
+      gen.writeObjectFieldStart("sitelinks");
+      for(int l = 0; l < langs.length; l++)
+        if(e.titles[l] != null && !other) {
+          gen.writeObjectFieldStart(langs[l].code + "wiki");
+          gen.writeStringField("site", langs[l].code + "wiki");
+          gen.writeStringField("title", e.titles[l]);
+          gen.writeArrayFieldStart("badges");
+          gen.writeEndArray();
+          gen.writeEndObject();
+        }
+      if(other) {
+        gen.writeObjectFieldStart("itwiki");
+        gen.writeStringField("site", "itwiki");
+        gen.writeStringField("title", e.titles[0] != null ? e.titles[0] : "Q" + e.id);
+        gen.writeArrayFieldStart("badges");
+        gen.writeEndArray();
+        gen.writeEndObject();
+      }
+      gen.writeEndObject();
+      gen.writeEndObject();
+      items++;
+    }
+    gen.writeRaw("\n]\n");
+    gen.flush();
+  }
+
+  /**
+   * Generate a dump from the command line.
+   *
+   * Options: {@code -dir} output directory, {@code -name} dump name,
+   * {@code -entities} number of entities per 1x scale, {@code -scale} factor,
+   * {@code -seed}, {@code -languages} comma separated codes, {@code -skew} Zipf
+   * exponent of the links, {@code -paragraphs} median paragraphs per article,
+   * {@code -sigma} of their log-normal distribution, and {@code -format}
+   * plain, bz2 or multistream.
+   *
+   * @param args Options
+   */
+  public static void main(String[] args) {
+    String dir = "synthetic", name = "synthetic", languages = "en,de,fr", format = "multistream";
+    int entities = 800;
+    double scale = 1, skew = 1., paragraphs = Math.exp(.8), sigma = .9;
+    long seed = 1;
+    for(int i = 0; i + 1 < args.length; i += 2) {
+      switch(args[i]){
+      case "-dir":
+        dir = args[i + 1];
+        break;
+      case "-name":
+        name = args[i + 1];
+        break;
+      case "-entities":
+        entities = Integer.parseInt(args[i + 1]);
+        break;
+      case "-scale":
+        scale = Double.parseDouble(args[i + 1]);
+        break;
+      case "-seed":
+        seed = Long.parseLong(args[i + 1]);
+        break;
+      case "-languages":
+        languages = args[i + 1];
+        break;
+      case "-skew":
+        skew = Double.parseDouble(args[i + 1]);
+        break;
+      case "-paragraphs":
+        paragraphs = Double.parseDouble(args[i + 1]);
+        break;
+      case "-sigma":
+        sigma = Double.parseDouble(args[i + 1]);
+        break;
+      case "-format":
+        format = args[i + 1];
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+    DumpGenerator gen = new DumpGenerator((int) Math.round(entities * scale), seed) //
+        .setLanguages(languages.split(",")).setSkew(skew).setArticleSize(paragraphs, sigma) //
+        .setFormat(Format.valueOf(format.toUpperCase()));
+    try {
+      long start = System.nanoTime();
+      for(File f : gen.write(new File(dir), name))
+        System.err.format("Wrote %s (%.1f MB).\n", f, f.length() / 1048576.);
+      System.err.format("%d pages and %d Wikidata items in %.1f s.\n", gen.getArticles(), gen.getItems(), (System.nanoTime() - start) / 1e9);
+    }
+    catch(IOException e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.github.kno10.wikipediaentities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.github.kno10.wikipediaentities.util.Util;
+
+/**
+ * Wikitext fixtures for the benchmarks, as found in the dump after XML
+ * decoding: with HTML entities and markup.
+ */
+public class Fixtures {
+  /** Fixture names, as used by the {@code @Param} annotations */
+  public static final String EN_CITY = "en-city", DE_PERSON = "de-person", EN_STUB = "en-stub";
+
+  /** All fixtures */
+  public static final String[] ALL = { EN_CITY, DE_PERSON, EN_STUB };
+
+  /** Link labels */
+  private static final Pattern LINK = Pattern.compile("\\[\\[([^\\]\\[\\|]+)(?:\\|([^\\]\\[]+))?\\]\\]");
+
+  /**
+   * Fake constructor.
+   */
+  private Fixtures() {
+    // Static methods only.
+  }
+
+  /**
+   * Load the raw wikitext of a fixture.
+   *
+   * @param name Fixture name
+   * @return Wikitext, with entities
+   */
+  public static String raw(String name) {
+    try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name + ".wiki")) {
+      if(in == null)
+        throw new IllegalArgumentException("No such fixture: " + name);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[8192];
+      for(int n; (n = in.read(buf)) > 0;)
+        out.write(buf, 0, n);
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+    catch(IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Load the wikitext of a fixture, as passed to the handlers.
+   *
+   * @param name Fixture name
+   * @return Cleaned wikitext
+   */
+  public static String cleaned(String name) {
+    return Util.removeSpecial(Util.removeEntities(raw(name)));
+  }
+
+  /**
+   * Get the language prefix of a fixture.
+   *
+   * @param name Fixture name
+   * @return Prefix
+   */
+  public static String prefix(String name) {
+    return name.substring(0, name.indexOf('-')) + "wiki:";
+  }
+
+  /**
+   * Extract the link labels of all fixtures.
+   *
+   * @return Labels
+   */
+  public static List<String> labels() {
+    List<String> labels = new ArrayList<>();
+    for(String name : ALL) {
+      Matcher m = LINK.matcher(cleaned(name));
+      while(m.find())
+        labels.add(m.group(2) != null ? m.group(2) : m.group(1));
+    }
+    return labels;
+  }
+}
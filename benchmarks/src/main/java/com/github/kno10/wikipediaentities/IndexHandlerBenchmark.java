@@ -0,0 +1,86 @@
+package com.github.kno10.wikipediaentities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.kno10.wikipediaentities.util.WikitextLexer;
+
+/**
+ * Benchmark the markup stripping, link detection and indexing of an article.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexHandlerBenchmark {
+  /** Fixture */
+  @Param({ Fixtures.EN_CITY, Fixtures.DE_PERSON, Fixtures.EN_STUB })
+  String fixture;
+
+  /** Prefix and text, as passed by the parser */
+  String prefix, text;
+
+  /** Temporary index directory */
+  Path dir;
+
+  /** Indexer */
+  LuceneWikipediaIndexer indexer;
+
+  /** Handler of the indexer */
+  Handler handler;
+
+  /** Markup stripping only */
+  WikitextLexer lexer = new WikitextLexer();
+
+  @Setup
+  public void setup() throws IOException {
+    prefix = Fixtures.prefix(fixture);
+    text = Fixtures.cleaned(fixture);
+    dir = Files.createTempDirectory("bench-index");
+    indexer = new LuceneWikipediaIndexer(dir.toString());
+    handler = indexer.makeThreadHandler(new HandlerList());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    indexer.abort();
+    try (Stream<Path> files = Files.list(dir)) {
+      for(Path p : (Iterable<Path>) files::iterator)
+        Files.delete(p);
+    }
+    Files.delete(dir);
+  }
+
+  @Benchmark
+  public void rawArticle() {
+    handler.rawArticle(prefix, fixture, text);
+  }
+
+  /**
+   * Markup stripping and link detection, without indexing.
+   *
+   * @return Text length
+   */
+  @Benchmark
+  public int strip() {
+    return lexer.clean(text, (targ, labl) -> labl != null ? labl : targ).length();
+  }
+}
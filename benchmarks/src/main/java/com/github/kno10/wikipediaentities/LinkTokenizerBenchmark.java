@@ -0,0 +1,48 @@
+package com.github.kno10.wikipediaentities;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark the normalization of link labels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkTokenizerBenchmark {
+  /** Link labels of all fixtures */
+  String[] labels;
+
+  /** Link handler */
+  Handler handler;
+
+  @Setup
+  public void setup() {
+    List<String> l = Fixtures.labels();
+    labels = l.toArray(new String[l.size()]);
+    handler = new LuceneLinkTokenizer(null).makeThreadHandler();
+  }
+
+  /**
+   * Tokenize and count all labels.
+   */
+  @Benchmark
+  public void linkDetected() {
+    for(String label : labels)
+      handler.linkDetected("enwiki:", "Benchmark", label, "enwiki:Benchmark");
+  }
+}
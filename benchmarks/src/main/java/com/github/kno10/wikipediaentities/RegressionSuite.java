@@ -0,0 +1,277 @@
+package com.github.kno10.wikipediaentities;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * End-to-end regression suite: run the three stages ({@link ParseWikipedia},
+ * {@link LoadWikiData}, {@link AnalyzeLinks}) on a generated mini dump, check
+ * their outputs against golden files, and their wall time, throughput and peak
+ * heap against a baseline.
+ *
+ * The golden files are independent of the machine, and checked in. The
+ * baseline is not, so it is recorded on the first run, or with
+ * {@code -Dregression.record=true}, which also rewrites the golden files.
+ *
+ * System properties:
+ * <ul>
+ * <li>{@code regression.dir}: working directory</li>
+ * <li>{@code regression.golden}: directory of the golden files</li>
+ * <li>{@code regression.baseline}: performance baseline</li>
+ * <li>{@code regression.output}: file to write the measurements to</li>
+ * <li>{@code regression.tolerance}: allowed relative regression</li>
+ * <li>{@code regression.entities}: size of the mini dump</li>
+ * <li>{@code regression.record}: record golden files and baseline</li>
+ * <li>{@code regression.fused}: run the stages with {@link Pipeline}</li>
+ * </ul>
+ * Other properties override the configuration, e.g. {@code -Dparallelism=2}.
+ */
+public class RegressionSuite {
+  /** Output files compared to the golden files */
+  static final String[] OUTPUTS = { "redirects.gz", "links.gz", "linktext.gz", "wikidata.tsv.gz", "entities.gz" };
+
+  /** Working directory */
+  File dir = new File(System.getProperty("regression.dir", "benchmarks/target/regression"));
+
+  /** Golden files */
+  File golden = new File(System.getProperty("regression.golden", "benchmarks/golden"));
+
+  /** Performance baseline */
+  File baseline = new File(System.getProperty("regression.baseline", "benchmarks/results/regression-baseline.properties"));
+
+  /** Measurements output */
+  File output = new File(System.getProperty("regression.output", "benchmarks/results/regression.properties"));
+
+  /** Allowed relative regression */
+  double tolerance = Double.parseDouble(System.getProperty("regression.tolerance", "0.25"));
+
+  /** Record golden files and baseline */
+  boolean record = Boolean.getBoolean("regression.record");
+
+  /** Run all stages in one JVM, with {@link Pipeline} */
+  boolean fused = Boolean.getBoolean("regression.fused");
+
+  /** Measurements of the stages */
+  Properties measured = new Properties();
+
+  /** Detected regressions */
+  List<String> failures = new ArrayList<>();
+
+  /**
+   * A pipeline stage.
+   */
+  interface Stage {
+    void run() throws IOException;
+  }
+
+  /**
+   * Run the suite.
+   *
+   * @throws IOException on errors
+   */
+  void run() throws IOException {
+    delete(dir);
+    File in = new File(dir, "input"), out = new File(dir, "output");
+    out.mkdirs();
+    DumpGenerator gen = new DumpGenerator(Integer.getInteger("regression.entities", 800), 1L);
+    List<File> files = gen.write(in, "mini");
+    StringBuilder sources = new StringBuilder();
+    for(File f : files.subList(0, files.size() - 1))
+      sources.append(sources.length() > 0 ? "," : "").append(f.getPath());
+    System.setProperty("loader.source", sources.toString());
+    System.setProperty("wikidata.input", files.get(files.size() - 1).getPath());
+    System.setProperty("indexer.dir", new File(dir, "index").getPath());
+    for(String name : OUTPUTS)
+      System.setProperty(name.substring(0, name.indexOf('.')) + ".output", new File(out, name).getPath());
+    System.setProperty("checkpoint.interval", "0");
+    System.setProperty("metrics.interval", "0");
+
+    if(fused) {
+      System.setProperty("pipeline.artifacts", "true");
+      measure("pipeline", gen.getArticles(), () -> Pipeline.main(new String[0]));
+    }
+    else {
+      measure("parse", gen.getArticles(), () -> ParseWikipedia.main(new String[0]));
+      measure("wikidata", gen.getItems(), () -> LoadWikiData.main(new String[0]));
+      measure("analyze", count(new File(out, "linktext.gz")), () -> AnalyzeLinks.main(new String[0]));
+    }
+
+    for(String name : OUTPUTS)
+      compare(new File(out, name), new File(golden, name));
+    output.getAbsoluteFile().getParentFile().mkdirs();
+    try (OutputStream os = new FileOutputStream(output)) {
+      measured.store(os, "Regression suite measurements");
+    }
+    if(record || !baseline.exists()) {
+      baseline.getAbsoluteFile().getParentFile().mkdirs();
+      try (OutputStream os = new FileOutputStream(baseline)) {
+        measured.store(os, "Regression suite baseline");
+      }
+      System.err.println("Recorded baseline " + baseline);
+    }
+    else
+      checkBaseline();
+  }
+
+  /**
+   * Run a stage, and measure its wall time, throughput and peak heap.
+   *
+   * @param name Stage name
+   * @param items Number of items processed by the stage
+   * @param stage Stage
+   * @throws IOException on errors
+   */
+  void measure(String name, long items, Stage stage) throws IOException {
+    System.gc();
+    List<MemoryPoolMXBean> pools = new ArrayList<>();
+    for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+      if(pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+        pools.add(pool);
+      }
+    final long start = System.nanoTime();
+    stage.run();
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    long heap = 0;
+    for(MemoryPoolMXBean pool : pools)
+      heap += pool.getPeakUsage().getUsed();
+    measured.setProperty(name + ".seconds", String.format("%.3f", seconds));
+    measured.setProperty(name + ".rate", String.format("%.1f", items / seconds));
+    measured.setProperty(name + ".heap", Long.toString(heap));
+    System.err.format("Stage %s: %d items in %.2f s, %.1f items/s, %.1f MB peak heap.\n", name, items, seconds, items / seconds, heap / 1048576.);
+  }
+
+  /**
+   * Compare an output file to its golden file, ignoring the line order.
+   *
+   * @param actual Output file
+   * @param expected Golden file
+   * @throws IOException on errors
+   */
+  void compare(File actual, File expected) throws IOException {
+    List<String> lines = readLines(actual);
+    Collections.sort(lines);
+    if(record) {
+      golden.mkdirs();
+      try (PrintStream ps = new PrintStream(new GZIPOutputStream(new FileOutputStream(expected)), false, "UTF-8")) {
+        for(String line : lines)
+          ps.append(line).append('\n');
+      }
+      System.err.println("Recorded golden file " + expected);
+      return;
+    }
+    if(!expected.exists()) {
+      failures.add("Missing golden file " + expected + ", run with -Dregression.record=true");
+      return;
+    }
+    List<String> want = readLines(expected);
+    for(int i = 0; i < Math.min(lines.size(), want.size()); i++)
+      if(!lines.get(i).equals(want.get(i))) {
+        failures.add(String.format("%s differs at sorted line %d:\n  expected: %s\n  actual:   %s", actual.getName(), i + 1, want.get(i), lines.get(i)));
+        return;
+      }
+    if(lines.size() != want.size())
+      failures.add(String.format("%s has %d lines, expected %d", actual.getName(), lines.size(), want.size()));
+  }
+
+  /**
+   * Compare the measurements to the baseline.
+   *
+   * @throws IOException on errors
+   */
+  void checkBaseline() throws IOException {
+    Properties base = new Properties();
+    try (InputStream is = new FileInputStream(baseline)) {
+      base.load(is);
+    }
+    for(String key : new TreeSet<>(measured.stringPropertyNames())) {
+      String b = base.getProperty(key);
+      if(b == null)
+        continue;
+      double was = Double.parseDouble(b), now = Double.parseDouble(measured.getProperty(key));
+      // Higher is better for the rate only.
+      boolean worse = key.endsWith(".rate") ? now * (1 + tolerance) < was : now > was * (1 + tolerance);
+      System.err.format("%-18s %14s %14s %+7.1f%%%s\n", key, b, measured.getProperty(key), (now / was - 1) * 100, worse ? "  REGRESSION" : "");
+      if(worse)
+        failures.add(String.format("%s regressed from %s to %s, beyond the tolerance of %.0f%%", key, b, measured.getProperty(key), tolerance * 100));
+    }
+  }
+
+  /**
+   * Read the lines of a gzip compressed file.
+   *
+   * @param f File
+   * @return Lines
+   * @throws IOException on errors
+   */
+  static List<String> readLines(File f) throws IOException {
+    List<String> lines = new ArrayList<>();
+    try (BufferedReader r = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(f)), StandardCharsets.UTF_8))) {
+      for(String line; (line = r.readLine()) != null;)
+        lines.add(line);
+    }
+    return lines;
+  }
+
+  /**
+   * Count the lines of a gzip compressed file.
+   *
+   * @param f File
+   * @return Number of lines
+   * @throws IOException on errors
+   */
+  static long count(File f) throws IOException {
+    return readLines(f).size();
+  }
+
+  /**
+   * Delete a file or directory recursively.
+   *
+   * @param f File
+   */
+  static void delete(File f) {
+    File[] children = f.listFiles();
+    if(children != null)
+      for(File c : children)
+        delete(c);
+    f.delete();
+  }
+
+  /**
+   * Run the regression suite.
+   *
+   * @param args Unused
+   */
+  public static void main(String[] args) {
+    RegressionSuite suite = new RegressionSuite();
+    try {
+      suite.run();
+    }
+    catch(IOException e) {
+      e.printStackTrace();
+      System.exit(2);
+    }
+    for(String f : suite.failures)
+      System.err.println("FAILED: " + f);
+    System.err.println(suite.failures.isEmpty() ? "Regression suite passed." : "Regression suite failed.");
+    System.exit(suite.failures.isEmpty() ? 0 : 1);
+  }
+}
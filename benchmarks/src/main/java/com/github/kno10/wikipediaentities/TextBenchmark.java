@@ -0,0 +1,114 @@
+package com.github.kno10.wikipediaentities;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.text.translate.EntityArrays;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.kno10.wikipediaentities.util.PrefixTreeMatcher;
+import com.github.kno10.wikipediaentities.util.SubstitutionMatcher;
+import com.github.kno10.wikipediaentities.util.TextNormalizer;
+import com.github.kno10.wikipediaentities.util.Util;
+
+/**
+ * Benchmark the character level cleaning of the article text.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextBenchmark {
+  /** Fixture */
+  @Param({ Fixtures.EN_CITY, Fixtures.DE_PERSON, Fixtures.EN_STUB })
+  String fixture;
+
+  /** Use the compiled matchers, or the prefix trees */
+  @Param({ "true", "false" })
+  boolean compiled;
+
+  /** Raw text, and text without entities */
+  String raw, decoded;
+
+  /** Entity matcher, as used by {@link Util#removeEntities} */
+  SubstitutionMatcher matcher;
+
+  /** Output buffer */
+  StringBuilder buf = new StringBuilder();
+
+  /** Fused entity and special character replacement */
+  TextNormalizer normalizer;
+
+  @Setup
+  public void setup() {
+    Util.setCompiledMatchers(compiled);
+    normalizer = new TextNormalizer();
+    raw = Fixtures.raw(fixture);
+    decoded = Util.removeEntities(raw);
+    PrefixTreeMatcher tree = PrefixTreeMatcher.makeNumericalEntityMatcher();
+    for(String[] p : EntityArrays.BASIC_UNESCAPE())
+      tree.add(p[0], p[1]);
+    for(String[] p : EntityArrays.ISO8859_1_UNESCAPE())
+      tree.add(p[0], p[1]);
+    for(String[] p : EntityArrays.HTML40_EXTENDED_UNESCAPE())
+      tree.add(p[0], p[1]);
+    matcher = compiled ? tree.compile() : tree;
+  }
+
+  @Benchmark
+  public String removeEntities() {
+    return Util.removeEntities(raw);
+  }
+
+  @Benchmark
+  public String removeSpecial() {
+    return Util.removeSpecial(decoded);
+  }
+
+  /**
+   * Both replacements, as separate passes.
+   *
+   * @return Normalized text
+   */
+  @Benchmark
+  public String removeEntitiesAndSpecial() {
+    return Util.removeSpecial(Util.removeEntities(raw));
+  }
+
+  /**
+   * Both replacements, in a single pass into a reused buffer.
+   *
+   * @return Normalized text length
+   */
+  @Benchmark
+  public int normalize() {
+    return normalizer.normalize(raw).length();
+  }
+
+  /**
+   * Try to match at every position, as the cleaning does.
+   *
+   * @return Number of matched characters
+   * @throws IOException never
+   */
+  @Benchmark
+  public int prefixTreeMatch() throws IOException {
+    buf.setLength(0);
+    int matched = 0;
+    for(int i = 0, end = raw.length(); i < end; i++)
+      matched += matcher.match(raw, i, end, buf);
+    return matched;
+  }
+}
@@ -0,0 +1,63 @@
+package com.github.kno10.wikipediaentities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.kno10.wikipediaentities.util.Unique;
+
+/**
+ * Benchmark string unification, as used when loading the link data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UniqueBenchmark {
+  /** Words of all fixtures, as separate string instances */
+  String[] words;
+
+  /** Unifier */
+  Unique<String> unique;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    List<String> all = new ArrayList<>();
+    for(String name : Fixtures.ALL)
+      for(String w : Fixtures.cleaned(name).split("[\\s\\[\\]|{}=]+"))
+        if(!w.isEmpty())
+          all.add(new String(w));
+    words = all.toArray(new String[all.size()]);
+  }
+
+  @Setup(Level.Iteration)
+  public void reset() {
+    unique = new Unique<>();
+  }
+
+  /**
+   * Unify all words, most of which are already known after the first call.
+   *
+   * @return Number of distinct words
+   */
+  @Benchmark
+  public int addOrGet() {
+    for(String w : words)
+      unique.addOrGet(w);
+    return unique.size();
+  }
+}
@@ -0,0 +1,9 @@
+#!/bin/sh
+# Run the JMH benchmarks, and keep the results per commit for comparison.
+# Extra arguments are passed to JMH, e.g. a benchmark regexp or "-f 1 -wi 1".
+set -e
+cd "$(dirname "$0")/.."
+mvn -B -q install -Dmaven.test.skip=true
+(cd benchmarks && mvn -B -q clean package)
+mkdir -p benchmarks/results
+java -jar benchmarks/target/benchmarks.jar -rf json -rff benchmarks/results/$(git rev-parse --short HEAD).json "$@"
@@ -0,0 +1,13 @@
+#!/bin/sh
+# Run the end-to-end regression suite on a generated mini dump. The outputs
+# are checked against benchmarks/golden, the wall time, throughput and peak
+# heap against benchmarks/results/regression-baseline.properties (recorded
+# on the first run). Pass -Dregression.record=true to record both anew, and
+# e.g. -Dregression.tolerance=0.1 to change the allowed regression.
+set -e
+cd "$(dirname "$0")/.."
+mvn -B -q install -Dmaven.test.skip=true
+(cd benchmarks && mvn -B -q clean package)
+mkdir -p benchmarks/results
+java -Xmx3g -Dregression.output=benchmarks/results/regression-$(git rev-parse --short HEAD).properties "$@" \
+  -cp benchmarks/target/benchmarks.jar com.github.kno10.wikipediaentities.RegressionSuite
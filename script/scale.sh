@@ -0,0 +1,29 @@
+#!/bin/sh
+# Run the pipeline on generated dumps at 1x, 10x and 100x scale (800, 8,000
+# and 80,000 entities), and report the wall time of each stage. Further
+# arguments are passed to the dump generator, e.g. -format bz2 -skew 1.2 or
+# -languages en,de,fr,es. Set SCALES to choose other factors.
+set -e
+cd "$(dirname "$0")/.."
+mvn -B -q install -Dmaven.test.skip=true
+(cd benchmarks && mvn -B -q clean package)
+JAR=benchmarks/target/benchmarks.jar
+PKG=com.github.kno10.wikipediaentities
+for scale in ${SCALES:-1 10 100}; do
+  dir=benchmarks/target/scale-$scale
+  rm -rf $dir
+  mkdir -p $dir/output
+  java -cp $JAR $PKG.DumpGenerator -dir $dir/input -name scale -scale $scale "$@"
+  sources=$(ls $dir/input/*wiki-scale-pages-articles*.xml* | grep -v index | paste -sd, -)
+  props="-Dloader.source=$sources -Dwikidata.input=$(ls $dir/input/wikidata-scale-all.json*)
+    -Dindexer.dir=$dir/index -Dcheckpoint.interval=0 -Dmetrics.interval=0"
+  for name in redirects links linktext entities; do
+    props="$props -D$name.output=$dir/output/$name.gz"
+  done
+  props="$props -Dwikidata.output=$dir/output/wikidata.tsv.gz"
+  for stage in ParseWikipedia LoadWikiData AnalyzeLinks; do
+    start=$(date +%s%N)
+    java -Xmx3g $props -cp $JAR $PKG.$stage 2> $dir/$stage.log
+    echo "scale $scale: $stage $((($(date +%s%N) - start) / 1000000)) ms"
+  done
+done
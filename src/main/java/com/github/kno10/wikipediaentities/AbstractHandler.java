@@ -7,7 +7,7 @@ package com.github.kno10.wikipediaentities;
  */
 public abstract class AbstractHandler implements Handler {
 	@Override
-	public void rawArticle(String prefix, String title, String text) {
+	public void rawArticle(String prefix, String title, CharSequence text) {
 		// Ignore
 	}
 
@@ -21,6 +21,11 @@ public abstract class AbstractHandler implements Handler {
 		// Ignore
 	}
 
+	@Override
+	public void checkpoint() {
+		// Ignore
+	}
+
 	@Override
 	public void close() {
 		// Ignore
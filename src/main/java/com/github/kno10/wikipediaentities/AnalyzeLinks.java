@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -24,7 +26,10 @@ import org.apache.lucene.store.FSDirectory;
 
 import com.github.kno10.wikipediaentities.util.CounterSet;
 import com.github.kno10.wikipediaentities.util.CounterSet.Entry;
+import com.github.kno10.wikipediaentities.util.Metrics;
 import com.github.kno10.wikipediaentities.util.Progress;
+import com.github.kno10.wikipediaentities.util.Threads;
+import com.github.kno10.wikipediaentities.util.Trace;
 import com.github.kno10.wikipediaentities.util.Unique;
 import com.github.kno10.wikipediaentities.util.Util;
 
@@ -40,45 +45,75 @@ public class AnalyzeLinks {
             Arrays.asList("Q2035701:Race and ethnicity in the United States Census"));
     private static final int MINIMUM_MENTIONS = 20;
 
+    /** Candidates in flight */
+    private static final int QUEUE_SIZE = 1000;
+
     /** Collect unique strings. */
     Unique<String> unique = new Unique<>();
 
     Progress prog = new Progress("Computing support");
 
-    BlockingQueue<Candidate> proqueue = new ArrayBlockingQueue<>(1000);
+    /** Candidates read */
+    Metrics.Counter candidates = Metrics.counter("candidates.read");
+
+    /** Candidate analysis latency */
+    Metrics.Histogram latency = Metrics.histogram("candidates.latency");
 
-    BlockingQueue<Candidate> outqueue = new ArrayBlockingQueue<>(1000 + 1);
+    BlockingQueue<Candidate> proqueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
 
-    boolean shutdown = false;
+    BlockingQueue<Candidate> outqueue = new ArrayBlockingQueue<>(QUEUE_SIZE + 1);
+
+    volatile boolean shutdown = false;
 
     /** Lucene index searcher */
     IndexSearcher searcher;
 
     private void run() throws IOException {
+        // String unification, for performance.
+        Unique<String> unique = new Unique<>(50_000_000);
+        // Load Wikidata information:
+        Map<String, String> datamap = loadWikidata(unique, Config.get("wikidata.output"));
+        try (InputStream in = Util.openInput(Config.get("linktext.output"));
+             BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            // Load redirects; not kept here, so they can be freed after use.
+            run(datamap, loadRedirects(unique, Config.get("redirects.output")), r.lines().iterator());
+        }
+    }
+
+    /**
+     * Analyze the link texts.
+     *
+     * @param datamap Map of language versions to Wikidata entries (will be
+     *        modified)
+     * @param redmap Redirects, will be released
+     * @param phrases Tokenized link texts to analyze
+     * @throws IOException on errors
+     */
+    void run(Map<String, String> datamap, Reference2ReferenceOpenHashMap<String, String> redmap, Iterator<String> phrases) throws IOException {
         int par = Math.min(Integer.valueOf(Config.get("parallelism")), Runtime.getRuntime().availableProcessors());
+        // Virtual threads are cheap: use one per candidate in flight, so
+        // the index reads overlap without tuning the parallelism.
+        if(Threads.setVirtual(Boolean.parseBoolean(Config.get("threads.virtual"))))
+            par = QUEUE_SIZE;
+        Trace.setEnabled(Boolean.parseBoolean(Config.get("jfr.events")));
         if(par < 1) {
             throw new Error("At least 1 consumer must be allowed!");
         }
 
-        // String unification, for performance.
-        Unique<String> unique = new Unique<>(50_000_000);
-        // Load Wikidata information:
-        Map<String, String> datamap = loadWikidata(unique, Config.get("wikidata.output"));
         System.out.format("Read %d wikidata maps.\n", datamap.size());
-        // Load redirects
-        Reference2ReferenceOpenHashMap<String, String> redmap = loadRedirects(unique, Config.get("redirects.output"));
         System.out.format("Read %d redirects.\n", redmap.size());
-
         computeClosure(datamap, redmap);
         System.out.format("computed redirect clouse of %d wikidata maps.\n", datamap.size());
         redmap = null; // Free.
 
-        String nam = Config.get("linktext.output");
         String dir = Config.get("indexer.dir");
         String out = Config.get("entities.output");
         FSDirectory ldir = FSDirectory.open(FileSystems.getDefault().getPath(dir));
         IndexReader reader = DirectoryReader.open(ldir);
         searcher = new IndexSearcher(reader);
+        Metrics.meter("candidates.analyzed", prog::get);
+        Metrics.gauge("queue.candidates", proqueue::size);
+        Metrics.gauge("queue.output", outqueue::size);
 
         ArrayList<Thread> threads = new ArrayList<>();
         threads.add(new OutputThread(out));
@@ -86,11 +121,10 @@ public class AnalyzeLinks {
             threads.add(new WorkerThread("Worker-" + i, datamap));
 
         // Start all:
-        for(Thread th : threads)
-            th.start();
-        readall(nam);
+        List<Thread> started = Threads.startAll(threads);
+        readall(phrases);
         // Wait for all:
-        for(Thread th : threads) {
+        for(Thread th : started) {
             try {
                 th.join();
                 // Help the writer thread to shutdown...
@@ -102,6 +136,7 @@ public class AnalyzeLinks {
                 e.printStackTrace();
             }
         }
+        reader.close();
     }
 
     /**
@@ -114,37 +149,70 @@ public class AnalyzeLinks {
      * @throws IOException
      */
     private Map<String, String> loadWikidata(Unique<String> unique, String fnam) throws IOException {
-        Map<String, String> m = new Object2ObjectOpenHashMap<>(30_000_000);
         try (BufferedReader r = new BufferedReader(//
-                new InputStreamReader(Util.openInput(fnam)))) {
+                new InputStreamReader(Util.openInput(fnam), StandardCharsets.UTF_8))) {
             String line = r.readLine();
             String[] header = line.split("\t");
-            StringBuilder buf = new StringBuilder();
+            WikidataMap m = new WikidataMap(unique, Arrays.copyOfRange(header, 1, header.length), 30_000_000);
+            String[] titles = new String[header.length - 1];
             while((line = r.readLine()) != null) {
                 String[] cols = line.split("\t");
-                assert (cols.length == header.length);
-                for(int i = 1; i < cols.length; i++) {
-                    final String title = cols[i];
-                    if(title == null || title.length() == 0)
-                        continue;
+                assert (cols.length <= header.length);
+                // Beware: Java "split" loses trailing separators!
+                for(int i = 1; i < header.length; i++) {
+                    titles[i - 1] = i < cols.length ? cols[i] : null;
                 }
-                String nam = null;
-                for(int i = 1; i < cols.length; i++) {
-                    if(cols[i] == null || cols[i].length() == 0) {
-                        continue;
-                    }
-                    if(nam == null) {
-                        buf.setLength(0);
-                        nam = unique.addOrGet(buf.append(cols[0]).append('|').append(cols[i]).toString());
-                    }
+                m.item(cols[0], titles);
+            }
+            return m.map;
+        }
+    }
+
+    /**
+     * Build the map of language versions to Wikidata entries, from the items.
+     */
+    static class WikidataMap implements LoadWikiData.ItemHandler {
+        /** Map language version to wiki data id */
+        Map<String, String> map;
+
+        /** String unification */
+        Unique<String> unique;
+
+        /** Wikis */
+        String[] wikis;
+
+        StringBuilder buf = new StringBuilder();
+
+        /**
+         * Constructor.
+         *
+         * @param unique String unification
+         * @param wikis Wikis, in the order of the titles
+         * @param expected Expected number of titles, 0 to grow as needed
+         */
+        public WikidataMap(Unique<String> unique, String[] wikis, int expected) {
+            this.unique = unique;
+            this.wikis = wikis;
+            this.map = expected > 0 ? new Object2ObjectOpenHashMap<>(expected) : new Object2ObjectOpenHashMap<>();
+        }
+
+        @Override
+        public void item(String id, String[] titles) {
+            String nam = null;
+            for(int i = 0; i < titles.length; i++) {
+                if(titles[i] == null || titles[i].length() == 0) {
+                    continue;
+                }
+                if(nam == null) {
                     buf.setLength(0);
-                    buf.append(header[i]).append(':').append(cols[i]);
-                    String prev = m.put(unique.addOrGet(buf.toString()), nam);
-                    assert (prev == null);
+                    nam = unique.addOrGet(buf.append(id).append('|').append(titles[i]).toString());
                 }
+                buf.setLength(0);
+                buf.append(wikis[i]).append(':').append(titles[i]);
+                String prev = map.put(unique.addOrGet(buf.toString()), nam);
+                assert (prev == null);
             }
         }
-        return m;
     }
 
     /**
@@ -159,7 +227,7 @@ public class AnalyzeLinks {
     private Reference2ReferenceOpenHashMap<String, String> loadRedirects(Unique<String> unique, String fnam) throws IOException {
         Reference2ReferenceOpenHashMap<String, String> m = new Reference2ReferenceOpenHashMap<>(15_000_000);
         try (BufferedReader r = new BufferedReader(//
-                new InputStreamReader(Util.openInput(fnam)))) {
+                new InputStreamReader(Util.openInput(fnam), StandardCharsets.UTF_8))) {
             String line = null;
             while((line = r.readLine()) != null) {
                 String[] cols = line.split("\t");
@@ -170,6 +238,26 @@ public class AnalyzeLinks {
         return m;
     }
 
+    /**
+     * Convert the redirects collected in memory, dropping the anchors as when
+     * loading them from the file. The input map is emptied, to free memory.
+     *
+     * @param unique String unification
+     * @param redirects Redirects, page name to target and optional anchor
+     * @return Hash map of redirects
+     */
+    static Reference2ReferenceOpenHashMap<String, String> redirects(Unique<String> unique, Map<String, String> redirects) {
+        Reference2ReferenceOpenHashMap<String, String> m = new Reference2ReferenceOpenHashMap<>(redirects.size());
+        for(Iterator<Map.Entry<String, String>> it = redirects.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, String> ent = it.next();
+            String targ = ent.getValue();
+            int p = targ.indexOf('\t');
+            m.put(unique.addOrGet(ent.getKey()), unique.addOrGet(p >= 0 ? targ.substring(0, p) : targ));
+            it.remove();
+        }
+        return m;
+    }
+
     /**
      * Compute the transitive closure of redirects, to be able to quickly follow a
      * redirect chain to the final WikiData entry.
@@ -238,7 +326,7 @@ public class AnalyzeLinks {
     /** Used for awaking the output thread */
     Object monitor = new Object();
 
-    private class WorkerThread extends Thread {
+    class WorkerThread extends Thread {
         Object2IntOpenHashMap<String> counters = new Object2IntOpenHashMap<>();
         Object2IntOpenHashMap<String> formCounters = new Object2IntOpenHashMap<>();
 
@@ -251,6 +339,9 @@ public class AnalyzeLinks {
 
         static final int EXACT = 0x1_0000;
 
+        /** Time spent searching and loading documents, and hits, for JFR */
+        long searchTime, loadTime, hits;
+
         public WorkerThread(String name, Map<String, String> datamap) {
             super(name);
             this.datamap = datamap;
@@ -263,7 +354,17 @@ public class AnalyzeLinks {
                     Candidate a = proqueue.poll(100, TimeUnit.MILLISECONDS);
                     if(a == null)
                         continue;
+                    final String phrase = a.query;
+                    Trace.beginCandidate();
+                    final long start = System.nanoTime();
+                    searchTime = loadTime = hits = 0;
                     analyze(a);
+                    // Wake up writer thread, if waiting.
+                    synchronized(monitor) {
+                        monitor.notifyAll();
+                    }
+                    Trace.endCandidate(phrase, hits, searchTime, loadTime, System.nanoTime() - start - searchTime - loadTime);
+                    latency.recordSince(start);
                     prog.incrementAndLog();
                 }
                 catch(InterruptedException e) {
@@ -276,15 +377,18 @@ public class AnalyzeLinks {
             }
         }
 
-        private void analyze(Candidate cand) throws IOException {
+        void analyze(Candidate cand) throws IOException {
             PhraseQuery.Builder pq = new PhraseQuery.Builder();
             for(String t : cand.query.split(" "))
                 pq.add(new Term(LuceneWikipediaIndexer.LUCENE_FIELD_TEXT, t));
             counters.clear();
             formCounters.clear();
             // Careful: max count must be less than 64k, because we use short counts!
+            long t = Trace.now();
             TopDocs res = searcher.search(pq.build(), 0xFFFF);
+            searchTime = Trace.elapsed(t);
             ScoreDoc[] docs = res.scoreDocs;
+            hits = docs.length;
             if(docs.length < MINIMUM_MENTIONS) {
                 cand.query = null; // Flag as dead.
                 return; // Too rare.
@@ -293,7 +397,9 @@ public class AnalyzeLinks {
             int weight = 0;
             boolean exactLink = false;
             for(int i = 0; i < docs.length; ++i) {
+                t = Trace.now();
                 Document d = searcher.doc(docs[i].doc);
+                loadTime += Trace.elapsed(t);
                 String[] lis = d.get(LuceneWikipediaIndexer.LUCENE_FIELD_LINKS).split("\t");
                 if(lis.length == 0) {
                     // String dtitle = d.get(LuceneWikipediaIndexer.LUCENE_FIELD_TITLE);
@@ -375,18 +481,13 @@ public class AnalyzeLinks {
             }
             else
                 cand.query = null; // Flag as dead.
-            // Wake up writer thread, if waiting.
-            synchronized(monitor) {
-                monitor.notifyAll();
-            }
         }
     }
 
-    public void readall(String nam) {
-        try (InputStream in = Util.openInput(nam);
-             BufferedReader r = new BufferedReader(new InputStreamReader(in))) {
-            String line;
-            while((line = r.readLine()) != null) {
+    public void readall(Iterator<String> phrases) {
+        try {
+            while(phrases.hasNext()) {
+                String line = phrases.next();
                 if(line.startsWith("category ")) {
                     continue; // Artifact.
                 }
@@ -394,13 +495,14 @@ public class AnalyzeLinks {
                     Candidate cand = new Candidate(line);
                     proqueue.put(cand);
                     outqueue.put(cand);
+                    candidates.increment();
                 }
                 catch(InterruptedException e) {
                     break;
                 }
             }
         }
-        catch(IOException e) {
+        catch(UncheckedIOException e) {
             e.printStackTrace();
         }
         shutdown = true; // Don't wait for more input to arrive.
@@ -422,17 +524,15 @@ public class AnalyzeLinks {
                         Candidate a = outqueue.poll(100, TimeUnit.MILLISECONDS);
                         if(a == null)
                             continue;
-                        while(true) {
-                            if(a.query == null)
-                                break; // Query failed to yield good results.
-                            if(a.matches != null) { // Success
-                                out.append(a.matches);
-                                out.append('\n');
-                                break;
-                            }
-                            synchronized(monitor) {
+                        // Check under the lock, to not miss the wakeup signal.
+                        synchronized(monitor) {
+                            while(a.query != null && a.matches == null)
                                 monitor.wait(); // Wait for wakeup signal
-                            }
+                        }
+                        // Else the query failed to yield good results.
+                        if(a.query != null) { // Success
+                            out.append(a.matches);
+                            out.append('\n');
                         }
                     }
                     catch(InterruptedException e) {
@@ -449,10 +549,15 @@ public class AnalyzeLinks {
 
     public static void main(String[] args) {
         try {
+            Util.setReadAhead(Integer.valueOf(Config.get("readahead.buffers")), Integer.valueOf(Config.get("readahead.size")));
+            Metrics.start(Config.get("metrics.output"), Double.valueOf(Config.get("metrics.interval")));
             (new AnalyzeLinks()).run();
         }
         catch(IOException e) {
             e.printStackTrace();
         }
+        finally {
+            Metrics.stop();
+        }
     }
 }
@@ -1,13 +1,34 @@
 package com.github.kno10.wikipediaentities;
 
+import java.nio.ByteBuffer;
+
+import com.github.kno10.wikipediaentities.util.BufferPool;
+import com.github.kno10.wikipediaentities.util.XMLBytes;
+
 /**
  * Class representing an article.
  *
+ * The text may be kept as the raw UTF-8 bytes of the dump, which are only
+ * decoded when needed, by the thread processing the article. This takes about
+ * half the memory of a string while the article is queued.
+ *
  * @author Erich Schubert
  */
 public class Article {
   /** Original content */
-  String prefix, title, redirect, rawtext;
+  String prefix, title, redirect;
+
+  /** Text, once decoded */
+  private String rawtext;
+
+  /** Raw, XML escaped UTF-8 text, until decoded */
+  private ByteBuffer raw;
+
+  /** Pool to return the buffer to, may be {@code null} */
+  private BufferPool pool;
+
+  /** Pooled buffer containing the raw text */
+  private byte[] owned;
 
   /**
    * Constructor.
@@ -24,4 +45,81 @@ public class Article {
     this.redirect = redirect;
     this.rawtext = rawtext;
   }
+
+  /**
+   * Constructor for byte-backed articles.
+   *
+   * @param prefix Prefix
+   * @param title Title
+   * @param redirect Redirect
+   * @param raw Raw text, UTF-8 and XML escaped; from position to limit.
+   * @param pool Pool to return the buffer to, may be {@code null}
+   * @param owned Pooled buffer backing {@code raw}
+   */
+  public Article(String prefix, String title, String redirect, ByteBuffer raw, BufferPool pool, byte[] owned) {
+    super();
+    this.prefix = prefix;
+    this.title = title;
+    this.redirect = redirect;
+    this.raw = raw;
+    this.pool = pool;
+    this.owned = owned;
+  }
+
+  /**
+   * Get the article text, decoding it if necessary.
+   *
+   * @return Text, or {@code null}
+   */
+  public String getText() {
+    if(rawtext == null && raw != null)
+      rawtext = XMLBytes.decode(raw, raw.position(), raw.limit());
+    return rawtext;
+  }
+
+  /**
+   * Get the raw, XML escaped UTF-8 text, if it is kept.
+   *
+   * @return Raw text from position to limit, or {@code null}
+   */
+  ByteBuffer getRaw() {
+    return raw;
+  }
+
+  /**
+   * Test if the article has a non-empty text.
+   *
+   * @return {@code true} when the article has text
+   */
+  public boolean hasText() {
+    return rawtext != null ? rawtext.length() > 0 : raw != null && raw.hasRemaining();
+  }
+
+  /**
+   * Estimate the memory used by this article, in bytes.
+   *
+   * @return Memory size estimate
+   */
+  public long memorySize() {
+    long size = 64 + 2 * (long) ((title != null ? title.length() : 0) + (redirect != null ? redirect.length() : 0));
+    if(rawtext != null)
+      size += 2 * (long) rawtext.length();
+    if(owned != null)
+      size += owned.length;
+    else if(raw != null)
+      size += raw.remaining();
+    return size;
+  }
+
+  /**
+   * Release the raw buffer, after processing. Text that has already been
+   * decoded remains available.
+   */
+  public void release() {
+    raw = null;
+    if(pool != null && owned != null)
+      pool.release(owned);
+    pool = null;
+    owned = null;
+  }
 }
@@ -0,0 +1,413 @@
+package com.github.kno10.wikipediaentities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * Binary cache of the extracted articles, to skip decompression and XML
+ * parsing when the dump is processed again.
+ *
+ * The file consists of independently compressed chunks of length-prefixed
+ * records, followed by an index of chunk offsets. Chunks can therefore be read
+ * by multiple threads in parallel. The file is written under a temporary name,
+ * and only renamed when complete. The header records the name, length and
+ * modification time of each source, and a cache of changed sources is not
+ * used. Texts kept as raw bytes are stored XML escaped, and are again only
+ * decoded by the thread processing the article.
+ */
+public class ArticleCache {
+  /** File format magic */
+  private static final long MAGIC = 0x5745434143484532L; // "WECACHE2"
+
+  /** Magic of the previous format, which did not keep raw texts */
+  private static final long MAGIC_V1 = 0x5745434143484531L; // "WECACHE1"
+
+  /** Target size of uncompressed chunks */
+  private static final int CHUNK_SIZE = 4 << 20;
+
+  /** Chunk header size: raw length, compressed length, record count */
+  private static final int CHUNK_HEADER = 12;
+
+  /** Text record types: decoded string, or raw XML escaped bytes */
+  private static final byte TEXT_DECODED = 0, TEXT_RAW = 1;
+
+  /** Output file name */
+  private String fname;
+
+  /** File channel */
+  private FileChannel channel;
+
+  /** Chunk offsets */
+  private LongArrayList offsets = new LongArrayList();
+
+  /** Next chunk to read */
+  private AtomicInteger nextChunk = new AtomicInteger();
+
+  /** Flag for caches opened for writing */
+  private boolean writing;
+
+  /** Writers, to free their compressors */
+  private List<ChunkWriter> writers = new ArrayList<>();
+
+  /**
+   * Constructor.
+   *
+   * @param fname File name
+   * @param channel File channel
+   * @param writing Flag for writing
+   */
+  private ArticleCache(String fname, FileChannel channel, boolean writing) {
+    this.fname = fname;
+    this.channel = channel;
+    this.writing = writing;
+  }
+
+  /**
+   * Create a new cache file.
+   *
+   * @param fname File name
+   * @param sources Input sources, to detect outdated caches
+   * @return Cache
+   * @throws IOException on errors
+   */
+  public static ArticleCache create(String fname, String sources) throws IOException {
+    FileChannel channel = FileChannel.open(new File(fname + ".tmp").toPath(), //
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    byte[] src = signature(sources).getBytes(StandardCharsets.UTF_8);
+    ByteBuffer header = ByteBuffer.allocate(12 + src.length);
+    ((Buffer) header.putLong(MAGIC).putInt(src.length).put(src)).flip();
+    writeFully(channel, header);
+    return new ArticleCache(fname, channel, true);
+  }
+
+  /**
+   * Open an existing cache file.
+   *
+   * @param fname File name
+   * @param sources Input sources, must match the sources used for writing,
+   *        and must not have changed since
+   * @return Cache, or {@code null} if the cache does not match the sources,
+   *         or uses an older format.
+   * @throws IOException on errors
+   */
+  public static ArticleCache open(String fname, String sources) throws IOException {
+    FileChannel channel = FileChannel.open(new File(fname).toPath(), StandardOpenOption.READ);
+    ByteBuffer header = readFully(channel, 0, 12);
+    final long magic = header.getLong();
+    if(magic == MAGIC_V1) {
+      channel.close();
+      return null; // Outdated format, rebuild.
+    }
+    if(magic != MAGIC) {
+      channel.close();
+      throw new IOException("Not an article cache: " + fname);
+    }
+    byte[] src = new byte[header.getInt()];
+    readFully(channel, 12, src.length).get(src);
+    if(!signature(sources).equals(new String(src, StandardCharsets.UTF_8))) {
+      channel.close();
+      return null;
+    }
+    // Trailer: index offset and magic.
+    ByteBuffer trailer = readFully(channel, channel.size() - 16, 16);
+    long ioff = trailer.getLong();
+    if(trailer.getLong() != MAGIC) {
+      channel.close();
+      throw new IOException("Incomplete article cache: " + fname);
+    }
+    ByteBuffer index = readFully(channel, ioff, (int) (channel.size() - 16 - ioff));
+    ArticleCache cache = new ArticleCache(fname, channel, false);
+    while(index.hasRemaining())
+      cache.offsets.add(index.getLong());
+    return cache;
+  }
+
+  /**
+   * Describe the input sources by name, length and modification time, so that
+   * a replaced file of the same name invalidates the cache.
+   *
+   * @param sources Input sources, comma separated
+   * @return Signature
+   */
+  private static String signature(String sources) {
+    StringBuilder buf = new StringBuilder();
+    for(String s : sources.split(",")) {
+      File f = new File(s);
+      buf.append(s).append('\t').append(f.length()).append('\t').append(f.lastModified()).append('\n');
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Make a writer for a single thread.
+   *
+   * @return Writer
+   */
+  public synchronized ChunkWriter makeThreadWriter() {
+    ChunkWriter w = new ChunkWriter();
+    writers.add(w);
+    return w;
+  }
+
+  /**
+   * Append a compressed chunk to the file.
+   *
+   * @param chunk Chunk data, including the header
+   * @throws IOException on errors
+   */
+  private synchronized void writeChunk(ByteBuffer chunk) throws IOException {
+    offsets.add(channel.position());
+    writeFully(channel, chunk);
+  }
+
+  /**
+   * Read the next unclaimed chunk. This is thread safe.
+   *
+   * @return Articles, or {@code null} when all chunks have been read.
+   * @throws IOException on errors
+   */
+  public List<Article> readNextChunk() throws IOException {
+    final int i = nextChunk.getAndIncrement();
+    if(i >= offsets.size())
+      return null;
+    final long off = offsets.getLong(i);
+    ByteBuffer header = readFully(channel, off, CHUNK_HEADER);
+    final int rawlen = header.getInt(), complen = header.getInt(), count = header.getInt();
+    ByteBuffer comp = readFully(channel, off + CHUNK_HEADER, complen);
+    byte[] raw = new byte[rawlen];
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(comp.array(), 0, complen);
+      if(inflater.inflate(raw) != rawlen)
+        throw new IOException("Corrupt chunk at offset " + off);
+    }
+    catch(DataFormatException e) {
+      throw new IOException("Corrupt chunk at offset " + off, e);
+    }
+    finally {
+      inflater.end();
+    }
+    ByteBuffer in = ByteBuffer.wrap(raw);
+    List<Article> articles = new ArrayList<>(count);
+    String prefix = null;
+    for(int j = 0; j < count; j++) {
+      String p = readString(in);
+      prefix = p.equals(prefix) ? prefix : p; // Share prefix strings.
+      String title = readString(in), redirect = readString(in);
+      if(in.get() == TEXT_RAW) {
+        final int len = in.getInt(), start = in.position();
+        ((Buffer) in).position(start + len);
+        articles.add(new Article(prefix, title, redirect, ByteBuffer.wrap(Arrays.copyOfRange(raw, start, start + len)), null, null));
+      }
+      else
+        articles.add(new Article(prefix, title, redirect, readString(in)));
+    }
+    return articles;
+  }
+
+  /**
+   * Close the cache. When writing, the index is written and the file renamed.
+   *
+   * @throws IOException on errors
+   */
+  public synchronized void close() throws IOException {
+    if(!channel.isOpen())
+      return;
+    endWriters();
+    if(writing) {
+      System.err.format("Closing %s output.\n", getClass().getSimpleName());
+      long ioff = channel.position();
+      ByteBuffer index = ByteBuffer.allocate(offsets.size() * 8 + 16);
+      for(int i = 0; i < offsets.size(); i++)
+        index.putLong(offsets.getLong(i));
+      ((Buffer) index.putLong(ioff).putLong(MAGIC)).flip();
+      writeFully(channel, index);
+    }
+    channel.close();
+    if(writing)
+      Files.move(new File(fname + ".tmp").toPath(), new File(fname).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Discard an incomplete cache file.
+   *
+   * @throws IOException on errors
+   */
+  public synchronized void abort() throws IOException {
+    endWriters();
+    channel.close();
+    if(writing) {
+      System.err.println("Input was not read completely, discarding article cache.");
+      Files.deleteIfExists(new File(fname + ".tmp").toPath());
+    }
+  }
+
+  /**
+   * Free the compressors of the writers.
+   */
+  private void endWriters() {
+    for(ChunkWriter w : writers)
+      w.deflater.end();
+    writers.clear();
+  }
+
+  /**
+   * Writer for a single thread, which collects articles into chunks.
+   */
+  public class ChunkWriter {
+    /** Uncompressed buffer */
+    private ByteArrayOutputStream bytes = new ByteArrayOutputStream(CHUNK_SIZE + (CHUNK_SIZE >> 2));
+
+    /** Data output */
+    private DataOutputStream out = new DataOutputStream(bytes);
+
+    /** Records in the current chunk */
+    private int count = 0;
+
+    /** Compressor */
+    private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    /** Compression buffer */
+    private byte[] comp = new byte[0];
+
+    /** Buffer for copying raw text that is not backed by an array */
+    private byte[] copy = new byte[0];
+
+    /**
+     * Add an article.
+     *
+     * @param a Article
+     * @throws IOException on errors
+     */
+    public void add(Article a) throws IOException {
+      writeString(out, a.prefix);
+      writeString(out, a.title);
+      writeString(out, a.redirect);
+      ByteBuffer raw = a.getRaw();
+      if(raw != null) {
+        // Keep the raw bytes, rather than decoding and encoding them again.
+        out.writeByte(TEXT_RAW);
+        out.writeInt(raw.remaining());
+        if(raw.hasArray())
+          out.write(raw.array(), raw.arrayOffset() + raw.position(), raw.remaining());
+        else {
+          if(copy.length < raw.remaining())
+            copy = new byte[raw.remaining()];
+          raw.duplicate().get(copy, 0, raw.remaining());
+          out.write(copy, 0, raw.remaining());
+        }
+      }
+      else {
+        out.writeByte(TEXT_DECODED);
+        writeString(out, a.getText());
+      }
+      ++count;
+      if(bytes.size() >= CHUNK_SIZE)
+        flush();
+    }
+
+    /**
+     * Compress and write the current chunk.
+     *
+     * @throws IOException on errors
+     */
+    public void flush() throws IOException {
+      if(count == 0)
+        return;
+      byte[] raw = bytes.toByteArray();
+      deflater.reset();
+      deflater.setInput(raw);
+      deflater.finish();
+      if(comp.length < raw.length + 1024)
+        comp = new byte[raw.length + (raw.length >> 3) + 1024];
+      ByteBuffer chunk = ByteBuffer.wrap(comp);
+      int len = deflater.deflate(comp, CHUNK_HEADER, comp.length - CHUNK_HEADER);
+      assert (deflater.finished());
+      chunk.putInt(raw.length).putInt(len).putInt(count);
+      ((Buffer) chunk).position(0).limit(CHUNK_HEADER + len);
+      writeChunk(chunk);
+      bytes.reset();
+      count = 0;
+    }
+  }
+
+  /**
+   * Write a string, with length prefix.
+   *
+   * @param out Output
+   * @param s String, may be {@code null}
+   * @throws IOException on errors
+   */
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    if(s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(b.length);
+    out.write(b);
+  }
+
+  /**
+   * Read a length prefixed string.
+   *
+   * @param in Input buffer
+   * @return String, or {@code null}
+   */
+  private static String readString(ByteBuffer in) {
+    final int len = in.getInt();
+    if(len < 0)
+      return null;
+    String s = new String(in.array(), in.position(), len, StandardCharsets.UTF_8);
+    ((Buffer) in).position(in.position() + len);
+    return s;
+  }
+
+  /**
+   * Write a buffer completely.
+   *
+   * @param channel Channel
+   * @param buf Buffer
+   * @throws IOException on errors
+   */
+  private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+    while(buf.hasRemaining())
+      channel.write(buf);
+  }
+
+  /**
+   * Read a region of the file completely.
+   *
+   * @param channel Channel
+   * @param off Offset
+   * @param len Length
+   * @return Buffer, ready for reading
+   * @throws IOException on errors
+   */
+  private static ByteBuffer readFully(FileChannel channel, long off, int len) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(len);
+    while(buf.hasRemaining())
+      if(channel.read(buf, off + buf.position()) < 0)
+        throw new IOException("Unexpected end of article cache.");
+    ((Buffer) buf).flip();
+    return buf;
+  }
+}
@@ -0,0 +1,290 @@
+package com.github.kno10.wikipediaentities;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.kno10.wikipediaentities.util.BatchQueue;
+
+/**
+ * Coordinate periodic checkpoints of a running import.
+ *
+ * When a checkpoint is due, the readers stop at the next page boundary and
+ * record how many pages of their input they have consumed. The workers drain
+ * the queue, flush their handlers, and wait. The last thread to arrive then
+ * lets all participants persist their state, and the Lucene commit (which
+ * includes the reader positions) makes the checkpoint durable. A restarted
+ * run reads the latest commit, and skips the pages that were already
+ * processed.
+ */
+public class Checkpointer {
+  /** Key for the checkpoint generation */
+  public static final String GENERATION = "checkpoint.generation";
+
+  /** Key prefix for reader positions */
+  private static final String POSITION = "checkpoint.position:";
+
+  /**
+   * Component that persists its state in each checkpoint.
+   */
+  public interface Participant {
+    /**
+     * Persist the current state.
+     *
+     * @param generation Checkpoint generation
+     * @param state Checkpoint state, to add to
+     * @throws IOException on errors
+     */
+    void checkpoint(int generation, Map<String, String> state) throws IOException;
+  }
+
+  /** Checkpoint interval in milliseconds */
+  private final long interval;
+
+  /** Time of the next checkpoint */
+  private long due;
+
+  /** Checkpoint requested */
+  private volatile boolean requested = false;
+
+  /** Current generation */
+  private int generation;
+
+  /** Reader positions, in pages */
+  private Map<String, Long> positions = new HashMap<>();
+
+  /** Participants, in the order they are checkpointed */
+  private Participant[] participants = new Participant[0];
+
+  /** Active readers and workers */
+  private int readers = 0, workers = 0;
+
+  /** Paused readers and workers */
+  private int pausedReaders = 0, pausedWorkers = 0;
+
+  /** Article queue between readers and workers */
+  private final BatchQueue<?> queue;
+
+  /**
+   * Constructor.
+   *
+   * @param interval Checkpoint interval in milliseconds
+   * @param state Checkpoint to resume from, may be empty
+   * @param queue Article queue between readers and workers
+   */
+  public Checkpointer(long interval, Map<String, String> state, BatchQueue<?> queue) {
+    this.interval = interval;
+    this.queue = queue;
+    this.due = System.currentTimeMillis() + interval;
+    String gen = state.get(GENERATION);
+    this.generation = gen != null ? Integer.parseInt(gen) : 0;
+    for(Map.Entry<String, String> e : state.entrySet())
+      if(e.getKey().startsWith(POSITION))
+        positions.put(e.getKey().substring(POSITION.length()), Long.valueOf(e.getValue()));
+  }
+
+  /**
+   * Get the current checkpoint generation.
+   *
+   * @return Generation, 0 if no checkpoint was made or resumed.
+   */
+  public synchronized int getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Get the number of pages already processed for an input.
+   *
+   * @param source Input file name
+   * @return Number of pages to skip
+   */
+  public synchronized long getPosition(String source) {
+    Long pos = positions.get(source);
+    return pos != null ? pos : 0L;
+  }
+
+  /**
+   * Add a participant. Participants are checkpointed in the order they were
+   * added, so the component that makes the checkpoint durable comes last.
+   *
+   * @param p Participant
+   */
+  public synchronized void addParticipant(Participant p) {
+    Participant[] n = new Participant[participants.length + 1];
+    System.arraycopy(participants, 0, n, 0, participants.length);
+    n[participants.length] = p;
+    participants = n;
+  }
+
+  /**
+   * Register a reader or worker thread. This must be done before the threads
+   * are started.
+   *
+   * @param reader {@code true} for readers
+   */
+  public synchronized void register(boolean reader) {
+    if(reader)
+      ++readers;
+    else
+      ++workers;
+  }
+
+  /**
+   * Test whether a checkpoint should be made. This is cheap, and can be called
+   * for every page.
+   *
+   * @return {@code true} when the caller should pause.
+   */
+  public boolean isRequested() {
+    if(!requested && System.currentTimeMillis() >= due)
+      requested = true;
+    return requested;
+  }
+
+  /**
+   * Pause a reader for a checkpoint. All pages up to the given position must
+   * have been put into the queue. Blocks until the checkpoint is complete.
+   *
+   * @param source Input file name
+   * @param position Number of pages read
+   * @throws InterruptedException when interrupted
+   */
+  public synchronized void readerPause(String source, long position) throws InterruptedException {
+    positions.put(source, position);
+    ++pausedReaders;
+    wakeWorkers();
+    awaitCheckpoint();
+    --pausedReaders;
+  }
+
+  /**
+   * Report that a reader has finished.
+   *
+   * @param source Input file name
+   * @param position Number of pages read, or -1 if the reader failed
+   */
+  public synchronized void readerDone(String source, long position) {
+    if(position >= 0)
+      positions.put(source, position);
+    --readers;
+    wakeWorkers();
+    tryComplete();
+  }
+
+  /**
+   * Once all readers have paused, let the workers stop waiting for articles,
+   * so they drain the queue and pause, too.
+   */
+  private void wakeWorkers() {
+    if(requested && pausedReaders >= readers)
+      queue.setPaused(true);
+  }
+
+  /**
+   * Pause a worker for a checkpoint, if all readers have paused and the queue
+   * has been drained. Otherwise, the worker must continue processing.
+   *
+   * @param handler Handler of the worker, to flush
+   * @throws InterruptedException when interrupted
+   */
+  public void workerPause(Handler handler) throws InterruptedException {
+    synchronized(this) {
+      if(!requested || pausedReaders < readers || !queue.isEmpty())
+        return;
+    }
+    // No more articles can arrive until the checkpoint is complete.
+    handler.checkpoint();
+    synchronized(this) {
+      ++pausedWorkers;
+      awaitCheckpoint();
+      --pausedWorkers;
+    }
+  }
+
+  /**
+   * Report that a worker has finished. Its handler must have been closed.
+   */
+  public synchronized void workerDone() {
+    --workers;
+    tryComplete();
+  }
+
+  /**
+   * Wait until the current checkpoint is complete.
+   *
+   * @throws InterruptedException when interrupted
+   */
+  private void awaitCheckpoint() throws InterruptedException {
+    final int gen = generation;
+    tryComplete();
+    while(generation == gen && requested)
+      wait();
+  }
+
+  /**
+   * Make the checkpoint, once everybody has paused.
+   */
+  private void tryComplete() {
+    if(!requested || pausedReaders < readers || pausedWorkers < workers)
+      return;
+    if(workers > 0) {
+      Map<String, String> nstate = new HashMap<>();
+      nstate.put(GENERATION, Integer.toString(generation + 1));
+      for(Map.Entry<String, Long> e : positions.entrySet())
+        nstate.put(POSITION + e.getKey(), e.getValue().toString());
+      long start = System.currentTimeMillis();
+      try {
+        for(Participant p : participants)
+          p.checkpoint(generation + 1, nstate);
+        ++generation;
+        System.err.format("Checkpoint %d complete after %d ms.\n", generation, System.currentTimeMillis() - start);
+      }
+      catch(IOException e) {
+        System.err.println("Checkpoint failed, continuing without.");
+        e.printStackTrace();
+      }
+    }
+    requested = false;
+    due = System.currentTimeMillis() + interval;
+    queue.setPaused(false);
+    notifyAll();
+  }
+
+  /**
+   * File name of a checkpoint snapshot of an output file.
+   *
+   * @param out Output file name
+   * @param generation Checkpoint generation
+   * @return Snapshot file name
+   */
+  public static String snapshotName(String out, int generation) {
+    return out + ".checkpoint-" + generation + ".gz";
+  }
+
+  /**
+   * Remove the remaining snapshots of an output, after completion.
+   *
+   * @param out Output file name
+   */
+  public synchronized void removeSnapshots(String out) {
+    for(int g = generation; g > 0 && g >= generation - 1; g--)
+      new File(snapshotName(out, g)).delete();
+  }
+
+  /**
+   * Remove snapshots that are no longer needed. The snapshot of the previous
+   * generation is kept until the current checkpoint has been committed.
+   *
+   * @param out Output file name
+   * @param generation Current generation
+   */
+  public static void removeOldSnapshots(String out, int generation) {
+    for(int g = generation - 2; g > 0; g--) {
+      File f = new File(snapshotName(out, g));
+      if(!f.exists())
+        break;
+      f.delete();
+    }
+  }
+}
@@ -27,13 +27,14 @@ public class Config {
 	}
 
 	/**
-	 * Get a property value.
+	 * Get a property value. A system property of the same name, e.g.
+	 * {@code -Dindexer.dir=...}, overrides the configuration file.
 	 * 
 	 * @param name
 	 *            Property name
 	 * @return Value.
 	 */
 	public static String get(String name) {
-		return PROPERTIES.getProperty(name);
+		return System.getProperty(name, PROPERTIES.getProperty(name));
 	}
 }
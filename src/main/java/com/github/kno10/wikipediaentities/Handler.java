@@ -23,6 +23,9 @@ public interface Handler {
 	/**
 	 * Process a raw article.
 	 *
+	 * The text may be a reused buffer: it is only valid during the call, and
+	 * must be copied with {@code toString()} to keep it.
+	 *
    * @param prefix
    *            Wiki prefix
 	 * @param title
@@ -30,7 +33,7 @@ public interface Handler {
 	 * @param text
 	 *            Article text
 	 */
-	void rawArticle(String prefix, String title, String text);
+	void rawArticle(String prefix, String title, CharSequence text);
 
 	/**
 	 * A new link was detected in an article
@@ -46,6 +49,11 @@ public interface Handler {
 	 */
 	void linkDetected(String prefix, String title, String label, String target);
 
+	/**
+	 * A checkpoint is being made. Flush any pending state.
+	 */
+	void checkpoint();
+
 	/**
 	 * Processing has finished. Cleanup and close.
 	 */
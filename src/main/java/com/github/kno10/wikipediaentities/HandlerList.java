@@ -19,7 +19,7 @@ public class HandlerList implements Handler {
 	}
 
 	@Override
-	public void rawArticle(String prefix, String title, String text) {
+	public void rawArticle(String prefix, String title, CharSequence text) {
 		for (Handler h : handlers)
 			h.rawArticle(prefix, title, text);
 	}
@@ -30,6 +30,12 @@ public class HandlerList implements Handler {
 			h.linkDetected(prefix, title, label, target);
 	}
 
+	@Override
+	public void checkpoint() {
+		for (Handler h : handlers)
+			h.checkpoint();
+	}
+
 	@Override
 	public void close() {
 		for (Handler h : handlers)
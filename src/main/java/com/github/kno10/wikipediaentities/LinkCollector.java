@@ -1,8 +1,14 @@
 package com.github.kno10.wikipediaentities;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import com.github.kno10.wikipediaentities.util.Util;
 
@@ -11,10 +17,19 @@ import com.github.kno10.wikipediaentities.util.Util;
  *
  * @author Erich Schubert
  */
-public class LinkCollector {
+public class LinkCollector implements Checkpointer.Participant {
+  /** Checkpoint key for the output length */
+  private static final String LENGTH = "links.length";
+
   /** Output writer */
   PrintStream writer;
 
+  /** Output file, {@code null} when writing to stdout */
+  private FileOutputStream fout;
+
+  /** Compressed output stream, if compressing */
+  private GZIPOutputStream gzout;
+
   /**
    * Constructor
    *
@@ -25,6 +40,51 @@ public class LinkCollector {
     writer = Util.openOutput(out);
   }
 
+  /**
+   * Constructor, resuming from a checkpoint.
+   *
+   * The output is truncated to the length recorded in the checkpoint, and
+   * appended to. Compressed output then continues with a new gzip member.
+   *
+   * @param out Output file name
+   * @param checkpoint Checkpoint state, may be empty
+   * @throws IOException When output file cannot be created
+   */
+  public LinkCollector(String out, Map<String, String> checkpoint) throws IOException {
+    String len = checkpoint.get(LENGTH);
+    if(len != null) {
+      try (FileChannel ch = FileChannel.open(new File(out).toPath(), StandardOpenOption.WRITE)) {
+        ch.truncate(Long.parseLong(len));
+      }
+    }
+    fout = new FileOutputStream(out, len != null);
+    openWriter(out.endsWith(".gz"));
+  }
+
+  /**
+   * Open the writer on the output file.
+   *
+   * @param compress Compress the output
+   * @throws IOException on errors
+   */
+  private void openWriter(boolean compress) throws IOException {
+    gzout = compress ? new GZIPOutputStream(fout) : null;
+    writer = new PrintStream(compress ? gzout : fout, false, "UTF-8");
+  }
+
+  @Override
+  public synchronized void checkpoint(int generation, Map<String, String> state) throws IOException {
+    if(fout == null)
+      throw new IOException("Cannot checkpoint output to stdout.");
+    writer.flush();
+    if(gzout != null)
+      gzout.finish();
+    fout.getFD().sync();
+    state.put(LENGTH, Long.toString(fout.getChannel().position()));
+    if(gzout != null)
+      openWriter(true);
+  }
+
   /**
    * Make handler for a single thread.
    *
@@ -56,7 +116,7 @@ public class LinkCollector {
      * @param next Next entry name
      */
     private void nextEntry(String prefix, String next) {
-      synchronized(writer) {
+      synchronized(LinkCollector.this) {
         // Write and close previous entry
         if(cur != null) {
           writer.append(curp);
@@ -71,6 +131,11 @@ public class LinkCollector {
       targets.clear();
     }
 
+    @Override
+    public void checkpoint() {
+      nextEntry(null, null);
+    }
+
     @Override
     public void close() {
       nextEntry(null, null);
@@ -78,7 +143,7 @@ public class LinkCollector {
     }
   }
 
-  public void close() {
+  public synchronized void close() {
     System.err.format("Closing %s output.\n", getClass().getSimpleName());
     if(writer != System.out)
       writer.close();
@@ -13,6 +13,7 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.kno10.wikipediaentities.util.Metrics;
 import com.github.kno10.wikipediaentities.util.Util;
 
 /**
@@ -21,26 +22,93 @@ import com.github.kno10.wikipediaentities.util.Util;
  * @author Erich Schubert
  */
 public class LoadWikiData {
+    /** Number of decompression threads */
+    private int decoders;
+
+    /**
+     * Constructor, using all available processors for decompression.
+     */
+    public LoadWikiData() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param decoders Number of decompression threads
+     */
+    public LoadWikiData(int decoders) {
+        this.decoders = decoders;
+    }
+
+    /**
+     * Receives the Wikidata items that have an article in the wikis of interest.
+     */
+    public interface ItemHandler {
+        /**
+         * Process an item.
+         *
+         * @param id Wikidata ID
+         * @param titles Article titles, in the order of the wikis; {@code null}
+         *        if there is no article in a wiki.
+         */
+        void item(String id, String[] titles);
+    }
+
     public void load(String finname, String foutname, String... wikis) throws IOException {
+        try (PrintStream out = Util.openOutput(foutname)) {
+            load(finname, writer(out, wikis), wikis);
+        }
+    }
+
+    /**
+     * Make a handler to write the items as tab separated table, with a header.
+     *
+     * @param out Output stream
+     * @param wikis Wikis, for the header
+     * @return Item handler
+     */
+    public static ItemHandler writer(PrintStream out, String... wikis) {
+        StringBuilder buf = new StringBuilder();
+        buf.append("WikiDataID");
+        for(int i = 0; i < wikis.length; i++) {
+            buf.append('\t').append(wikis[i]);
+        }
+        buf.append('\n');
+        out.append(buf);
+        return (id, titles) -> {
+            buf.setLength(0);
+            buf.append(id);
+            for(String title : titles) {
+                buf.append('\t');
+                if(title != null)
+                    buf.append(title);
+            }
+            buf.append('\n');
+            out.append(buf);
+        };
+    }
+
+    /**
+     * Load the Wikidata dump.
+     *
+     * @param finname Input file name
+     * @param handler Handler for the items with an article in any of the wikis
+     * @param wikis Wikis of interest, e.g. {@code enwiki}
+     * @throws IOException on errors
+     */
+    public void load(String finname, ItemHandler handler, String... wikis) throws IOException {
         JsonFactory jackf = new JsonFactory();
         jackf.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
-        try (InputStream in = Util.openInput(finname);
-             PrintStream out = Util.openOutput(foutname);
+        try (InputStream in = Util.openInput(finname, decoders);
              JsonParser parser = jackf.createParser(in)) {
             parser.setCodec(new ObjectMapper());
             parser.nextToken();
             assert (parser.getCurrentToken() == JsonToken.START_ARRAY);
             parser.nextToken();
 
-            StringBuilder buf = new StringBuilder();
-            buf.append("WikiDataID");
-            for(int i = 0; i < wikis.length; i++) {
-                buf.append('\t').append(wikis[i]);
-            }
-            buf.append('\n');
-            out.append(buf);
-
-            lines: while(parser.getCurrentToken() != JsonToken.END_ARRAY) {
+            // Advance on every iteration, also for the skipped items:
+            lines: for(; parser.getCurrentToken() != JsonToken.END_ARRAY; parser.nextToken()) {
                 assert (parser.getCurrentToken() == JsonToken.START_OBJECT);
                 JsonNode tree = parser.readValueAsTree();
                 JsonNode idn = tree.path("id");
@@ -70,39 +138,51 @@ public class LoadWikiData {
                         }
                     }
                 }
-                buf.setLength(0);
-                buf.append(idn.asText());
                 JsonNode sl = tree.path("sitelinks");
+                String[] titles = new String[wikis.length];
                 boolean good = false;
                 for(int i = 0; i < wikis.length; i++) {
                     JsonNode wln = sl.path(wikis[i]).path("title");
-                    buf.append('\t');
                     if(wln.isTextual()) {
-                        buf.append(wln.asText());
+                        titles[i] = wln.asText();
                         good |= true;
                     }
                 }
                 if(good) {
-                    buf.append('\n');
-                    out.append(buf);
+                    handler.item(idn.asText(), titles);
                 }
-                parser.nextToken();
             }
         }
     }
 
+    /**
+     * Get the wikis of the configured Wikipedia sources, from their file names.
+     *
+     * @param sources Comma separated file names, as {@code loader.source}
+     * @return Wikis, e.g. {@code enwiki}
+     */
+    public static String[] wikis(String sources) {
+        List<String> wikis = new ArrayList<>();
+        for(String s : sources.split(",")) {
+            String p = new File(s).getName().split("-")[0];
+            wikis.add(p);
+        }
+        return wikis.toArray(new String[0]);
+    }
+
     public static void main(String[] args) {
         try {
-            List<String> wikis = new ArrayList<>();
-            for(String s : Config.get("loader.source").split(",")) {
-                String p = new File(s).getName().split("-")[0];
-                wikis.add(p);
-            }
-            String[] wikisArray = wikis.toArray(new String[0]);
-            new LoadWikiData().load(Config.get("wikidata.input"), Config.get("wikidata.output"), wikisArray);
+            String[] wikisArray = wikis(Config.get("loader.source"));
+            int decoders = Math.min(Integer.valueOf(Config.get("decompression.threads")), Runtime.getRuntime().availableProcessors());
+            Util.setReadAhead(Integer.valueOf(Config.get("readahead.buffers")), Integer.valueOf(Config.get("readahead.size")));
+            Metrics.start(Config.get("metrics.output"), Double.valueOf(Config.get("metrics.interval")));
+            new LoadWikiData(decoders).load(Config.get("wikidata.input"), Config.get("wikidata.output"), wikisArray);
         }
         catch(IOException e) {
             e.printStackTrace();
         }
+        finally {
+            Metrics.stop();
+        }
     }
 }
@@ -1,9 +1,14 @@
 package com.github.kno10.wikipediaentities;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.core.LowerCaseFilter;
@@ -12,6 +17,7 @@ import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.wikipedia.WikipediaTokenizer;
 
 import com.github.kno10.wikipediaentities.util.FastStringReader;
+import com.github.kno10.wikipediaentities.util.Trace;
 import com.github.kno10.wikipediaentities.util.Util;
 
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
@@ -23,7 +29,7 @@ import it.unimi.dsi.fastutil.objects.ObjectIterator;
  *
  * @author Erich Schubert
  */
-public class LuceneLinkTokenizer {
+public class LuceneLinkTokenizer implements Checkpointer.Participant {
   /** Link text */
   Object2IntOpenHashMap<String> links = new Object2IntOpenHashMap<>();
 
@@ -82,6 +88,7 @@ public class LuceneLinkTokenizer {
     @Override
     public void linkDetected(String prefix, String title, String label, String target) {
       // Normalize the link text.
+      final long start = Trace.now();
       try {
         buf.delete(0, buf.length());
         tokenizer.reset();
@@ -102,10 +109,27 @@ public class LuceneLinkTokenizer {
       catch(IOException e) { // Should never happen in FastStringReader
         e.printStackTrace();
       }
+      finally {
+        Trace.phase(Trace.LINKS, start);
+      }
+    }
+
+    @Override
+    public void checkpoint() {
+      merge();
+      links = new Object2IntOpenHashMap<>();
     }
 
     @Override
     public void close() {
+      merge();
+      links = null;
+    }
+
+    /**
+     * Merge the local counts into the global counts.
+     */
+    private void merge() {
       synchronized(LuceneLinkTokenizer.this) {
         Object2IntOpenHashMap<String> plinks = LuceneLinkTokenizer.this.links;
         if(plinks.size() == 0) {
@@ -117,14 +141,44 @@ public class LuceneLinkTokenizer {
             plinks.addTo(ent.getKey(), ent.getIntValue());
           }
         }
-        links = null;
       }
     }
   }
 
-  public void close() throws IOException {
-    System.err.format("Closing %s output.\n", getClass().getSimpleName());
-    PrintStream writer = Util.openOutput(out);
+  @Override
+  public synchronized void checkpoint(int generation, Map<String, String> state) throws IOException {
+    // Write all counts, including those below the minimum support.
+    PrintStream writer = Util.openOutput(Checkpointer.snapshotName(out, generation));
+    for(ObjectIterator<Object2IntOpenHashMap.Entry<String>> it = links.object2IntEntrySet().fastIterator(); it.hasNext();) {
+      Object2IntOpenHashMap.Entry<String> ent = it.next();
+      writer.append(ent.getKey()).append('\t').append(Integer.toString(ent.getIntValue())).append('\n');
+    }
+    writer.close();
+    Checkpointer.removeOldSnapshots(out, generation);
+  }
+
+  /**
+   * Restore the counts collected up to a checkpoint.
+   *
+   * @param generation Checkpoint generation
+   * @throws IOException on errors
+   */
+  public synchronized void resume(int generation) throws IOException {
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(Util.openInput(Checkpointer.snapshotName(out, generation)), StandardCharsets.UTF_8))) {
+      for(String line; (line = in.readLine()) != null;) {
+        int p = line.lastIndexOf('\t');
+        if(p > 0)
+          links.addTo(line.substring(0, p), Integer.parseInt(line.substring(p + 1)));
+      }
+    }
+  }
+
+  /**
+   * Get the frequent link texts, with at least {@link #MINSUPP} occurrences.
+   *
+   * @return Sorted link texts
+   */
+  public synchronized List<String> frequent() {
     // We sort everything here. This is expensive, but makes the output
     // files nicer to use in the future.
     ArrayList<String> keys = new ArrayList<>(links.size());
@@ -135,7 +189,13 @@ public class LuceneLinkTokenizer {
       }
     }
     Collections.sort(keys);
-    for(String key : keys) {
+    return keys;
+  }
+
+  public void close() throws IOException {
+    System.err.format("Closing %s output.\n", getClass().getSimpleName());
+    PrintStream writer = Util.openOutput(out);
+    for(String key : frequent()) {
       writer.append(key);
       writer.append('\n');
     }
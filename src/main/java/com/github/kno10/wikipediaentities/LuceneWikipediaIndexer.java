@@ -3,33 +3,40 @@ package com.github.kno10.wikipediaentities;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.core.LowerCaseFilter;
 import org.apache.lucene.analysis.standard.ClassicFilter;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.wikipedia.WikipediaTokenizer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.store.FSDirectory;
 
-import com.github.kno10.wikipediaentities.util.FastStringReader;
-import com.github.kno10.wikipediaentities.util.Util;
+import com.github.kno10.wikipediaentities.util.LinearCleaner;
+import com.github.kno10.wikipediaentities.util.LinkNormalizer;
+import com.github.kno10.wikipediaentities.util.Stage;
+import com.github.kno10.wikipediaentities.util.Trace;
+import com.github.kno10.wikipediaentities.util.Watchdog;
+import com.github.kno10.wikipediaentities.util.WikitextLexer;
 
 /**
  * Class to load Wikipedia articles into a Lucene index.
  *
  * @author Erich Schubert
  */
-public class LuceneWikipediaIndexer {
+public class LuceneWikipediaIndexer implements Checkpointer.Participant {
   /** Lucene field name for text */
   public static final String LUCENE_FIELD_TEXT = "t";
 
@@ -42,6 +49,9 @@ public class LuceneWikipediaIndexer {
   /** Lucene index writer */
   private IndexWriter index;
 
+  /** Stage adding the documents to the index, {@code null} to add inline */
+  private Stage<Document> stage;
+
   /**
    * Constructor
    *
@@ -50,10 +60,89 @@ public class LuceneWikipediaIndexer {
    */
   public LuceneWikipediaIndexer(String dir) throws IOException {
     FSDirectory ldir = FSDirectory.open(FileSystems.getDefault().getPath(dir));
-    IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+    IndexWriterConfig config = new IndexWriterConfig(new WikipediaAnalyzer());
     index = new IndexWriter(ldir, config);
   }
 
+  /**
+   * Read the checkpoint stored with the latest commit of an index.
+   *
+   * @param dir Directory for Lucene index.
+   * @return Checkpoint state, empty if there is no index or checkpoint.
+   * @throws IOException on errors reading the index
+   */
+  public static Map<String, String> readCheckpoint(String dir) throws IOException {
+    try (FSDirectory ldir = FSDirectory.open(FileSystems.getDefault().getPath(dir))) {
+      if(!DirectoryReader.indexExists(ldir))
+        return Collections.emptyMap();
+      return SegmentInfos.readLatestCommit(ldir).getUserData();
+    }
+  }
+
+  /**
+   * Analyzer for the article text: Wikipedia tokenization, without the URLs of
+   * external links. Set on the index writer, so that any thread adding a
+   * document can analyze it.
+   */
+  private static class WikipediaAnalyzer extends Analyzer {
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+      Set<String> skip = new HashSet<>();
+      skip.add(WikipediaTokenizer.EXTERNAL_LINK_URL);
+      Tokenizer tokenizer = new WikipediaTokenizer(WikipediaTokenizer.TOKENS_ONLY, skip);
+      TokenStream stream = new ClassicFilter(tokenizer); // Removes 's etc
+      stream = new LowerCaseFilter(stream);
+      return new TokenStreamComponents(tokenizer, stream);
+    }
+  }
+
+  /**
+   * Add the documents to the index in a separate pipeline stage. Must be called
+   * before making the thread handlers.
+   *
+   * @param threads Number of threads
+   * @param capacity Queue capacity
+   * @return Stage, to start its threads
+   */
+  public Stage<Document> makeStage(int threads, int capacity) {
+    return stage = new Stage<>("index", threads, capacity, DocumentWorker::new);
+  }
+
+  /**
+   * Add a document to the index.
+   *
+   * @param doc Document
+   */
+  private void addDocument(Document doc) {
+    try {
+      index.addDocument(doc);
+    }
+    catch(IOException e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Worker of the indexing stage.
+   */
+  private class DocumentWorker implements Stage.Worker<Document> {
+    @Override
+    public void process(Document doc) {
+      addDocument(doc);
+    }
+
+    @Override
+    public void flush() {
+      // Nothing buffered.
+    }
+
+    @Override
+    public void close() {
+      // Nothing to close.
+    }
+  }
+
   /**
    * Make handler for a single thread.
    *
@@ -70,25 +159,8 @@ public class LuceneWikipediaIndexer {
    * @author Erich Schubert
    */
   private class IndexHandler extends AbstractHandler {
-    /** Lucene Wikipedia tokenizer */
-    private WikipediaTokenizer tokenizer;
-
-    /** Filtered token stream */
-    private TokenStream stream;
-
-    /** Patterns to strip from the wiki text */
-    private Matcher stripBasics = Pattern.compile("(<!--.*?-->|<math>(.*?)</math>|</?su[bp]>|^\\s*__\\w+__\\s*$)", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE).matcher("");
-
-    /** Pattern to strip all templates, as we cannot reasonably parse them */
-    private Matcher stripTemplates = Pattern.compile("\\{\\{([^}{]*?)\\}\\}").matcher("");
-
-    /** Match links, which are not nested. */
-    // too much backtracking: private Matcher linkMatcher =
-    // Pattern.compile("\\[\\[\\s*([^\\]\\[\\|]*?)(?:\\s*#.*?)?(?:(?:\\s*\\|\\s*[^\\]\\[\\#\\|]*)*\\s*\\|([^\\]\\[\\#\\|]+))?\\s*\\]\\]").matcher("");
-    private Matcher linkMatcher = Pattern.compile("\\[\\[\\s*([^\\]\\[\\|]*?)(?:\\s*#.*?)?(?:\\s*\\|(?:[^\\]\\[\\#\\|]*\\|)?\\s*([^\\]\\[\\#\\|]+))?\\s*\\]\\]").matcher("");
-
-    /** More cruft to remove */
-    private Matcher stripCruft = Pattern.compile("(?:<ref(?:[^<]*</ref|\\s+name\\s*=\\s*[^<]*|[^<]*/>)>|\\{\\|(.*?)\\|\\}|^ *\\*+|\\[\\[(?:([^\\]\\[]*)\\s*\\|\\s*)?([^\\]\\[]*)\\]\\])", Pattern.CASE_INSENSITIVE).matcher("");
+    /** Lexer to strip the wiki markup, and detect the links */
+    private WikitextLexer lexer = new WikitextLexer();
 
     /** Handler to send link detected events to. */
     Handler handler;
@@ -100,106 +172,146 @@ public class LuceneWikipediaIndexer {
      * @throws IOException on errors opening the Lucene index
      */
     public IndexHandler(Handler handler) {
-      Set<String> skip = new HashSet<>();
-      skip.add(WikipediaTokenizer.EXTERNAL_LINK_URL);
-      stream = tokenizer = new WikipediaTokenizer(WikipediaTokenizer.TOKENS_ONLY, skip);
-      stream = new ClassicFilter(stream); // Removes 's etc
-      stream = new LowerCaseFilter(stream);
-      stream.addAttribute(CharTermAttribute.class);
       this.handler = handler;
+      if(stage != null)
+        stage.addProducer();
     }
 
     StringBuilder buf = new StringBuilder();
 
-    FastStringReader reader = new FastStringReader("");
+    /** Time spent in the link handlers, for the current article */
+    long linkTime;
+
+    /** Cleaner for pages exceeding the time budget */
+    LinearCleaner cleaner;
+
+    /** Time budget of this thread */
+    Watchdog.Budget budget;
+
+    /** Namespaces of the current article */
+    SiteInfo site;
+
+    /** Link normalization, reusing its buffers */
+    LinkNormalizer normalizer = new LinkNormalizer();
 
     @Override
-    public void rawArticle(String prefix, String title, String intext) {
-      CharSequence text = intext;
-      // System.err.print(title + ": ");
-      stripBasics.reset(text);
-      text = stripBasics.replaceAll("");
-      for(int i = 0; i < 4; i++) {
-        stripTemplates.reset(text);
-        String text2 = stripTemplates.replaceAll("");
-        if(text2.equals(text))
-          break; // No more changes
-        text = text2;
+    public void rawArticle(String prefix, String title, CharSequence intext) {
+      final long start = Trace.now();
+      linkTime = 0;
+      budget = Watchdog.budget();
+      site = SiteInfo.get(prefix);
+      normalizer.setPrefix(prefix);
+      String text;
+      try {
+        text = strip(prefix, title, intext);
       }
-      { // Parse, and replace links with their text only:
-        buf.setLength(0); // clear
-        int pos = 0;
-        linkMatcher.reset(text);
-        while(linkMatcher.find()) {
-          buf.append(text, pos, linkMatcher.start());
-          String targ = linkMatcher.group(1);
-          if(targ == null || targ.length() == 0) {
-            buf.append(linkMatcher.group(2));
-            pos = linkMatcher.end();
-            continue; // Internal link.
-          }
-          String labl = linkMatcher.group(2);
-          if(labl == null)
-            labl = targ;
-          targ = Util.normalizeLink(targ);
-          if(targ == null || targ.length() == 0) {
-            System.err.println(linkMatcher.group(0));
-            continue;
-          }
-          final String[] spl = targ.split(":");
-          String targl = spl.length > 0 ? spl[0].trim() : targ;
-          if(targ.charAt(0) == ':' || "file".equalsIgnoreCase(targl) || "wikisource".equalsIgnoreCase(targl) //
-          || "category".equalsIgnoreCase(targl) || "kategorie".equalsIgnoreCase(targl) //
-          || "catégorie".equalsIgnoreCase(targl) || "categoría".equalsIgnoreCase(targl) //
-          || "wikipedia".equalsIgnoreCase(targl) || "commons".equalsIgnoreCase(targl) || "image".equalsIgnoreCase(targl)//
-          || "fichier".equalsIgnoreCase(targl) || "datei".equalsIgnoreCase(targl) || "bild".equalsIgnoreCase(targl) //
-          || "archivo".equalsIgnoreCase(targl) || "imagen".equalsIgnoreCase(targl))
-            continue;
-          labl = labl.replace('\n', ' ').trim();
-          targ = prefix + targ;
-          if(addLink(targ, labl))
-            handler.linkDetected(prefix, title, labl, targ);
-
-          buf.append(labl);
-          pos = linkMatcher.end();
-        }
-        buf.append(text, pos, text.length());
-        text = buf;
+      catch(Watchdog.Timeout e) {
+        budget.report(prefix + title, "index", intext.length());
+        if(cleaner == null)
+          cleaner = new LinearCleaner();
+        // Links found so far are not sent again, see addLink.
+        text = cleaner.clean(intext.toString(), (targ, labl) -> targ.isEmpty() ? labl : link(prefix, title, targ, labl));
       }
-      stripCruft.reset(text);
-      text = stripCruft.replaceAll(""); // Converts to string!
+      Trace.phase(Trace.REGEX, start + linkTime);
 
-      try {
-        Document doc = new Document();
-        doc.add(new StoredField(LUCENE_FIELD_TITLE, prefix + title));
-        doc.add(new StoredField(LUCENE_FIELD_LINKS, serializeLinks()));
-
-        tokenizer.reset();
-        stream.reset();
-        tokenizer.setReader(reader.reset(text));
-        doc.add(new TextField(LUCENE_FIELD_TEXT, stream));
-        index.addDocument(doc);
-      }
-      catch(IOException e) {
-        e.printStackTrace();
-        System.exit(1);
+      final long istart = Trace.now();
+      Document doc = new Document();
+      doc.add(new StoredField(LUCENE_FIELD_TITLE, prefix + title));
+      doc.add(new StoredField(LUCENE_FIELD_LINKS, serializeLinks()));
+      doc.add(new TextField(LUCENE_FIELD_TEXT, text, Field.Store.NO));
+      if(stage != null) {
+        try {
+          stage.put(doc);
+        }
+        catch(InterruptedException e) {
+          throw new RuntimeException(e);
+        }
       }
+      else
+        addDocument(doc);
+      Trace.phase(Trace.INDEX, istart);
       clearLinks();
 
       handler.rawArticle(prefix, title, intext);
     }
 
+    /**
+     * Strip the wiki markup, and detect the links.
+     *
+     * @param prefix Prefix
+     * @param title Title
+     * @param intext Wiki text
+     * @return Text
+     * @throws Watchdog.Timeout when the article exceeds its time budget
+     */
+    private String strip(String prefix, String title, CharSequence intext) {
+      return lexer.clean(budget.wrap(intext), (buf, start, end, lstart, lend) -> link(prefix, title, buf, start, end, lstart, lend));
+    }
+
+    /**
+     * Process a link, and send it to the handler.
+     *
+     * @param prefix Prefix
+     * @param title Title
+     * @param targ Link target
+     * @param labl Link label, may be {@code null}
+     * @return Label to replace the link with, {@code null} to skip the link
+     */
+    private String link(String prefix, String title, String targ, String labl) {
+      final char[] buf = (labl == null ? targ : targ + labl).toCharArray();
+      final int end = targ.length();
+      CharSequence rep = link(prefix, title, buf, 0, end, labl == null ? -1 : end, buf.length);
+      return rep != null ? rep.toString() : null;
+    }
+
+    /**
+     * Process a link, and send it to the handler.
+     *
+     * Strings are only created for new links of the article.
+     *
+     * @param prefix Prefix
+     * @param title Title
+     * @param buf Buffer containing the link
+     * @param start Start of the link target
+     * @param end End of the link target
+     * @param lstart Start of the label, -1 if there is none
+     * @param lend End of the label
+     * @return Label to replace the link with, {@code null} to skip the link
+     */
+    private CharSequence link(String prefix, String title, char[] buf, int start, int end, int lstart, int lend) {
+      if(!normalizer.normalize(buf, start, end, lstart, lend)) {
+        System.err.println("[[" + new String(buf, start, end - start) + "]]");
+        return null;
+      }
+      final CharSequence targ = normalizer.target(), labl = normalizer.label();
+      if(site.isNamespace(targ, normalizer.prefixLength()))
+        return null;
+      if(addLink(targ, labl)) {
+        final long l = Trace.now();
+        // Waiting for the later stages does not count against the budget.
+        budget.suspend();
+        try {
+          handler.linkDetected(prefix, title, links.get(links.size() - 1), links.get(links.size() - 2));
+        }
+        finally {
+          budget.resume();
+        }
+        linkTime += Trace.elapsed(l);
+      }
+      return labl;
+    }
+
     ArrayList<String> links = new ArrayList<>();
 
-    boolean addLink(String target, String label) {
+    boolean addLink(CharSequence target, CharSequence label) {
       // There won't be that many duplicates for a hash map to pay off
       for(int i = 0, l = links.size(); i < l; i += 2) {
-        if(links.get(i).equals(target) && links.get(i + 1).equals(label)) {
+        if(links.get(i).contentEquals(target) && links.get(i + 1).contentEquals(label)) {
           return false; // Already in the document
         }
       }
-      links.add(target);
-      links.add(label);
+      links.add(target.toString());
+      links.add(label.toString());
       return true;
     }
 
@@ -218,14 +330,48 @@ public class LuceneWikipediaIndexer {
       links.clear();
     }
 
+    @Override
+    public void checkpoint() {
+      if(stage != null) {
+        try {
+          stage.flush();
+        }
+        catch(InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      handler.checkpoint();
+    }
+
     @Override
     public void close() {
+      if(stage != null)
+        stage.producerDone();
       handler.close();
     }
   }
 
+  @Override
+  public void checkpoint(int generation, Map<String, String> state) throws IOException {
+    // The commit makes the checkpoint durable.
+    index.setCommitData(state);
+    index.commit();
+  }
+
+  /**
+   * Discard everything added since the last commit, and close the index.
+   *
+   * @throws IOException on errors
+   */
+  public void abort() throws IOException {
+    System.err.println("Rolling back index to the last checkpoint.");
+    index.rollback();
+  }
+
   public void close() throws IOException {
     System.err.format("Closing %s output.\n", getClass().getSimpleName());
+    // Completed, do not resume from a checkpoint.
+    index.setCommitData(Collections.<String, String> emptyMap());
     index.commit();
     index.close();
   }
@@ -3,23 +3,43 @@ package com.github.kno10.wikipediaentities;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
+import com.github.kno10.wikipediaentities.util.BatchQueue;
+import com.github.kno10.wikipediaentities.util.BufferPool;
+import com.github.kno10.wikipediaentities.util.ByteBufferInputStream;
+import com.github.kno10.wikipediaentities.util.MappedFile;
+import com.github.kno10.wikipediaentities.util.Metrics;
+import com.github.kno10.wikipediaentities.util.PageFilterInputStream;
+import com.github.kno10.wikipediaentities.util.PageSplitter;
 import com.github.kno10.wikipediaentities.util.Progress;
+import com.github.kno10.wikipediaentities.util.Stage;
+import com.github.kno10.wikipediaentities.util.TextNormalizer;
+import com.github.kno10.wikipediaentities.util.Threads;
+import com.github.kno10.wikipediaentities.util.Trace;
 import com.github.kno10.wikipediaentities.util.Util;
+import com.github.kno10.wikipediaentities.util.Watchdog;
+import com.github.kno10.wikipediaentities.util.XMLBytes;
 
 /**
  * Parse and index a complete Wikipedia dump.
@@ -27,12 +47,25 @@ import com.github.kno10.wikipediaentities.util.Util;
  * @author Erich Schubert
  */
 public class ParseWikipedia {
-  int readers = 0;
+  /** Flag for readers that did not complete */
+  volatile boolean incomplete = false;
+
+  /** Cache to write articles to, may be {@code null} */
+  ArticleCache cache;
+
+  /** Checkpoint coordinator, may be {@code null} */
+  Checkpointer checkpoint;
 
   Progress readprog = new Progress("Reading articles");
 
   Progress parseprog = new Progress("Parsing articles");
 
+  /** Article processing latency */
+  Metrics.Histogram latency = Metrics.histogram("stage.clean.latency");
+
+  /** Pool for page buffers */
+  BufferPool pool = new BufferPool(64 << 20);
+
   /** Title attribute for redirects */
   static final QName TITLEQNAME = new QName("title");
 
@@ -51,9 +84,178 @@ public class ParseWikipedia {
    * @param queue Processing queue
    * @return reader thread
    */
-  public synchronized Thread makeReaderThread(String fname, String prefix, BlockingQueue<Article> queue) {
-    ++readers;
-    return new ReaderThread(fname, prefix, queue);
+  public synchronized Thread makeReaderThread(String fname, String prefix, BatchQueue<Article> queue) {
+    return makeReaderThread(fname, prefix, queue, 1);
+  }
+
+  /**
+   * Start a new reader thread.
+   *
+   * @param fname Filename
+   * @param prefix Prefix
+   * @param queue Processing queue
+   * @param decoders Number of decompression threads
+   * @return reader thread
+   */
+  public synchronized Thread makeReaderThread(String fname, String prefix, BatchQueue<Article> queue, int decoders) {
+    queue.addProducer();
+    if(checkpoint != null)
+      checkpoint.register(true);
+    return new ReaderThread(fname, prefix, queue, decoders);
+  }
+
+  /**
+   * Start a new reader thread, which splits the input into pages and parses
+   * them in multiple threads.
+   *
+   * @param fname Filename
+   * @param prefix Prefix
+   * @param queue Processing queue
+   * @param decoders Number of decompression threads
+   * @param parsers Number of page parsing threads
+   * @return reader thread
+   */
+  public synchronized Thread makeSplitReaderThread(String fname, String prefix, BatchQueue<Article> queue, int decoders, int parsers) {
+    queue.addProducer();
+    if(checkpoint != null)
+      checkpoint.register(true);
+    return new SplitReaderThread(fname, prefix, queue, decoders, parsers);
+  }
+
+  /**
+   * Start a new thread reading articles from a cache. Multiple threads can
+   * read the same cache.
+   *
+   * @param cache Article cache
+   * @param queue Processing queue
+   * @return reader thread
+   */
+  public synchronized Thread makeCacheReaderThread(ArticleCache cache, BatchQueue<Article> queue) {
+    queue.addProducer();
+    return new CacheReaderThread(cache, queue);
+  }
+
+  /**
+   * Open an input file.
+   *
+   * @param fname File name
+   * @param decoders Number of decompression threads
+   * @return Input stream
+   * @throws IOException on errors
+   */
+  private static InputStream openSource(String fname, int decoders) throws IOException {
+    return fname.contains("multistream") ? Util.openMultiStreamBZip2(fname, decoders) : Util.openInput(fname, decoders);
+  }
+
+  /**
+   * Number of pages to skip, when resuming from a checkpoint.
+   *
+   * @param fname Input file name
+   * @return Number of pages already processed
+   */
+  private long resumePosition(String fname) {
+    long pos = checkpoint != null ? checkpoint.getPosition(fname) : 0L;
+    if(pos > 0)
+      System.err.println("Skipping " + pos + " pages of " + fname + " processed before the checkpoint.");
+    return pos;
+  }
+
+  /**
+   * Wait at a barrier.
+   *
+   * @param barrier Barrier
+   * @throws InterruptedException when interrupted, or the barrier is broken
+   */
+  private static void await(CyclicBarrier barrier) throws InterruptedException {
+    try {
+      barrier.await();
+    }
+    catch(BrokenBarrierException e) {
+      throw new InterruptedException("Checkpoint barrier broken.");
+    }
+  }
+
+  /**
+   * Pass a parsed page on to the processing queue.
+   *
+   * @param out Publisher to the processing queue
+   * @param writer Cache writer, may be {@code null}
+   * @param a Article
+   * @param skip Flag for non-main pages
+   * @throws InterruptedException when interrupted
+   * @throws IOException when writing the cache fails
+   */
+  private void emit(BatchQueue<Article>.Publisher out, ArticleCache.ChunkWriter writer, Article a, boolean skip) throws InterruptedException, IOException {
+    // Post-process page.
+    if(!skip && a.redirect == null && !a.hasText() && a.title != null)
+      System.err.println("No redirect or text, but title: " + a.title);
+    // Ignore non-main pages
+    if(skip || a.title == null || !a.hasText()) {
+      a.release();
+      return;
+    }
+    if(writer != null)
+      writer.add(a);
+    out.add(a);
+    readprog.incrementAndLog();
+  }
+
+  /**
+   * Make a cache writer for the current thread, if a cache is written.
+   *
+   * @return Writer, or {@code null}
+   */
+  private ArticleCache.ChunkWriter makeCacheWriter() {
+    return cache != null ? cache.makeThreadWriter() : null;
+  }
+
+  /**
+   * Thread for reading articles from the cache.
+   */
+  private class CacheReaderThread extends Thread {
+    /** Article cache */
+    private ArticleCache cache;
+
+    /** Queue to output articles to */
+    private BatchQueue<Article> queue;
+
+    /**
+     * Constructor.
+     *
+     * @param cache Article cache
+     * @param queue Queue to output articles to
+     */
+    public CacheReaderThread(ArticleCache cache, BatchQueue<Article> queue) {
+      this.cache = cache;
+      this.queue = queue;
+    }
+
+    @Override
+    public void run() {
+      try {
+        BatchQueue<Article>.Publisher out = queue.publisher();
+        for(List<Article> chunk; (chunk = cache.readNextChunk()) != null;) {
+          for(Article a : chunk) {
+            out.add(a);
+            readprog.incrementAndLog();
+          }
+        }
+        out.flush();
+      }
+      catch(IOException e) {
+        throw new RuntimeException(e);
+      }
+      catch(InterruptedException e) {
+        System.err.println("Processing interrupted.");
+      }
+      finally {
+        // Update max, for progress logging.
+        parseprog.setMax(readprog.get());
+
+        // We've finished adding to the queue.
+        queue.producerDone();
+      }
+    }
   }
 
   /**
@@ -69,29 +271,47 @@ public class ParseWikipedia {
     private String prefix;
 
     /** Classes to process articles */
-    protected BlockingQueue<Article> queue;
+    protected BatchQueue<Article> queue;
+
+    /** Number of decompression threads */
+    private int decoders;
 
     /** String buffer */
     StringBuilder buf = new StringBuilder();
 
+    /** Cache writer, may be {@code null} */
+    private ArticleCache.ChunkWriter writer;
+
+    /** Publisher to the queue */
+    private BatchQueue<Article>.Publisher out;
+
+    /** Pages read */
+    private long pages = 0;
+
     /**
      * Constructor.
      *
      * @param fname Source file name
      * @param prefix Prefix
      * @param queue Queue to output articles to
+     * @param decoders Number of decompression threads
      */
-    public ReaderThread(String fname, String prefix, BlockingQueue<Article> queue) {
+    public ReaderThread(String fname, String prefix, BatchQueue<Article> queue, int decoders) {
       this.fname = fname;
       this.prefix = prefix;
       this.queue = queue;
+      this.decoders = decoders;
+      this.out = queue.publisher();
     }
 
     @Override
     public void run() {
       final XMLInputFactory factory = XMLInputFactory.newInstance();
-      try (InputStream fin2 =
-                   fname.contains("multistream") ? Util.openMultiStreamBZip2(fname) : Util.openInput(fname)) {
+      boolean complete = false;
+      writer = makeCacheWriter();
+      final long skip = resumePosition(fname);
+      // Drop pages outside the main namespace before XML parsing.
+      try (InputStream fin2 = new PageFilterInputStream(openSource(fname, decoders), pool)) {
         XMLEventReader eventReader = factory.createXMLEventReader(fin2, "UTF-8");
 
         while(eventReader.hasNext()) {
@@ -99,11 +319,19 @@ public class ParseWikipedia {
           if(event.isStartElement()) {
             StartElement startElement = event.asStartElement();
             if(startElement.getName().getLocalPart() == "page") {
-              parsePage(eventReader);
+              parsePage(eventReader, ++pages <= skip);
+              if(checkpoint != null && pages > skip && checkpoint.isRequested()) {
+                out.flush();
+                checkpoint.readerPause(fname, pages);
+              }
               // if (readprog.get() == 10000) break;
             }
           }
         }
+        out.flush();
+        if(writer != null)
+          writer.flush();
+        complete = true;
       }
       catch(IOException | XMLStreamException e) {
         throw new RuntimeException(e);
@@ -112,19 +340,19 @@ public class ParseWikipedia {
         System.err.println("Processing interrupted.");
       }
       finally {
+        incomplete |= !complete;
+        if(checkpoint != null)
+          checkpoint.readerDone(fname, complete ? pages : -1);
         // Update max, for progress logging.
         parseprog.setMax(readprog.get());
 
-        // We've finished adding to the queue. Wait for shutdown.
-        synchronized(ParseWikipedia.this) {
-          --readers;
-        }
+        // We've finished adding to the queue.
+        queue.producerDone();
       }
     }
 
-    private void parsePage(XMLEventReader eventReader) throws XMLStreamException, InterruptedException {
+    private void parsePage(XMLEventReader eventReader, boolean skip) throws XMLStreamException, InterruptedException, IOException {
       String title = null, text = null, redirect = null;
-      boolean skip = false;
       while(eventReader.hasNext()) {
         XMLEvent event = eventReader.nextEvent();
         if(event.isEndElement() && event.asEndElement().getName().getLocalPart() == "page") {
@@ -146,14 +374,7 @@ public class ParseWikipedia {
             redirect = startElement.getAttributeByName(TITLEQNAME).getValue();
         }
       }
-      // Post-process page.
-      if(!skip && redirect == null && text == null && title != null)
-        System.err.println("No redirect or text, but title: " + title);
-      // Ignore non-main pages
-      if(skip || title == null || text == null)
-        return;
-      queue.put(new Article(prefix, title, redirect, text));
-      readprog.incrementAndLog();
+      emit(out, writer, new Article(prefix, title, redirect, text), skip);
     }
 
     private String parseTextContents(XMLEventReader eventReader) throws XMLStreamException {
@@ -182,7 +403,341 @@ public class ParseWikipedia {
 
   }
 
-  public Thread makeParserThread(BlockingQueue<Article> q, Handler h) {
+  /** Marker for the end of the page queue */
+  private static final ByteBuffer END_OF_PAGES = ByteBuffer.allocate(0);
+
+  /** Marker for pausing the page parsers for a checkpoint */
+  private static final ByteBuffer CHECKPOINT_PAGES = ByteBuffer.allocate(0);
+
+  /** Tags for parsing pages on the byte level */
+  private static final byte[] TITLE = XMLBytes.tag("<title>"), TITLE_END = XMLBytes.tag("</title>"), //
+      NS = XMLBytes.tag("<ns>"), NS_END = XMLBytes.tag("</ns>"), //
+      REDIRECT = XMLBytes.tag("<redirect"), REDIRECT_TITLE = XMLBytes.tag("<redirect title=\""), QUOTE = XMLBytes.tag("\""), //
+      TEXT = XMLBytes.tag("<text"), TEXT_END = XMLBytes.tag("</text>"), GT = XMLBytes.tag(">");
+
+  /**
+   * Thread for reading Wikipedia articles, which only splits the input into
+   * pages on the byte level. The XML parsing is done by a pool of
+   * {@link PageParserThread}s.
+   */
+  private class SplitReaderThread extends Thread {
+    /** Input file name. */
+    private String fname;
+
+    /** Naming prefix */
+    private String prefix;
+
+    /** Classes to process articles */
+    protected BatchQueue<Article> queue;
+
+    /** Number of decompression threads */
+    private int decoders;
+
+    /** Number of page parsing threads */
+    private int parsers;
+
+    /** Pages read */
+    private long npages = 0;
+
+    /** Barrier for pausing the page parsers */
+    private CyclicBarrier barrier;
+
+    /**
+     * Constructor.
+     *
+     * @param fname Source file name
+     * @param prefix Prefix
+     * @param queue Queue to output articles to
+     * @param decoders Number of decompression threads
+     * @param parsers Number of page parsing threads
+     */
+    public SplitReaderThread(String fname, String prefix, BatchQueue<Article> queue, int decoders, int parsers) {
+      this.fname = fname;
+      this.prefix = prefix;
+      this.queue = queue;
+      this.decoders = decoders;
+      this.parsers = parsers;
+    }
+
+    @Override
+    public void run() {
+      BlockingQueue<ByteBuffer> pages = new ArrayBlockingQueue<>(parsers * 100);
+      // Checkpoints need the exact page position, so do not hand out regions.
+      final boolean mapped;
+      try {
+        mapped = checkpoint == null && !fname.contains("multistream") && !Util.isCompressed(fname);
+      }
+      catch(IOException e) {
+        throw new RuntimeException(e);
+      }
+      barrier = new CyclicBarrier(parsers + 1);
+      List<Thread> workers = new ArrayList<>();
+      for(int i = 0; i < parsers; i++) {
+        workers.add(Threads.start(new PageParserThread(prefix, pages, queue, barrier, mapped ? null : pool)));
+      }
+      boolean complete = false;
+      try {
+        if(mapped) {
+          // Let the page parsers split disjoint regions of the mapped file.
+          Util.addInputFile(fname);
+          try (MappedFile file = new MappedFile(fname)) {
+            // The parsers count the bytes of a segment once it is done.
+            for(ByteBuffer segment : file.segments(parsers * 4, PageSplitter.PAGE_START))
+              pages.put(segment);
+          }
+        }
+        else {
+          final long skip = resumePosition(fname);
+          try (InputStream fin2 = openSource(fname, decoders)) {
+            PageSplitter splitter = new PageSplitter(fin2, pool).setMainOnly(true);
+            for(ByteBuffer page; (page = splitter.next()) != null;) {
+              npages = splitter.getPageCount();
+              if(npages <= skip) {
+                pool.release(page.array());
+                continue;
+              }
+              pages.put(page);
+              if(checkpoint != null && checkpoint.isRequested())
+                pause(pages);
+            }
+            npages = splitter.getPageCount();
+          }
+        }
+        complete = true;
+      }
+      catch(IOException e) {
+        throw new RuntimeException(e);
+      }
+      catch(InterruptedException e) {
+        System.err.println("Processing interrupted.");
+      }
+      finally {
+        // Signal end of input, and wait for the page parsers.
+        barrier.reset(); // Release parsers waiting for a checkpoint
+        try {
+          for(int i = 0; i < parsers; i++)
+            pages.put(END_OF_PAGES);
+          for(Thread t : workers)
+            t.join();
+        }
+        catch(InterruptedException e) {
+          for(Thread t : workers)
+            t.interrupt();
+          complete = false;
+        }
+        incomplete |= !complete;
+        if(checkpoint != null)
+          checkpoint.readerDone(fname, complete ? npages : -1);
+        // Update max, for progress logging.
+        parseprog.setMax(readprog.get());
+
+        // We've finished adding to the queue.
+        queue.producerDone();
+      }
+    }
+
+    /**
+     * Pause for a checkpoint, once the page parsers have emitted all pages
+     * read so far.
+     *
+     * @param pages Page queue
+     * @throws InterruptedException when interrupted
+     */
+    private void pause(BlockingQueue<ByteBuffer> pages) throws InterruptedException {
+      for(int i = 0; i < parsers; i++)
+        pages.put(CHECKPOINT_PAGES);
+      await(barrier); // Parsers have processed all previous pages.
+      checkpoint.readerPause(fname, npages);
+      await(barrier); // Resume the parsers.
+    }
+  }
+
+  /**
+   * Thread for parsing the XML of pages. The input buffers may contain a
+   * single page, or a whole region of a memory mapped file.
+   */
+  private class PageParserThread extends Thread {
+    /** Naming prefix */
+    private String prefix;
+
+    /** Input pages */
+    private BlockingQueue<ByteBuffer> pages;
+
+    /** Queue to output articles to */
+    private BatchQueue<Article> queue;
+
+    /** XML parser factory */
+    private XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    /** Reusable input stream */
+    private ByteBufferInputStream in = new ByteBufferInputStream(null);
+
+    /** Cache writer, may be {@code null} */
+    private ArticleCache.ChunkWriter writer;
+
+    /** Barrier for checkpoints */
+    private CyclicBarrier barrier;
+
+    /** Pool the page buffers belong to, {@code null} if not pooled */
+    private BufferPool pool;
+
+    /** Publisher to the queue */
+    private BatchQueue<Article>.Publisher out;
+
+    /**
+     * Constructor.
+     *
+     * @param prefix Prefix
+     * @param pages Input pages
+     * @param queue Queue to output articles to
+     * @param barrier Barrier for checkpoints
+     * @param pool Pool of the page buffers, if every input buffer is a single
+     *        pooled page; {@code null} otherwise
+     */
+    public PageParserThread(String prefix, BlockingQueue<ByteBuffer> pages, BatchQueue<Article> queue, CyclicBarrier barrier, BufferPool pool) {
+      this.prefix = prefix;
+      this.pages = pages;
+      this.queue = queue;
+      this.barrier = barrier;
+      this.pool = pool;
+      this.out = queue.publisher();
+    }
+
+    @Override
+    public void run() {
+      boolean complete = false;
+      writer = makeCacheWriter();
+      try {
+        for(ByteBuffer buf; (buf = pages.take()) != END_OF_PAGES;) {
+          if(buf == CHECKPOINT_PAGES) {
+            out.flush();
+            await(barrier); // Wait for the checkpoint,
+            await(barrier); // and for the reader to continue.
+            continue;
+          }
+          final byte[] owned = pool != null ? buf.array() : null;
+          final int size = buf.remaining();
+          PageSplitter splitter = new PageSplitter(buf).setMainOnly(true);
+          for(ByteBuffer page; (page = splitter.next()) != null;) {
+            try {
+              if(!parseRaw(page, owned))
+                parsePage(page, owned);
+            }
+            catch(XMLStreamException e) {
+              System.err.println("Failed to parse page: " + e.getMessage());
+            }
+          }
+          if(pool == null) { // Region of a mapped file, not counted by a stream
+            Util.FILE_BYTES.add(size);
+            Util.INPUT_BYTES.add(size);
+          }
+        }
+        out.flush();
+        if(writer != null)
+          writer.flush();
+        complete = true;
+      }
+      catch(IOException e) {
+        throw new RuntimeException(e);
+      }
+      catch(InterruptedException e) {
+        System.err.println("Processing interrupted.");
+      }
+      finally {
+        incomplete |= !complete;
+      }
+    }
+
+    /**
+     * Parse a page on the byte level, keeping the text as raw bytes.
+     *
+     * @param page Page buffer
+     * @param owned Pooled buffer containing the page, may be {@code null}
+     * @return {@code false} if the page is unusual, and needs an XML parser.
+     */
+    private boolean parseRaw(ByteBuffer page, byte[] owned) throws InterruptedException, IOException {
+      int[] ns = XMLBytes.content(page, NS, NS_END, 0);
+      if(ns == null)
+        return false;
+      String title = null, redirect = null;
+      int[] t = XMLBytes.content(page, TITLE, TITLE_END, 0);
+      if(t != null)
+        title = nonEmpty(XMLBytes.decode(page, t[0], t[1]));
+      // Ignore non-main pages
+      if(ns[1] - ns[0] != 1 || page.get(ns[0]) != '0') {
+        emit(out, null, new Article(prefix, title, null, (String) null), true);
+        if(owned != null)
+          pool.release(owned);
+        return true;
+      }
+      if(MappedFile.indexOf(page, REDIRECT, 0) >= 0) {
+        int[] r = XMLBytes.content(page, REDIRECT_TITLE, QUOTE, 0);
+        if(r == null)
+          return false;
+        redirect = XMLBytes.decode(page, r[0], r[1]);
+      }
+      ByteBuffer text = null;
+      int ts = MappedFile.indexOf(page, TEXT, 0);
+      if(ts >= 0) {
+        int gt = MappedFile.indexOf(page, GT, ts);
+        if(gt < 0)
+          return false;
+        if(page.get(gt - 1) != '/') {
+          int te = MappedFile.indexOf(page, TEXT_END, gt);
+          // Multiple revisions are left to the XML parser.
+          if(te < 0 || MappedFile.indexOf(page, TEXT, te) >= 0)
+            return false;
+          ByteBuffer dup = page.duplicate();
+          ((Buffer) dup).limit(te).position(gt + 1);
+          text = dup.slice();
+        }
+      }
+      emit(out, writer, new Article(prefix, title, redirect, text, pool, owned), false);
+      return true;
+    }
+
+    private void parsePage(ByteBuffer page, byte[] owned) throws XMLStreamException, InterruptedException, IOException {
+      XMLStreamReader reader = factory.createXMLStreamReader(in.reset(page), "UTF-8");
+      try {
+        String title = null, text = null, redirect = null;
+        boolean skip = false;
+        while(!skip && reader.hasNext()) {
+          if(reader.next() != XMLStreamConstants.START_ELEMENT)
+            continue;
+          String name = reader.getLocalName();
+          // Ignore non-main pages
+          if("ns".equals(name))
+            skip |= !"0".equals(reader.getElementText());
+          else if("title".equals(name))
+            title = nonEmpty(reader.getElementText());
+          else if("text".equals(name))
+            text = nonEmpty(reader.getElementText());
+          else if("redirect".equals(name))
+            redirect = reader.getAttributeValue(null, TITLEQNAME.getLocalPart());
+        }
+        emit(out, writer, new Article(prefix, title, redirect, text), skip);
+      }
+      finally {
+        reader.close();
+        if(owned != null)
+          pool.release(owned);
+      }
+    }
+
+    /**
+     * Treat empty elements like the event parser: as missing.
+     *
+     * @param s String
+     * @return String, or {@code null} if empty
+     */
+    private String nonEmpty(String s) {
+      return s == null || s.length() == 0 ? null : s;
+    }
+  }
+
+  public Thread makeParserThread(BatchQueue<Article> q, Handler h) {
+    if(checkpoint != null)
+      checkpoint.register(false);
     return new WikipediaParserThread(q, h);
   }
 
@@ -192,12 +747,18 @@ public class ParseWikipedia {
    * @author Erich Schubert
    */
   private class WikipediaParserThread extends Thread {
-    BlockingQueue<Article> queue;
+    BatchQueue<Article> queue;
 
     Handler handler;
 
-    /** Pattern for recognizing redirects */
-    private Matcher redirmatcher = Pattern.compile("#(?:REDIRECT|WEITERLEITUNG|REDIRECCI[oOÓó]N|REDIRECTION)[:,\\s]*\\[\\[\\s*([^\\]\\[\\|#]*?)(?:#\\s*(.*?)\\s*)?(?:\\s*\\|\\s*[^\\]\\[]*)?\\s*\\]\\]", Pattern.CASE_INSENSITIVE).matcher("");
+    /** Time budget per article, of the running thread */
+    private Watchdog.Budget budget;
+
+    /** Entity and special character replacement, reusing its buffer */
+    private TextNormalizer normalizer = new TextNormalizer();
+
+    /** Pattern for recognizing redirects, after the magic word */
+    private Matcher redirmatcher = Pattern.compile("[:,\\s]*\\[\\[\\s*([^\\]\\[\\|#]*?)(?:#\\s*(.*?)\\s*)?(?:\\s*\\|\\s*[^\\]\\[]*)?\\s*\\]\\]").matcher("");
 
     /**
      * Constructor.
@@ -205,39 +766,69 @@ public class ParseWikipedia {
      * @param q Queue
      * @param h Handler
      */
-    public WikipediaParserThread(BlockingQueue<Article> q, Handler h) {
+    public WikipediaParserThread(BatchQueue<Article> q, Handler h) {
       this.queue = q;
       this.handler = h;
     }
 
     @Override
     public void run() {
-      while(!queue.isEmpty() || readers > 0) {
-        try {
-          Article a = queue.poll(100, TimeUnit.MILLISECONDS);
-          if(a == null)
-            continue;
-          process(a);
-          parseprog.incrementAndLog();
-        }
-        catch(InterruptedException e) {
-          break;
+      budget = Watchdog.budget();
+      try {
+        // Batches are empty while the readers pause for a checkpoint.
+        for(List<Article> batch; (batch = queue.take()) != null;) {
+          for(Article a : batch) {
+            Trace.beginArticle();
+            final long start = System.nanoTime();
+            budget.start();
+            try {
+              process(a);
+            }
+            finally {
+              budget.stop();
+              Trace.endArticle(a.prefix, a.title, a.memorySize());
+              a.release();
+              latency.recordSince(start);
+            }
+            parseprog.incrementAndLog();
+          }
+          if(checkpoint != null && checkpoint.isRequested())
+            checkpoint.workerPause(handler);
         }
       }
+      catch(InterruptedException e) {
+        System.err.println("Processing interrupted.");
+      }
       // System.err.println("Parser thread has completed.");
+      if(checkpoint != null)
+        handler.checkpoint(); // Drain the later stages before a final checkpoint.
       handler.close();
+      if(checkpoint != null)
+        checkpoint.workerDone();
     }
 
     private void process(Article a) {
+      long start = Trace.now();
       String title = Util.removeEntities(a.title);
+      Trace.phase(Trace.ENTITIES, start);
       // Skip boring "list of" pages
       if(title.startsWith("List ") || title.startsWith("Liste ") || title.startsWith("Anexo:"))
         return;
-      String text = Util.removeEntities(a.rawtext);
+      start = Trace.now();
+      // Note: removing the special characters will break redirects!
+      CharSequence text = a.redirect != null ? normalizer.removeEntities(a.getText()) : normalizer.normalize(a.getText());
+      Trace.phase(Trace.ENTITIES, start);
       if(a.redirect != null) {
-        redirmatcher.reset(text);
         String anchor = "", redirect;
-        if(redirmatcher.find()) {
+        boolean found = false, timeout = false;
+        try {
+          found = findRedirect(SiteInfo.get(a.prefix), budget.wrap(text));
+        }
+        catch(Watchdog.Timeout e) {
+          budget.report(a.prefix + title, "redirect", text.length());
+          timeout = true;
+        }
+        if(found) {
           String g1 = redirmatcher.group(1);
           redirect = Util.normalizeLink(g1);
           anchor = redirmatcher.group(2);
@@ -245,15 +836,37 @@ public class ParseWikipedia {
         else {
           redirect = Util.removeEntities(a.redirect);
           redirect = Util.normalizeLink(redirect);
-          System.err.println("No redirect in " + title + ": " + text);
+          if(timeout)
+            anchor = null; // As if matched; the page metadata has no anchor.
+          else
+            System.err.println("No redirect in " + title + ": " + text);
         }
         handler.redirect(a.prefix, title, redirect, anchor);
         return;
       }
-      // Note: removing some of these too early will break redirects!
-      text = Util.removeSpecial(text);
       handler.rawArticle(a.prefix, title, text);
     }
+
+    /**
+     * Find a redirect: a "#", a magic word of the site, and a link.
+     *
+     * @param site Site information
+     * @param text Text
+     * @return {@code true} if found, with the link in {@link #redirmatcher}
+     */
+    private boolean findRedirect(SiteInfo site, CharSequence text) {
+      final int len = text.length();
+      redirmatcher.reset(text);
+      for(int i = 0; i < len; i++) {
+        if(text.charAt(i) != '#')
+          continue;
+        // Longest magic word first, as in a regular expression alternation.
+        for(int e = site.matchRedirect(text, i + 1, len); e > 0; e = site.matchRedirect(text, i + 1, e - 1))
+          if(redirmatcher.region(e, len).lookingAt())
+            return true;
+      }
+      return false;
+    }
   }
 
   /**
@@ -262,57 +875,171 @@ public class ParseWikipedia {
    * @param args Command line attributes
    */
   public static void main(String[] args) {
+    try {
+      Metrics.start(Config.get("metrics.output"), Double.valueOf(Config.get("metrics.interval")));
+      Watchdog.start(Long.parseLong(Config.get("watchdog.budget")), Config.get("watchdog.report"));
+      run(new RedirectCollector(Config.get("redirects.output")), new LuceneLinkTokenizer(Config.get("linktext.output")), true);
+    }
+    catch(IOException e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+    finally {
+      Watchdog.stop();
+      Metrics.stop();
+    }
+  }
+
+  /**
+   * Parse the configured sources, and build the index.
+   *
+   * The redirects and link texts are collected in the given collectors, and
+   * are only written to their output files if requested, so that a later
+   * stage in the same JVM can use them directly.
+   *
+   * @param r Redirect collector
+   * @param lt Link text collector
+   * @param write Write the redirects and link texts to their output files
+   * @return {@code true} if all input was processed, {@code false} when
+   *         stopped at a checkpoint
+   * @throws IOException on errors
+   */
+  public static boolean run(RedirectCollector r, LuceneLinkTokenizer lt, boolean write) throws IOException {
     int par = Math.min(Integer.valueOf(Config.get("parallelism")), Runtime.getRuntime().availableProcessors());
     if(par < 1) {
       throw new Error("At least 1 consumer must be allowed!");
     }
-    LuceneWikipediaIndexer indexer = null;
-    try {
-      List<Thread> threads = new ArrayList<>();
+    int decoders = Math.min(Integer.valueOf(Config.get("decompression.threads")), Runtime.getRuntime().availableProcessors());
+    int pageParsers = Math.min(Integer.valueOf(Config.get("reader.threads")), Runtime.getRuntime().availableProcessors());
+    Util.setReadAhead(Integer.valueOf(Config.get("readahead.buffers")), Integer.valueOf(Config.get("readahead.size")));
+    Util.setCompiledMatchers(Boolean.parseBoolean(Config.get("matcher.compiled")));
+    Threads.setVirtual(Boolean.parseBoolean(Config.get("threads.virtual")));
+    Trace.setEnabled(Boolean.parseBoolean(Config.get("jfr.events")));
+    List<Thread> threads = new ArrayList<>();
 
-      BlockingQueue<Article> q1 = new ArrayBlockingQueue<>(100);
-      ParseWikipedia l = new ParseWikipedia();
-      // Start the reader:
-      for(String s : Config.get("loader.source").split(",")) {
+    // Bound the queue by memory, so a run of huge articles cannot exhaust the heap.
+    BatchQueue<Article> q1 = new BatchQueue<>(Long.parseLong(Config.get("queue.maxbytes")), //
+        Integer.parseInt(Config.get("queue.maxsize")), Integer.parseInt(Config.get("queue.batch")), Article::memorySize);
+    ParseWikipedia l = new ParseWikipedia();
+    Metrics.meter("articles.read", l.readprog::get);
+    Metrics.meter("stage.clean.items", l.parseprog::get);
+    Metrics.gauge("queue.articles.batches", q1::size);
+    Metrics.gauge("queue.articles.bytes", q1::getWeight);
+    String sources = Config.get("loader.source"), cachename = Config.get("articles.cache");
+    ArticleCache cached = null;
+    if(cachename != null && new File(cachename).exists()) {
+      cached = ArticleCache.open(cachename, sources);
+      if(cached == null)
+        System.err.println("Article cache " + cachename + " does not match the sources, rebuilding.");
+    }
+    double interval = Double.valueOf(Config.get("checkpoint.interval"));
+    Map<String, String> resume = Collections.emptyMap();
+    if(interval > 0 && cached != null)
+      System.err.println("Checkpoints are not used when reading from the article cache.");
+    else if(interval > 0) {
+      resume = LuceneWikipediaIndexer.readCheckpoint(Config.get("indexer.dir"));
+      l.checkpoint = new Checkpointer((long) (interval * 60000), resume, q1);
+      if(l.checkpoint.getGeneration() > 0)
+        System.err.println("Resuming from checkpoint " + l.checkpoint.getGeneration());
+    }
+    final boolean resuming = l.checkpoint != null && l.checkpoint.getGeneration() > 0;
+    // Namespaces of each dump, also when reading from the cache.
+    for(String s : sources.split(","))
+      SiteInfo.load(s, new File(s).getName().split("-")[0] + ":");
+    // Start the reader:
+    if(cached != null) {
+      System.err.println("Reading articles from cache " + cachename);
+      for(int i = 0; i < Math.max(1, decoders); i++)
+        threads.add(l.makeCacheReaderThread(cached, q1));
+    }
+    else {
+      if(cachename != null && !resuming)
+        l.cache = ArticleCache.create(cachename, sources);
+      for(String s : sources.split(",")) {
         String p = new File(s).getName().split("-")[0] + ":";
-        Thread reader = l.makeReaderThread(s, p, q1);
+        Thread reader = pageParsers > 0 ? l.makeSplitReaderThread(s, p, q1, decoders, pageParsers) : l.makeReaderThread(s, p, q1, decoders);
         threads.add(reader);
       }
-      RedirectCollector r = new RedirectCollector(Config.get("redirects.output"));
-      indexer = new LuceneWikipediaIndexer(Config.get("indexer.dir"));
-      LinkCollector lc = new LinkCollector(Config.get("links.output"));
-      LuceneLinkTokenizer lt = new LuceneLinkTokenizer(Config.get("linktext.output"));
-      System.err.println("Starting " + par + " worker threads.");
-      for(int i = 0; i < par; i++) {
-        HandlerList h = new HandlerList(), h2 = new HandlerList();
-        Thread a = l.makeParserThread(q1, h);
-        h.add(r.makeThreadHandler());
-        h.add(indexer.makeThreadHandler(h2));
-        h2.add(lc.makeThreadHandler());
-        h2.add(lt.makeThreadHandler());
-        threads.add(a);
-      }
-
-      // Start all:
-      for(Thread th : threads)
-        th.start();
-      // Wait for all:
-      for(Thread th : threads)
-        try {
-          th.join();
-        }
-        catch(InterruptedException e) {
-          e.printStackTrace();
-        }
-      // Close in a controlled order:
+    }
+    LuceneWikipediaIndexer indexer = new LuceneWikipediaIndexer(Config.get("indexer.dir"));
+    LinkCollector lc;
+    if(l.checkpoint != null) {
+      if(Config.get("redirects.output") == null || Config.get("links.output") == null || Config.get("linktext.output") == null)
+        throw new Error("Checkpoints require all outputs to be files!");
+      lc = new LinkCollector(Config.get("links.output"), resume);
+      if(resuming) {
+        r.resume(l.checkpoint.getGeneration());
+        lt.resume(l.checkpoint.getGeneration());
+      }
+      // The index commit comes last, and makes the checkpoint durable.
+      l.checkpoint.addParticipant(r);
+      l.checkpoint.addParticipant(lc);
+      l.checkpoint.addParticipant(lt);
+      l.checkpoint.addParticipant(indexer);
+    }
+    else
+      lc = new LinkCollector(Config.get("links.output"));
+    // Later pipeline stages, with their own threads. 0 threads run inline.
+    int indexThreads = Integer.parseInt(Config.get("pipeline.index.threads"));
+    int linkThreads = Integer.parseInt(Config.get("pipeline.links.threads"));
+    int outputThreads = Integer.parseInt(Config.get("pipeline.output.threads"));
+    if(indexThreads > 0)
+      threads.addAll(indexer.makeStage(indexThreads, Integer.parseInt(Config.get("pipeline.index.queue"))).getThreads());
+    Stage<QueueingHandler.Event> links = null, output = null;
+    if(linkThreads > 0) {
+      links = QueueingHandler.makeStage("links", linkThreads, Integer.parseInt(Config.get("pipeline.links.queue")), lt::makeThreadHandler);
+      threads.addAll(links.getThreads());
+    }
+    if(outputThreads > 0) {
+      output = QueueingHandler.makeStage("output", outputThreads, Integer.parseInt(Config.get("pipeline.output.queue")), lc::makeThreadHandler);
+      threads.addAll(output.getThreads());
+    }
+    System.err.format("Starting %d worker threads, %d index, %d link tokenizer and %d output threads.\n", par, indexThreads, linkThreads, outputThreads);
+    for(int i = 0; i < par; i++) {
+      HandlerList h = new HandlerList(), h2 = new HandlerList();
+      Thread a = l.makeParserThread(q1, h);
+      // With a later stage, the latency includes waiting for its queue.
+      h.add(new TimedHandler("redirects", r.makeThreadHandler()));
+      h.add(new TimedHandler("index", indexer.makeThreadHandler(h2)));
+      h2.add(new TimedHandler("output", output != null ? new QueueingHandler(output) : lc.makeThreadHandler()));
+      h2.add(new TimedHandler("links", links != null ? new QueueingHandler(links) : lt.makeThreadHandler()));
+      threads.add(a);
+    }
+
+    // Start all:
+    threads = Threads.startAll(threads);
+    // Wait for all:
+    for(Thread th : threads)
+      try {
+        th.join();
+      }
+      catch(InterruptedException e) {
+        e.printStackTrace();
+      }
+    if(l.cache != null) {
+      if(l.incomplete)
+        l.cache.abort();
+      else
+        l.cache.close();
+    }
+    if(cached != null)
+      cached.close();
+    if(l.checkpoint != null && l.incomplete) {
+      // Keep the last checkpoint, to resume from.
+      indexer.abort();
+      return false;
+    }
+    // Close in a controlled order:
+    if(write)
       r.close(); // Before lt!
-      indexer.close(); // Before lc, lt!
-      lc.close();
+    indexer.close(); // Before lc, lt!
+    lc.close();
+    if(write)
       lt.close();
+    if(l.checkpoint != null) {
+      l.checkpoint.removeSnapshots(Config.get("redirects.output"));
+      l.checkpoint.removeSnapshots(Config.get("linktext.output"));
     }
-    catch(IOException e) {
-      e.printStackTrace();
-      System.exit(1);
-    }
+    return true;
   }
 }
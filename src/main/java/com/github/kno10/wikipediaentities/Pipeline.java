@@ -0,0 +1,93 @@
+package com.github.kno10.wikipediaentities;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+import com.github.kno10.wikipediaentities.util.Metrics;
+import com.github.kno10.wikipediaentities.util.Unique;
+import com.github.kno10.wikipediaentities.util.Util;
+import com.github.kno10.wikipediaentities.util.Watchdog;
+
+/**
+ * Run all stages in a single JVM: {@link ParseWikipedia}, {@link LoadWikiData}
+ * and {@link AnalyzeLinks}.
+ *
+ * The Wikidata dump is loaded concurrently with parsing Wikipedia, and the
+ * redirects, link texts and Wikidata map are passed to the analysis in memory,
+ * instead of writing and reading them back as gzip compressed files. They are
+ * only written if {@code pipeline.artifacts} is set.
+ */
+public class Pipeline {
+  /**
+   * Fake constructor.
+   */
+  private Pipeline() {
+    // Do not instantiate.
+  }
+
+  /**
+   * Run from command line.
+   *
+   * @param args Command line attributes
+   */
+  public static void main(String[] args) {
+    final boolean artifacts = Boolean.parseBoolean(Config.get("pipeline.artifacts"));
+    final String[] wikis = LoadWikiData.wikis(Config.get("loader.source"));
+    int decoders = Math.min(Integer.valueOf(Config.get("decompression.threads")), Runtime.getRuntime().availableProcessors());
+    // String unification, for performance. Only used by the Wikidata loader,
+    // until the parser has finished. Both grow as needed rather than being
+    // allocated for the full dumps up front, which would take memory from
+    // the parser running at the same time.
+    final Unique<String> unique = new Unique<>();
+    final AnalyzeLinks.WikidataMap datamap = new AnalyzeLinks.WikidataMap(unique, wikis, 0);
+    final Throwable[] failure = new Throwable[1];
+    Thread wikidata = new Thread("Wikidata") {
+      @Override
+      public void run() {
+        String fnam = Config.get("wikidata.output");
+        try (PrintStream out = artifacts ? Util.openOutput(fnam) : null) {
+          LoadWikiData.ItemHandler writer = out != null ? LoadWikiData.writer(out, wikis) : null;
+          new LoadWikiData(decoders).load(Config.get("wikidata.input"), (id, titles) -> {
+            datamap.item(id, titles);
+            if(writer != null)
+              writer.item(id, titles);
+          }, wikis);
+        }
+        catch(Throwable e) {
+          failure[0] = e; // Reported after parsing.
+        }
+      }
+    };
+    try {
+      Metrics.start(Config.get("metrics.output"), Double.valueOf(Config.get("metrics.interval")));
+      Watchdog.start(Long.parseLong(Config.get("watchdog.budget")), Config.get("watchdog.report"));
+      wikidata.start();
+      RedirectCollector r = new RedirectCollector(Config.get("redirects.output"));
+      LuceneLinkTokenizer lt = new LuceneLinkTokenizer(Config.get("linktext.output"));
+      boolean complete = ParseWikipedia.run(r, lt, artifacts);
+      Watchdog.stop();
+      wikidata.join();
+      if(failure[0] != null)
+        throw new RuntimeException("Loading Wikidata failed.", failure[0]);
+      if(!complete)
+        return; // Resume from the checkpoint.
+      List<String> phrases = lt.frequent();
+      lt = null; // Free.
+      // Not kept here, so the redirects can be freed after use.
+      new AnalyzeLinks().run(datamap.map, AnalyzeLinks.redirects(unique, r.getRedirects()), phrases.iterator());
+    }
+    catch(IOException e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+    catch(InterruptedException e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+    finally {
+      Watchdog.stop();
+      Metrics.stop();
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package com.github.kno10.wikipediaentities;
+
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+import com.github.kno10.wikipediaentities.util.Stage;
+
+/**
+ * Handler that passes the events on to a later pipeline stage, where they are
+ * processed by other handlers in the threads of the stage.
+ *
+ * The links of an article are batched, and passed on together. Article texts
+ * are not passed on, as the handlers of the later stages only need redirects
+ * and links.
+ */
+public class QueueingHandler implements Handler {
+	/**
+	 * Event passed to the next stage.
+	 */
+	public interface Event {
+		/**
+		 * Deliver the event to a handler.
+		 *
+		 * @param h
+		 *            Handler
+		 */
+		void deliver(Handler h);
+	}
+
+	/** Stage to pass the events to. */
+	Stage<Event> stage;
+
+	/** Article of the current link batch. */
+	String curp = null, cur = null;
+
+	/** Links of the current batch, as label, target pairs. */
+	ArrayList<String> links = new ArrayList<>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param stage
+	 *            Stage to pass the events to.
+	 */
+	public QueueingHandler(Stage<Event> stage) {
+		this.stage = stage;
+		stage.addProducer();
+	}
+
+	/**
+	 * Make a pipeline stage running handlers.
+	 *
+	 * @param name
+	 *            Stage name
+	 * @param threads
+	 *            Number of threads
+	 * @param capacity
+	 *            Queue capacity
+	 * @param handlers
+	 *            Handler factory, called once per thread
+	 * @return Stage
+	 */
+	public static Stage<Event> makeStage(String name, int threads, int capacity, Supplier<Handler> handlers) {
+		return new Stage<>(name, threads, capacity, () -> new HandlerWorker(handlers.get()));
+	}
+
+	@Override
+	public void redirect(String prefix, String title, String redirect, String anchor) {
+		flushLinks();
+		put(h -> h.redirect(prefix, title, redirect, anchor));
+	}
+
+	@Override
+	public void rawArticle(String prefix, String title, CharSequence text) {
+		flushLinks(); // All links of the article have been seen.
+	}
+
+	@Override
+	public void linkDetected(String prefix, String title, String label, String target) {
+		if (!prefix.equals(curp) || !title.equals(cur)) {
+			flushLinks();
+			curp = prefix;
+			cur = title;
+		}
+		links.add(label);
+		links.add(target);
+	}
+
+	@Override
+	public void checkpoint() {
+		flushLinks();
+		try {
+			stage.flush();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		flushLinks();
+		stage.producerDone();
+	}
+
+	/**
+	 * Pass on the current batch of links.
+	 */
+	private void flushLinks() {
+		if (links.isEmpty())
+			return;
+		final String prefix = curp, title = cur;
+		final String[] batch = links.toArray(new String[links.size()]);
+		put(h -> {
+			for (int i = 0; i < batch.length; i += 2)
+				h.linkDetected(prefix, title, batch[i], batch[i + 1]);
+		});
+		links.clear();
+	}
+
+	/**
+	 * Add an event to the queue of the stage.
+	 *
+	 * @param e
+	 *            Event
+	 */
+	private void put(Event e) {
+		try {
+			stage.put(e);
+		} catch (InterruptedException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Worker delivering the events to the handler of its thread.
+	 */
+	private static class HandlerWorker implements Stage.Worker<Event> {
+		/** Handler */
+		Handler handler;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param handler
+		 *            Handler
+		 */
+		HandlerWorker(Handler handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public void process(Event e) {
+			e.deliver(handler);
+		}
+
+		@Override
+		public void flush() {
+			handler.checkpoint();
+		}
+
+		@Override
+		public void close() {
+			handler.close();
+		}
+	}
+}
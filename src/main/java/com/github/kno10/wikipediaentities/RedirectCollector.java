@@ -1,7 +1,10 @@
 package com.github.kno10.wikipediaentities;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Map;
@@ -14,7 +17,7 @@ import com.github.kno10.wikipediaentities.util.Util;
  *
  * @author Erich Schubert
  */
-public class RedirectCollector {
+public class RedirectCollector implements Checkpointer.Participant {
   /** Output filename */
   private String out;
 
@@ -62,16 +65,58 @@ public class RedirectCollector {
     return redirects;
   }
 
+  /**
+   * Get the redirects collected, as page name to target and optional anchor,
+   * separated by a tab.
+   *
+   * @return Redirects
+   */
+  public Map<String, String> getRedirects() {
+    return redirects;
+  }
+
   public void close() throws IOException {
     //transitiveClosure();
     System.err.format("Closing %s output.\n", getClass().getSimpleName());
-    PrintStream writer = Util.openOutput(out);
+    write(out);
+  }
+
+  /**
+   * Write the redirects to a file.
+   *
+   * @param fname Output file name
+   * @throws IOException on errors
+   */
+  private void write(String fname) throws IOException {
+    PrintStream writer = Util.openOutput(fname);
     for(String title : redirects.keySet())
       writer.append(title).append('\t').append(redirects.get(title)).append('\n');
     if(writer != System.out)
       writer.close();
   }
 
+  @Override
+  public void checkpoint(int generation, Map<String, String> state) throws IOException {
+    write(Checkpointer.snapshotName(out, generation));
+    Checkpointer.removeOldSnapshots(out, generation);
+  }
+
+  /**
+   * Restore the redirects collected up to a checkpoint.
+   *
+   * @param generation Checkpoint generation
+   * @throws IOException on errors
+   */
+  public void resume(int generation) throws IOException {
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(Util.openInput(Checkpointer.snapshotName(out, generation)), StandardCharsets.UTF_8))) {
+      for(String line; (line = in.readLine()) != null;) {
+        int p = line.indexOf('\t');
+        if(p > 0)
+          redirects.put(line.substring(0, p), line.substring(p + 1));
+      }
+    }
+  }
+
   public Handler makeThreadHandler() {
     return new RedirectHandler();
   }
@@ -0,0 +1,184 @@
+package com.github.kno10.wikipediaentities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.github.kno10.wikipediaentities.util.CaseFoldedTrie;
+import com.github.kno10.wikipediaentities.util.Util;
+
+/**
+ * Namespaces and redirect magic words of a wiki.
+ *
+ * The namespace names are read from the {@code <siteinfo>} header of each
+ * dump, and extended by the configured {@code namespaces.extra}, which also
+ * covers aliases such as "Image" that the header does not list. The redirect
+ * magic words are configured as {@code redirect.magicwords}. Both are compiled
+ * into case-insensitive tries, for lookups without splitting the text.
+ */
+public class SiteInfo {
+  /** Site information by prefix */
+  private static final Map<String, SiteInfo> SITES = new ConcurrentHashMap<>();
+
+  /** Site information from the configuration only, for unknown prefixes */
+  private static SiteInfo defaults;
+
+  /** Namespace names */
+  private final CaseFoldedTrie namespaces;
+
+  /** Redirect magic words, without the "#" */
+  private final CaseFoldedTrie redirects;
+
+  /**
+   * Constructor.
+   *
+   * @param namespaces Namespace names, in addition to the configured ones
+   */
+  private SiteInfo(Collection<String> namespaces) {
+    List<String> all = new ArrayList<>(namespaces);
+    all.addAll(configured("namespaces.extra"));
+    this.namespaces = new CaseFoldedTrie(all);
+    this.redirects = new CaseFoldedTrie(configured("redirect.magicwords"));
+  }
+
+  /**
+   * Get a comma separated list from the configuration.
+   *
+   * @param key Configuration key
+   * @return Words
+   */
+  private static List<String> configured(String key) {
+    String val = Config.get(key);
+    if(val == null || val.trim().isEmpty())
+      return new ArrayList<>();
+    List<String> words = new ArrayList<>();
+    for(String w : val.split(","))
+      words.add(w.trim());
+    return words;
+  }
+
+  /**
+   * Get the site information of a prefix.
+   *
+   * @param prefix Prefix
+   * @return Site information, from the configuration only if the dump was not
+   *         read
+   */
+  public static SiteInfo get(String prefix) {
+    SiteInfo site = SITES.get(prefix);
+    return site != null ? site : defaults();
+  }
+
+  /**
+   * Site information from the configuration only.
+   *
+   * @return Site information
+   */
+  private static synchronized SiteInfo defaults() {
+    if(defaults == null)
+      defaults = new SiteInfo(Arrays.<String> asList());
+    return defaults;
+  }
+
+  /**
+   * Read the site information from the header of a dump.
+   *
+   * @param fname Dump file name
+   * @param prefix Prefix of the articles of this dump
+   * @return Site information
+   * @throws IOException on errors
+   */
+  public static SiteInfo load(String fname, String prefix) throws IOException {
+    List<String> names = new ArrayList<>();
+    try (InputStream in = Util.openHeader(fname)) {
+      XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in, "UTF-8");
+      try {
+        // Stop after the header, or at the first page of dumps without one.
+        loop: while(reader.hasNext()) {
+          switch(reader.next()){
+          case XMLStreamConstants.START_ELEMENT:
+            if("page".equals(reader.getLocalName()))
+              break loop;
+            if("namespace".equals(reader.getLocalName())) {
+              String name = reader.getElementText().trim();
+              if(!name.isEmpty())
+                names.add(name);
+            }
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            if("siteinfo".equals(reader.getLocalName()))
+              break loop;
+            break;
+          }
+        }
+      }
+      finally {
+        reader.close();
+      }
+    }
+    catch(XMLStreamException e) {
+      throw new IOException("Cannot read the site information of " + fname, e);
+    }
+    if(names.isEmpty())
+      System.err.println("No namespaces in " + fname + ", using the configured ones only.");
+    SiteInfo site = new SiteInfo(names);
+    SITES.put(prefix, site);
+    return site;
+  }
+
+  /**
+   * Test if a link target is in a namespace other than the articles, or is
+   * escaped with a leading colon.
+   *
+   * @param target Link target
+   * @return {@code true} if the link does not point to an article
+   */
+  public boolean isNamespace(CharSequence target) {
+    return isNamespace(target, 0);
+  }
+
+  /**
+   * Test if a link target is in a namespace other than the articles, or is
+   * escaped with a leading colon.
+   *
+   * @param target Buffer containing the link target
+   * @param start Start of the link target, such as after a prefix
+   * @return {@code true} if the link does not point to an article
+   */
+  public boolean isNamespace(CharSequence target, int start) {
+    final int len = target.length();
+    int colon = start;
+    while(colon < len && target.charAt(colon) != ':')
+      ++colon;
+    if(colon == len)
+      return false;
+    int s = start, e = colon;
+    while(s < e && target.charAt(s) <= ' ')
+      ++s;
+    while(e > s && target.charAt(e - 1) <= ' ')
+      --e;
+    return colon == start || namespaces.contains(target, s, e);
+  }
+
+  /**
+   * Match a redirect magic word, after the "#".
+   *
+   * @param text Text
+   * @param start Position after the "#"
+   * @param end Words must end at or before this position
+   * @return End of the longest magic word, or -1
+   */
+  public int matchRedirect(CharSequence text, int start, int end) {
+    return redirects.match(text, start, end);
+  }
+}
@@ -0,0 +1,59 @@
+package com.github.kno10.wikipediaentities;
+
+import com.github.kno10.wikipediaentities.util.Metrics;
+
+/**
+ * Handler measuring the latency of another handler, including any handlers
+ * that one calls.
+ */
+public class TimedHandler implements Handler {
+	/** Handler to measure. */
+	Handler handler;
+
+	/** Latency histogram. */
+	Metrics.Histogram latency;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name
+	 *            Handler name, for the metrics
+	 * @param handler
+	 *            Handler to measure
+	 */
+	public TimedHandler(String name, Handler handler) {
+		this.handler = handler;
+		this.latency = Metrics.histogram("handler." + name + ".latency");
+	}
+
+	@Override
+	public void redirect(String prefix, String title, String redirect, String anchor) {
+		final long start = System.nanoTime();
+		handler.redirect(prefix, title, redirect, anchor);
+		latency.recordSince(start);
+	}
+
+	@Override
+	public void rawArticle(String prefix, String title, CharSequence text) {
+		final long start = System.nanoTime();
+		handler.rawArticle(prefix, title, text);
+		latency.recordSince(start);
+	}
+
+	@Override
+	public void linkDetected(String prefix, String title, String label, String target) {
+		final long start = System.nanoTime();
+		handler.linkDetected(prefix, title, label, target);
+		latency.recordSince(start);
+	}
+
+	@Override
+	public void checkpoint() {
+		handler.checkpoint();
+	}
+
+	@Override
+	public void close() {
+		handler.close();
+	}
+}
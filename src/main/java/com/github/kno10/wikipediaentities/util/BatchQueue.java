@@ -0,0 +1,387 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * Queue handing batches of elements from producer to consumer threads.
+ *
+ * Producers collect elements in a thread local {@link Publisher}, and publish
+ * them as a batch into a lock-free ring buffer. Consumers claim whole
+ * batches. The lock is only used to wait when the ring is empty or full, so
+ * the synchronization cost is per batch rather than per element.
+ *
+ * The queue is bounded by the total weight (e.g. memory size) of the queued
+ * elements, in addition to the number of batches. A batch is always accepted
+ * when the queue has no weight, so a single heavy batch does not block forever.
+ *
+ * Producers register before the consumers are started; once all producers
+ * are done and the queue is drained, consumers see the end of the stream.
+ *
+ * @param <E> Element type
+ */
+public class BatchQueue<E> {
+  /**
+   * A published batch.
+   *
+   * @param <E> Element type
+   */
+  private static class Batch<E> {
+    /** Elements */
+    final List<E> elements;
+
+    /** Total weight */
+    final long weight;
+
+    /**
+     * Constructor.
+     *
+     * @param elements Elements
+     * @param weight Total weight
+     */
+    Batch(List<E> elements, long weight) {
+      this.elements = elements;
+      this.weight = weight;
+    }
+  }
+
+  /** Ring slots */
+  private final AtomicReferenceArray<Batch<E>> slots;
+
+  /** Sequence numbers of the slots */
+  private final AtomicLongArray sequence;
+
+  /** Mask for the slot index */
+  private final int mask;
+
+  /** Next position to publish to, and to claim from */
+  private final AtomicLong tail = new AtomicLong(), head = new AtomicLong();
+
+  /** Weight function */
+  private final ToLongFunction<? super E> weigher;
+
+  /** Maximum total weight */
+  private final long maxWeight;
+
+  /** Batch size */
+  private final int batchSize;
+
+  /** Current total weight */
+  private final AtomicLong weight = new AtomicLong();
+
+  /** Threads waiting */
+  private final AtomicInteger waitingProducers = new AtomicInteger(),
+      waitingConsumers = new AtomicInteger();
+
+  /** Lock, for waiting only */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /** Conditions for waiting */
+  private final Condition notEmpty = lock.newCondition(),
+      notFull = lock.newCondition();
+
+  /** Active producers */
+  private volatile int producers = 0;
+
+  /** Consumers do not wait while paused */
+  private volatile boolean paused = false;
+
+  /**
+   * Constructor.
+   *
+   * @param maxWeight Maximum total weight
+   * @param maxSize Maximum number of elements
+   * @param batchSize Number of elements per batch
+   * @param weigher Weight function
+   */
+  public BatchQueue(long maxWeight, int maxSize, int batchSize, ToLongFunction<? super E> weigher) {
+    int n = 2;
+    while(n < maxSize / batchSize && n < (1 << 30))
+      n <<= 1;
+    this.slots = new AtomicReferenceArray<>(n);
+    this.sequence = new AtomicLongArray(n);
+    for(int i = 0; i < n; i++)
+      sequence.set(i, i);
+    this.mask = n - 1;
+    this.maxWeight = maxWeight;
+    this.batchSize = batchSize;
+    this.weigher = weigher;
+  }
+
+  /**
+   * Make a publisher, for use by a single producer thread.
+   *
+   * @return Publisher
+   */
+  public Publisher publisher() {
+    return new Publisher();
+  }
+
+  /**
+   * Register a producer. This must be done before the consumers are started.
+   */
+  public void addProducer() {
+    lock.lock();
+    try {
+      ++producers;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * A producer has finished. Its publishers must have been flushed.
+   */
+  public void producerDone() {
+    lock.lock();
+    try {
+      --producers;
+      notEmpty.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Pause or resume the consumers. While paused, consumers do not wait for new
+   * batches, but receive an empty batch once the queue is empty.
+   *
+   * @param paused Pause flag
+   */
+  public void setPaused(boolean paused) {
+    lock.lock();
+    try {
+      this.paused = paused;
+      notEmpty.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Test if no batch is queued. Elements in publishers are not seen.
+   *
+   * @return {@code true} when empty
+   */
+  public boolean isEmpty() {
+    return head.get() >= tail.get();
+  }
+
+  /**
+   * Get the number of queued batches.
+   *
+   * @return Number of batches
+   */
+  public int size() {
+    return (int) Math.max(0, tail.get() - head.get());
+  }
+
+  /**
+   * Get the current total weight of all queued elements.
+   *
+   * @return Weight
+   */
+  public long getWeight() {
+    return weight.get();
+  }
+
+  /**
+   * Take the next batch, waiting if necessary.
+   *
+   * @return Batch of elements, empty if the queue is paused, {@code null} at
+   *         the end of the stream.
+   * @throws InterruptedException when interrupted
+   */
+  public List<E> take() throws InterruptedException {
+    Batch<E> b = tryClaim();
+    if(b == null) {
+      lock.lockInterruptibly();
+      waitingConsumers.incrementAndGet();
+      try {
+        while((b = tryClaim()) == null) {
+          if(producers == 0)
+            return null;
+          if(paused)
+            return Collections.emptyList();
+          notEmpty.await();
+        }
+      }
+      finally {
+        waitingConsumers.decrementAndGet();
+        lock.unlock();
+      }
+    }
+    weight.addAndGet(-b.weight);
+    if(waitingProducers.get() > 0)
+      signalAll(notFull);
+    return b.elements;
+  }
+
+  /**
+   * Publish a batch, waiting for space if necessary.
+   *
+   * @param b Batch
+   * @throws InterruptedException when interrupted
+   */
+  private void publish(Batch<E> b) throws InterruptedException {
+    boolean reserved = tryReserve(b.weight);
+    if(!reserved || !tryPublish(b)) {
+      lock.lockInterruptibly();
+      waitingProducers.incrementAndGet();
+      try {
+        while(!(reserved || (reserved = tryReserve(b.weight))) || !tryPublish(b))
+          notFull.await();
+      }
+      catch(InterruptedException e) {
+        if(reserved)
+          weight.addAndGet(-b.weight);
+        throw e;
+      }
+      finally {
+        waitingProducers.decrementAndGet();
+        lock.unlock();
+      }
+    }
+    if(waitingConsumers.get() > 0) {
+      lock.lock();
+      try {
+        notEmpty.signal();
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Signal all threads waiting for a condition.
+   *
+   * @param c Condition
+   */
+  private void signalAll(Condition c) {
+    lock.lock();
+    try {
+      c.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Reserve weight for a batch, if it fits.
+   *
+   * @param w Weight
+   * @return {@code true} on success
+   */
+  private boolean tryReserve(long w) {
+    for(;;) {
+      long cur = weight.get();
+      if(cur > 0 && cur + w > maxWeight)
+        return false;
+      if(weight.compareAndSet(cur, cur + w))
+        return true;
+    }
+  }
+
+  /**
+   * Put a batch into the ring, if there is a free slot.
+   *
+   * @param b Batch
+   * @return {@code true} on success
+   */
+  private boolean tryPublish(Batch<E> b) {
+    long pos = tail.get();
+    for(;;) {
+      final int i = (int) pos & mask;
+      final long d = sequence.get(i) - pos;
+      if(d == 0) {
+        if(tail.compareAndSet(pos, pos + 1)) {
+          slots.set(i, b);
+          sequence.set(i, pos + 1);
+          return true;
+        }
+        pos = tail.get();
+      }
+      else if(d < 0)
+        return false; // Full
+      else
+        pos = tail.get();
+    }
+  }
+
+  /**
+   * Take a batch from the ring, if there is one.
+   *
+   * @return Batch, or {@code null}
+   */
+  private Batch<E> tryClaim() {
+    long pos = head.get();
+    for(;;) {
+      final int i = (int) pos & mask;
+      final long d = sequence.get(i) - (pos + 1);
+      if(d == 0) {
+        if(head.compareAndSet(pos, pos + 1)) {
+          Batch<E> b = slots.get(i);
+          slots.set(i, null);
+          sequence.set(i, pos + mask + 1);
+          return b;
+        }
+        pos = head.get();
+      }
+      else if(d < 0)
+        return null; // Empty
+      else
+        pos = head.get();
+    }
+  }
+
+  /**
+   * Collects the elements of one producer thread into batches.
+   */
+  public class Publisher {
+    /** Current batch */
+    private ArrayList<E> batch = new ArrayList<>(batchSize);
+
+    /** Weight of the current batch */
+    private long batchWeight = 0;
+
+    /**
+     * Add an element. The batch is published when full, or when it has an
+     * eighth of the maximum weight.
+     *
+     * @param e Element
+     * @throws InterruptedException when interrupted
+     */
+    public void add(E e) throws InterruptedException {
+      batch.add(e);
+      batchWeight += weigher.applyAsLong(e);
+      if(batch.size() >= batchSize || batchWeight >= maxWeight >>> 3)
+        flush();
+    }
+
+    /**
+     * Publish the current batch, if not empty.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    public void flush() throws InterruptedException {
+      if(batch.isEmpty())
+        return;
+      publish(new Batch<>(batch, batchWeight));
+      batch = new ArrayList<>(batchSize);
+      batchWeight = 0;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of byte arrays, in power of two size classes.
+ *
+ * Page buffers are large and short-lived, so recycling them saves a lot of
+ * garbage collection work. The pool retains a bounded amount of memory over
+ * all size classes; excess buffers are left to the garbage collector.
+ */
+public class BufferPool {
+  /** Smallest size class, 4 KiB */
+  private static final int MIN_SHIFT = 12;
+
+  /** Largest pooled size class, 64 MiB */
+  private static final int MAX_SHIFT = 26;
+
+  /** Free buffers, by size class */
+  private final List<ConcurrentLinkedQueue<byte[]>> free;
+
+  /** Memory to retain, in bytes */
+  private final long budget;
+
+  /** Memory retained by the free buffers, in bytes */
+  private final AtomicLong retained = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param budget Memory to retain over all size classes, in bytes
+   */
+  public BufferPool(long budget) {
+    this.budget = budget;
+    free = new ArrayList<>(MAX_SHIFT - MIN_SHIFT + 1);
+    for(int i = MIN_SHIFT; i <= MAX_SHIFT; i++)
+      free.add(new ConcurrentLinkedQueue<>());
+  }
+
+  /**
+   * Get a buffer of at least the given size.
+   *
+   * @param size Minimum size
+   * @return Buffer, possibly larger than requested
+   */
+  public byte[] acquire(int size) {
+    final int c = sizeClass(size);
+    if(c >= free.size())
+      return new byte[size];
+    byte[] buf = free.get(c).poll();
+    if(buf == null)
+      return new byte[1 << (c + MIN_SHIFT)];
+    retained.addAndGet(-buf.length);
+    return buf;
+  }
+
+  /**
+   * Return a buffer to the pool.
+   *
+   * @param buf Buffer, from {@link #acquire}
+   */
+  public void release(byte[] buf) {
+    final int c = sizeClass(buf.length);
+    if(c >= free.size() || buf.length != 1 << (c + MIN_SHIFT))
+      return;
+    // Reserve the memory first, so concurrent releases cannot exceed the budget.
+    if(retained.addAndGet(buf.length) > budget) {
+      retained.addAndGet(-buf.length);
+      return;
+    }
+    free.get(c).offer(buf);
+  }
+
+  /**
+   * Memory retained by the free buffers.
+   *
+   * @return Bytes retained
+   */
+  public long retained() {
+    return retained.get();
+  }
+
+  /**
+   * Size class of a buffer size.
+   *
+   * @param size Size
+   * @return Size class
+   */
+  private static int sizeClass(int size) {
+    return size <= (1 << MIN_SHIFT) ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+  }
+}
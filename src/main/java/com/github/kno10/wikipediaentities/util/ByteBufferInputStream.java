@@ -0,0 +1,61 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream reading from a {@link ByteBuffer}, without copying the buffer.
+ *
+ * Avoids locking.
+ */
+public class ByteBufferInputStream extends InputStream {
+  /** Data to read */
+  private ByteBuffer buf;
+
+  /**
+   * Constructor.
+   *
+   * @param buf Buffer to read from; the position will be advanced.
+   */
+  public ByteBufferInputStream(ByteBuffer buf) {
+    this.buf = buf;
+  }
+
+  /**
+   * Reuse the stream for a new buffer.
+   *
+   * @param buf Buffer to read from
+   * @return {@code this}
+   */
+  public ByteBufferInputStream reset(ByteBuffer buf) {
+    this.buf = buf;
+    return this;
+  }
+
+  @Override
+  public int read() {
+    return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) {
+    if(!buf.hasRemaining())
+      return -1;
+    len = Math.min(len, buf.remaining());
+    buf.get(b, off, len);
+    return len;
+  }
+
+  @Override
+  public long skip(long n) {
+    n = Math.max(0, Math.min(n, buf.remaining()));
+    ((Buffer) buf).position(buf.position() + (int) n);
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return buf.remaining();
+  }
+}
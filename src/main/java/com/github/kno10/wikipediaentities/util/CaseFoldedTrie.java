@@ -0,0 +1,135 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Case-insensitive lookup of a set of words, such as namespace names or
+ * redirect magic words.
+ *
+ * The words are case folded, and compiled into a flat prefix tree as in
+ * {@link CompiledMatcher}, so a lookup neither splits nor copies the text.
+ * Underscores are treated as spaces, as in Wikipedia titles.
+ */
+public final class CaseFoldedTrie {
+  /** Offset of the edges of each state, and the number of edges at the end */
+  private final int[] edges;
+
+  /** Edge characters, sorted for each state */
+  private final char[] labels;
+
+  /** Edge target states */
+  private final int[] targets;
+
+  /** States at the end of a word */
+  private final boolean[] terminal;
+
+  /**
+   * Constructor.
+   *
+   * @param words Words, empty words are ignored
+   */
+  public CaseFoldedTrie(Iterable<? extends CharSequence> words) {
+    PrefixTreeMatcher root = new PrefixTreeMatcher();
+    StringBuilder buf = new StringBuilder();
+    for(CharSequence w : words) {
+      buf.setLength(0);
+      for(int i = 0, l = w.length(); i < l; i++)
+        buf.append(fold(w.charAt(i)));
+      if(buf.length() > 0)
+        root.add(buf, "");
+    }
+    // Number the states breadth first:
+    List<PrefixTreeMatcher> states = new ArrayList<>();
+    states.add(root);
+    int nedges = 0;
+    for(int s = 0; s < states.size(); s++) {
+      PrefixTreeMatcher n = states.get(s);
+      for(int j = 0; j < n.size; j++)
+        states.add(n.t[j]);
+      nedges += n.size;
+    }
+    final int nstates = states.size();
+    edges = new int[nstates + 1];
+    labels = new char[nedges];
+    targets = new int[nedges];
+    terminal = new boolean[nstates];
+    for(int s = 0, e = 0, next = 1; s < nstates; s++) {
+      PrefixTreeMatcher n = states.get(s);
+      edges[s] = e;
+      for(int j = 0; j < n.size; j++, e++) {
+        labels[e] = n.m[j];
+        targets[e] = next++;
+      }
+      terminal[s] = n.rep != null;
+    }
+    edges[nstates] = nedges;
+  }
+
+  /**
+   * Fold the case of a character.
+   *
+   * @param c Character
+   * @return Folded character
+   */
+  private static char fold(char c) {
+    return c == '_' ? ' ' : Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  /**
+   * Test if a range of the text is one of the words.
+   *
+   * @param seq Text
+   * @param start First character
+   * @param end End of the range
+   * @return {@code true} if the range is a word
+   */
+  public boolean contains(CharSequence seq, int start, int end) {
+    int state = 0;
+    for(int p = start; p < end && state >= 0; p++)
+      state = child(state, fold(seq.charAt(p)));
+    return state >= 0 && terminal[state];
+  }
+
+  /**
+   * Find the longest word beginning at a position.
+   *
+   * To try shorter words, call again with an end before the returned position.
+   *
+   * @param seq Text
+   * @param start First character
+   * @param end Words must end at or before this position
+   * @return End of the word, or -1 if there is none
+   */
+  public int match(CharSequence seq, int start, int end) {
+    int found = -1;
+    for(int state = 0, p = start; p < end;) {
+      if((state = child(state, fold(seq.charAt(p++)))) < 0)
+        break;
+      if(terminal[state])
+        found = p;
+    }
+    return found;
+  }
+
+  /**
+   * Find the target of an edge.
+   *
+   * @param state Current state
+   * @param c Character
+   * @return Next state, or -1
+   */
+  private int child(int state, char c) {
+    for(int lo = edges[state], hi = edges[state + 1] - 1; lo <= hi;) {
+      final int mid = (lo + hi) >>> 1;
+      final char l = labels[mid];
+      if(l < c)
+        lo = mid + 1;
+      else if(l > c)
+        hi = mid - 1;
+      else
+        return targets[mid];
+    }
+    return -1;
+  }
+}
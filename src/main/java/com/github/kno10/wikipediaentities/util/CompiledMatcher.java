@@ -0,0 +1,183 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.kno10.wikipediaentities.util.PrefixTreeMatcher.NumericalEntityMatcher;
+
+/**
+ * Flat, compiled form of a {@link PrefixTreeMatcher}.
+ *
+ * The states are numbered breadth first, and their outgoing edges are stored
+ * as sorted runs in primitive arrays, so matching is a loop over array indexes
+ * instead of a recursion over tree objects. A bitmap of the first characters
+ * of all patterns allows skipping ordinary text quickly.
+ *
+ * Numerical entities are matched as by {@link NumericalEntityMatcher}.
+ */
+public final class CompiledMatcher implements SubstitutionMatcher {
+  /** Scan the edges linearly, up to this many */
+  private static final int LINEAR = 8;
+
+  /** Bitmap of the first characters of all patterns */
+  private final long[] first = new long[(Character.MAX_VALUE + 1) >>> 6];
+
+  /** Offset of the edges of each state, and the number of edges at the end */
+  private final int[] edges;
+
+  /** Edge characters, sorted for each state */
+  private final char[] labels;
+
+  /** Edge target states */
+  private final int[] targets;
+
+  /** Replacement of each state, or {@code null} */
+  private final String[] reps;
+
+  /** States followed by the number of a numerical entity */
+  private final boolean[] numeric;
+
+  /** Length of the longest pattern */
+  private final int depth;
+
+  /** Replacements are never longer than their patterns */
+  private final boolean shrinking;
+
+  /**
+   * Constructor.
+   *
+   * @param root Prefix tree to compile
+   */
+  CompiledMatcher(PrefixTreeMatcher root) {
+    if(root.rep != null || root instanceof NumericalEntityMatcher)
+      throw new IllegalArgumentException("Empty patterns are not supported.");
+    // Number the states breadth first:
+    List<PrefixTreeMatcher> states = new ArrayList<>();
+    states.add(root);
+    int nedges = 0;
+    for(int s = 0; s < states.size(); s++) {
+      PrefixTreeMatcher n = states.get(s);
+      for(int j = 0; j < n.size; j++)
+        states.add(n.t[j]);
+      nedges += n.size;
+    }
+    final int nstates = states.size();
+    edges = new int[nstates + 1];
+    labels = new char[nedges];
+    targets = new int[nedges];
+    reps = new String[nstates];
+    numeric = new boolean[nstates];
+    for(int s = 0, e = 0, next = 1; s < nstates; s++) {
+      PrefixTreeMatcher n = states.get(s);
+      edges[s] = e;
+      for(int j = 0; j < n.size; j++, e++) {
+        labels[e] = n.m[j];
+        targets[e] = next++;
+      }
+      reps[s] = n.rep != null ? n.rep.toString() : null;
+      numeric[s] = n instanceof NumericalEntityMatcher;
+    }
+    edges[nstates] = nedges;
+    for(int e = edges[0]; e < edges[1]; e++)
+      first[labels[e] >>> 6] |= 1L << labels[e];
+    depth = root.depth();
+    shrinking = root.isShrinking();
+  }
+
+  @Override
+  public int match(CharSequence seq, int pos, int len, Appendable out) throws IOException {
+    if(pos >= len || !isFirst(seq.charAt(pos)))
+      return 0;
+    // Deepest state with a replacement, and end of its pattern:
+    int rep = -1, repEnd = pos;
+    // Deepest numerical state, and the deepest replacement before it:
+    int num = -1, numEnd = pos, numRep = -1, numRepEnd = pos;
+    for(int state = 0, p = pos;;) {
+      if(numeric[state]) {
+        num = state;
+        numEnd = p;
+        numRep = rep;
+        numRepEnd = repEnd;
+      }
+      if(reps[state] != null) {
+        rep = state;
+        repEnd = p;
+      }
+      if(p == len || (state = child(state, seq.charAt(p))) < 0)
+        break;
+      ++p;
+    }
+    // A replacement of the numerical state itself, or a longer one, wins.
+    if(num >= 0 && numEnd > repEnd) {
+      if(numEnd < len) {
+        int r = NumericalEntityMatcher.matchNumber(seq, numEnd, len, out, numEnd - pos);
+        if(r > 0)
+          return r;
+      }
+      rep = numRep;
+      repEnd = numRepEnd;
+    }
+    if(rep < 0)
+      return 0;
+    out.append(reps[rep]);
+    return repEnd - pos;
+  }
+
+  /**
+   * Find the target of an edge.
+   *
+   * @param state Current state
+   * @param c Character
+   * @return Next state, or -1
+   */
+  private int child(int state, char c) {
+    int lo = edges[state], hi = edges[state + 1];
+    if(hi - lo <= LINEAR) {
+      for(; lo < hi; lo++) {
+        final char l = labels[lo];
+        if(l >= c)
+          return l == c ? targets[lo] : -1;
+      }
+      return -1;
+    }
+    for(--hi; lo <= hi;) {
+      final int mid = (lo + hi) >>> 1;
+      final char l = labels[mid];
+      if(l < c)
+        lo = mid + 1;
+      else if(l > c)
+        hi = mid - 1;
+      else
+        return targets[mid];
+    }
+    return -1;
+  }
+
+  /**
+   * Test if a pattern begins with this character.
+   *
+   * @param c Character
+   * @return {@code true} if a match is possible
+   */
+  private boolean isFirst(char c) {
+    return (first[c >>> 6] & (1L << c)) != 0;
+  }
+
+  @Override
+  public int skip(CharSequence seq, int pos, int len) {
+    while(pos < len && !isFirst(seq.charAt(pos)))
+      ++pos;
+    return pos;
+  }
+
+  @Override
+  public int depth() {
+    return depth;
+  }
+
+  @Override
+  public boolean isShrinking() {
+    return shrinking;
+  }
+}
@@ -0,0 +1,53 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream counting the bytes read into a metrics counter.
+ */
+public class CountingInputStream extends FilterInputStream {
+  /** Counter */
+  private final Metrics.Counter counter;
+
+  /**
+   * Constructor.
+   *
+   * @param in Input stream
+   * @param counter Counter to add to
+   */
+  public CountingInputStream(InputStream in, Metrics.Counter counter) {
+    super(in);
+    this.counter = counter;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int c = in.read();
+    if(c >= 0)
+      counter.increment();
+    return c;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int c = in.read(b, off, len);
+    if(c > 0)
+      counter.add(c);
+    return c;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long c = in.skip(n);
+    if(c > 0)
+      counter.add(c);
+    return c;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+}
@@ -0,0 +1,63 @@
+package com.github.kno10.wikipediaentities.util;
+
+/**
+ * Character sequence that fails when a time budget is exceeded.
+ *
+ * Regular expression matchers read their input via {@link #charAt}, so even a
+ * matcher caught in catastrophic backtracking stops with a
+ * {@link Watchdog.Timeout}. Subsequences, as used for groups, are not wrapped.
+ */
+public class InterruptibleCharSequence implements CharSequence {
+  /** Wrapped text */
+  private final CharSequence inner;
+
+  /** Time budget */
+  private final Watchdog.Budget budget;
+
+  /** Start time of the article */
+  private final long started;
+
+  /**
+   * Constructor.
+   *
+   * @param inner Text to wrap
+   * @param budget Time budget
+   * @param started Start time of the article
+   */
+  InterruptibleCharSequence(CharSequence inner, Watchdog.Budget budget, long started) {
+    this.inner = inner;
+    this.budget = budget;
+    this.started = started;
+  }
+
+  /**
+   * Check the time budget, for code not reading via {@link #charAt}.
+   *
+   * @throws Watchdog.Timeout when the budget is exceeded
+   */
+  void check() {
+    if(budget.isExpired(started))
+      throw new Watchdog.Timeout();
+  }
+
+  @Override
+  public char charAt(int index) {
+    check();
+    return inner.charAt(index);
+  }
+
+  @Override
+  public int length() {
+    return inner.length();
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return inner.subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return inner.toString();
+  }
+}
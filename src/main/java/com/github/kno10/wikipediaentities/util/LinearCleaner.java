@@ -0,0 +1,211 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.util.Arrays;
+
+/**
+ * Cheap wikitext cleaner, in linear time.
+ *
+ * This is an approximation of {@link WikitextLexer}, for pages where it takes
+ * too long. It removes comments, templates, tables,
+ * references and formulas, and replaces links with their labels. Brackets
+ * are matched in a first pass, so that unbalanced markup cannot cause
+ * repeated scans.
+ */
+public class LinearCleaner {
+  /**
+   * Callback for links.
+   */
+  public interface LinkHandler {
+    /**
+     * Handle a link.
+     *
+     * @param target Link target, without anchor
+     * @param label Link label, may be {@code null}
+     * @return Text to replace the link with, {@code null} to remove it.
+     */
+    String link(String target, String label);
+  }
+
+  /** Text */
+  private String text;
+
+  /** End positions of the brackets starting at each position, or 0 */
+  private int[] match = new int[0];
+
+  /** Open brackets: templates, tables, links */
+  private int[] stack = new int[64];
+
+  /** Output buffer */
+  private StringBuilder buf = new StringBuilder();
+
+  /**
+   * Clean a text.
+   *
+   * @param text Wikitext
+   * @param links Link handler
+   * @return Cleaned text
+   */
+  public String clean(String text, LinkHandler links) {
+    this.text = text;
+    matchBrackets();
+    buf.setLength(0);
+    clean(0, text.length(), links);
+    this.text = null;
+    return buf.toString();
+  }
+
+  /**
+   * Match the pairs of {{ }}, {| |} and [[ ]].
+   */
+  private void matchBrackets() {
+    final int len = text.length();
+    if(match.length < len)
+      match = new int[len];
+    else
+      Arrays.fill(match, 0, len, 0);
+    int templates = 0, tables = 0, links = 0; // Stack depths
+    // The stack holds the kind in the low two bits, position above.
+    int depth = 0;
+    for(int i = 0; i + 1 < len; i++) {
+      final char c = text.charAt(i), n = text.charAt(i + 1);
+      int open = c == '{' && n == '{' ? 1 : c == '{' && n == '|' ? 2 : c == '[' && n == '[' ? 3 : 0;
+      if(open != 0) {
+        if(depth == stack.length)
+          stack = Arrays.copyOf(stack, depth << 1);
+        stack[depth++] = (i << 2) | open;
+        templates += open == 1 ? 1 : 0;
+        tables += open == 2 ? 1 : 0;
+        links += open == 3 ? 1 : 0;
+        i++;
+        continue;
+      }
+      final boolean t = c == '}' && n == '}', b = c == '|' && n == '}', l = c == ']' && n == ']';
+      if(!(t || b || l) || depth == 0)
+        continue;
+      // Prefer closing the innermost bracket.
+      final int top = stack[depth - 1] & 3;
+      final int close = top == 1 && t ? 1 : top == 2 && b ? 2 : top == 3 && l ? 3 : //
+          t && templates > 0 ? 1 : b && tables > 0 ? 2 : l && links > 0 ? 3 : 0;
+      if(close == 0)
+        continue;
+      // Pop to the innermost bracket of this kind; unclosed inner ones remain literal.
+      while(depth > 0) {
+        final int s = stack[--depth], kind = s & 3;
+        templates -= kind == 1 ? 1 : 0;
+        tables -= kind == 2 ? 1 : 0;
+        links -= kind == 3 ? 1 : 0;
+        if(kind == close) {
+          match[s >>> 2] = i + 2;
+          break;
+        }
+      }
+      i++;
+    }
+  }
+
+  /**
+   * Clean a range of the text.
+   *
+   * @param start Start
+   * @param end End
+   * @param links Link handler
+   */
+  private void clean(int start, int end, LinkHandler links) {
+    // Closing tags not found after these positions:
+    int noComment = end, noRef = end, noRefClose = end, noMath = end;
+    for(int i = start; i < end;) {
+      final char c = text.charAt(i);
+      final int m = match[i];
+      if(m > 0 && m <= end) {
+        if(c == '[')
+          link(i + 2, m - 2, links);
+        i = m; // Drop templates and tables.
+        continue;
+      }
+      if(c == '<') {
+        int e = -1;
+        if(i < noComment && text.startsWith("<!--", i)) {
+          e = text.indexOf("-->", i + 4);
+          noComment = e < 0 ? i : noComment;
+          e = e < 0 ? -1 : e + 3;
+        }
+        else if(i < noMath && text.regionMatches(true, i, "<math>", 0, 6)) {
+          e = indexOfIgnoreCase("</math>", i + 6);
+          noMath = e < 0 ? i : noMath;
+          e = e < 0 ? -1 : e + 7;
+        }
+        else if(text.regionMatches(true, i, "<ref", 0, 4) && i < noRef) {
+          e = text.indexOf('>', i + 4);
+          if(e >= 0 && text.charAt(e - 1) != '/' && i < noRefClose) {
+            int e2 = indexOfIgnoreCase("</ref>", e);
+            noRefClose = e2 < 0 ? i : noRefClose;
+            e = e2 < 0 ? e : e2 + 5;
+          }
+          noRef = e < 0 ? i : noRef;
+          e = e < 0 ? -1 : e + 1;
+        }
+        else if(text.regionMatches(true, i, "<sub>", 0, 5) || text.regionMatches(true, i, "<sup>", 0, 5))
+          e = i + 5;
+        else if(text.regionMatches(true, i, "</sub>", 0, 6) || text.regionMatches(true, i, "</sup>", 0, 6))
+          e = i + 6;
+        if(e > 0 && e <= end) {
+          i = e;
+          continue;
+        }
+      }
+      buf.append(c);
+      i++;
+    }
+  }
+
+  /**
+   * Replace a link by its label.
+   *
+   * @param start Start of the link content
+   * @param end End of the link content
+   * @param links Link handler
+   */
+  private void link(int start, int end, LinkHandler links) {
+    int bar = -1, last = -1;
+    for(int j = start; j < end; j++) {
+      final char c = text.charAt(j);
+      if(c == '|') {
+        bar = bar < 0 ? j : bar;
+        last = j;
+      }
+      else if(match[j] > 0 && match[j] <= end)
+        j = match[j] - 1; // Skip nested brackets.
+    }
+    String target = text.substring(start, bar < 0 ? end : bar);
+    int hash = target.indexOf('#');
+    if(hash >= 0)
+      target = target.substring(0, hash);
+    target = target.trim();
+    String label = last < 0 ? null : text.substring(last + 1, end).trim();
+    if(label != null && label.isEmpty())
+      label = null;
+    if(target.isEmpty() && label == null)
+      return;
+    String replacement = links.link(target, label);
+    if(replacement == null)
+      return;
+    if(label == null || label.indexOf('[') < 0 && label.indexOf('{') < 0 && label.indexOf('<') < 0)
+      buf.append(replacement);
+    else
+      clean(last + 1, end, links); // Clean nested markup in the label.
+  }
+
+  /**
+   * Find a string, ignoring case.
+   *
+   * @param s String to find, lower case
+   * @param from Start position
+   * @return Position, or -1
+   */
+  private int indexOfIgnoreCase(String s, int from) {
+    for(int i = text.indexOf('<', from); i >= 0; i = text.indexOf('<', i + 1))
+      if(text.regionMatches(true, i, s, 0, s.length()))
+        return i;
+    return -1;
+  }
+}
@@ -0,0 +1,152 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.util.Arrays;
+
+/**
+ * Normalize link targets and labels from a character buffer into reusable
+ * buffers, without creating strings.
+ *
+ * The target is normalized as by {@link Util#normalizeLink}, and preceded by
+ * the prefix of the wiki. The label defaults to the raw target; line breaks
+ * are replaced by spaces, and the label is trimmed.
+ *
+ * The results are only valid until the next call, and must not be shared by
+ * threads.
+ */
+public final class LinkNormalizer {
+  /** Prefixed target, and label */
+  private final Slice target = new Slice(), label = new Slice();
+
+  /** Length of the prefix */
+  private int prefixLength;
+
+  /**
+   * Set the prefix of the following targets.
+   *
+   * @param prefix Prefix
+   */
+  public void setPrefix(String prefix) {
+    prefixLength = prefix.length();
+    target.ensure(prefixLength);
+    prefix.getChars(0, prefixLength, target.buf, 0);
+  }
+
+  /**
+   * Normalize a link.
+   *
+   * @param text Buffer
+   * @param start Start of the target
+   * @param end End of the target
+   * @param lstart Start of the label, -1 to use the target
+   * @param lend End of the label
+   * @return {@code false} if the target is empty
+   */
+  public boolean normalize(char[] text, int start, int end, int lstart, int lend) {
+    if(lstart < 0) {
+      lstart = start;
+      lend = end;
+    }
+    // Trim, then replace the remaining line breaks:
+    while(start < end && text[start] <= ' ')
+      ++start;
+    while(end > start && text[end - 1] <= ' ')
+      --end;
+    if(start == end)
+      return false;
+    target.copy(prefixLength, text, start, end);
+    final char first = text[start];
+    if(Character.isLowerCase(first))
+      target.buf[prefixLength] = Character.toUpperCase(first);
+    while(lstart < lend && text[lstart] <= ' ')
+      ++lstart;
+    while(lend > lstart && text[lend - 1] <= ' ')
+      --lend;
+    label.copy(0, text, lstart, lend);
+    return true;
+  }
+
+  /**
+   * Length of the prefix, at the beginning of the target.
+   *
+   * @return Prefix length
+   */
+  public int prefixLength() {
+    return prefixLength;
+  }
+
+  /**
+   * Get the target of the last link, including the prefix.
+   *
+   * @return Target, valid until the next call
+   */
+  public CharSequence target() {
+    return target;
+  }
+
+  /**
+   * Get the label of the last link.
+   *
+   * @return Label, valid until the next call
+   */
+  public CharSequence label() {
+    return label;
+  }
+
+  /**
+   * Reusable character buffer.
+   */
+  private static final class Slice implements CharSequence {
+    /** Buffer */
+    char[] buf = new char[64];
+
+    /** Length */
+    int len;
+
+    /**
+     * Copy text after a position, replacing line breaks by spaces.
+     *
+     * @param pos Position in this buffer
+     * @param text Source
+     * @param start Start in the source
+     * @param end End in the source
+     */
+    void copy(int pos, char[] text, int start, int end) {
+      len = pos + end - start;
+      ensure(len);
+      for(int i = start; i < end; i++) {
+        final char c = text[i];
+        buf[pos++] = c == '\n' ? ' ' : c;
+      }
+    }
+
+    /**
+     * Ensure the capacity of the buffer.
+     *
+     * @param n Minimum size
+     */
+    void ensure(int n) {
+      if(n > buf.length)
+        buf = Arrays.copyOf(buf, Math.max(n, buf.length << 1));
+    }
+
+    @Override
+    public int length() {
+      return len;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return buf[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return new String(buf, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+      return new String(buf, 0, len);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory mapped access to an uncompressed input file.
+ *
+ * The file can be split into segments at record boundaries (such as
+ * {@code <page>} tags, or line breaks), which can then be consumed by
+ * different threads concurrently, without copying the data into the heap.
+ */
+public class MappedFile implements Closeable {
+  /** Maximum size of a single mapping. */
+  public static final long MAX_SEGMENT = 1L << 30;
+
+  /** Window size for searching record boundaries */
+  private static final int SEARCH_WINDOW = 1 << 24;
+
+  /** File channel */
+  private FileChannel channel;
+
+  /** File size */
+  private long size;
+
+  /**
+   * Constructor.
+   *
+   * @param fname File name
+   * @throws IOException on errors opening the file
+   */
+  public MappedFile(String fname) throws IOException {
+    channel = FileChannel.open(new File(fname).toPath(), StandardOpenOption.READ);
+    size = channel.size();
+  }
+
+  /**
+   * Get the file size.
+   *
+   * @return Size
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Map a region of the file.
+   *
+   * @param from Start offset
+   * @param to End offset, exclusive
+   * @return Read-only buffer
+   * @throws IOException on errors
+   */
+  public MappedByteBuffer map(long from, long to) throws IOException {
+    if(to - from > Integer.MAX_VALUE)
+      throw new IOException("Region too large to map: " + (to - from));
+    return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+  }
+
+  /**
+   * Split the file into segments that begin with a delimiter.
+   *
+   * The first segment also contains everything before the first delimiter.
+   * More segments than requested are used if necessary to keep every segment
+   * below {@link #MAX_SEGMENT}.
+   *
+   * @param n Desired number of segments
+   * @param delim Delimiter to align segment starts to
+   * @return Segment boundaries, of length segments + 1
+   * @throws IOException on errors
+   */
+  public long[] split(int n, byte[] delim) throws IOException {
+    n = (int) Math.max(n, (size + (MAX_SEGMENT >> 1) - 1) / (MAX_SEGMENT >> 1));
+    long[] bounds = new long[n + 1];
+    for(int i = 1; i < n; i++)
+      bounds[i] = Math.max(bounds[i - 1], find(delim, size / n * i));
+    bounds[n] = size;
+    for(int i = 0; i < n; i++)
+      if(bounds[i + 1] - bounds[i] > MAX_SEGMENT)
+        throw new IOException("No record boundary found in " + (bounds[i + 1] - bounds[i]) + " bytes.");
+    return bounds;
+  }
+
+  /**
+   * Map the file as segments that begin with a delimiter.
+   *
+   * @param n Desired number of segments
+   * @param delim Delimiter to align segment starts to
+   * @return Mapped segments
+   * @throws IOException on errors
+   * @see #split(int, byte[])
+   */
+  public ByteBuffer[] segments(int n, byte[] delim) throws IOException {
+    long[] bounds = split(n, delim);
+    ByteBuffer[] segs = new ByteBuffer[bounds.length - 1];
+    for(int i = 0; i < segs.length; i++)
+      segs[i] = map(bounds[i], bounds[i + 1]);
+    return segs;
+  }
+
+  /**
+   * Find the next occurrence of a delimiter.
+   *
+   * @param delim Delimiter
+   * @param from Starting offset
+   * @return Offset of the delimiter, or the file size
+   * @throws IOException on errors
+   */
+  private long find(byte[] delim, long from) throws IOException {
+    while(from < size) {
+      long to = Math.min(size, from + SEARCH_WINDOW);
+      MappedByteBuffer buf = map(from, to);
+      int p = indexOf(buf, delim, 0);
+      if(p >= 0)
+        return from + p;
+      if(to == size)
+        break;
+      from = to - delim.length + 1; // Overlap for matches across windows.
+    }
+    return size;
+  }
+
+  /**
+   * Find a byte sequence in a buffer.
+   *
+   * @param buf Buffer
+   * @param pat Pattern
+   * @param from Starting position (absolute)
+   * @return Position, or -1
+   */
+  public static int indexOf(ByteBuffer buf, byte[] pat, int from) {
+    final byte first = pat[0];
+    final int last = buf.limit() - pat.length;
+    outer: for(int i = from; i <= last; i++) {
+      if(buf.get(i) != first)
+        continue;
+      for(int j = 1; j < pat.length; j++)
+        if(buf.get(i + j) != pat[j])
+          continue outer;
+      return i;
+    }
+    return -1;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
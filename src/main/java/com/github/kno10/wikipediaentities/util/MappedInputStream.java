@@ -0,0 +1,96 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Sequential input stream over a memory mapped file.
+ *
+ * The file is mapped in large windows, so files larger than 2 GB are
+ * supported, and the data does not pass through an intermediate heap buffer.
+ */
+public class MappedInputStream extends InputStream {
+  /** Window size */
+  private static final long WINDOW = 1L << 28;
+
+  /** Mapped file */
+  private MappedFile file;
+
+  /** Current window */
+  private MappedByteBuffer buf;
+
+  /** Offset of the next window */
+  private long next = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param fname File name
+   * @throws IOException on errors opening the file
+   */
+  public MappedInputStream(String fname) throws IOException {
+    this.file = new MappedFile(fname);
+  }
+
+  /**
+   * Make sure the current window has data.
+   *
+   * @return {@code false} at the end of the file
+   * @throws IOException on errors
+   */
+  private boolean fill() throws IOException {
+    if(buf != null && buf.hasRemaining())
+      return true;
+    if(next >= file.size())
+      return false;
+    long end = Math.min(file.size(), next + WINDOW);
+    buf = file.map(next, end);
+    next = end;
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    return fill() ? buf.get() & 0xFF : -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if(len == 0)
+      return 0;
+    if(!fill())
+      return -1;
+    len = Math.min(len, buf.remaining());
+    buf.get(b, off, len);
+    return len;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if(n <= 0)
+      return 0;
+    long rem = buf != null ? buf.remaining() : 0;
+    if(n <= rem) {
+      ((Buffer) buf).position(buf.position() + (int) n);
+      return n;
+    }
+    // Skip the rest of this window, and continue after.
+    long skipped = Math.min(n, rem + file.size() - next);
+    next += skipped - rem;
+    buf = null;
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return buf != null ? buf.remaining() : 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    buf = null;
+    file.close();
+  }
+}
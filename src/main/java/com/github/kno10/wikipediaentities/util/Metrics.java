@@ -0,0 +1,502 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Registry of the metrics of a run: meters (counts and rates), gauges and
+ * latency histograms.
+ *
+ * Snapshots are written periodically as JSON lines, and the latest snapshot
+ * is available via JMX, so that long runs can be graphed. Rates and histogram
+ * percentiles refer to the interval since the previous snapshot.
+ */
+public class Metrics {
+  /** JMX object name */
+  public static final String JMX_NAME = "com.github.kno10.wikipediaentities:type=Metrics";
+
+  /** Registered metrics, by name */
+  private static final Map<String, Metric> METRICS = new ConcurrentSkipListMap<>();
+
+  /** Time of the previous snapshot */
+  private static long prev = System.nanoTime();
+
+  /** Start time */
+  private static final long START = prev;
+
+  /** Latest snapshot, for JMX */
+  private static volatile Map<String, Object> last;
+
+  /** Reporting thread, may be {@code null} */
+  private static Reporter reporter;
+
+  /**
+   * Fake constructor.
+   */
+  private Metrics() {
+    // Static methods only.
+  }
+
+  /**
+   * A metric.
+   */
+  private interface Metric {
+    /**
+     * Add the current values to a snapshot.
+     *
+     * @param out Snapshot values
+     * @param elapsed Seconds since the previous snapshot
+     * @param reset Start a new interval
+     */
+    void snapshot(Map<String, Object> out, double elapsed, boolean reset);
+  }
+
+  /**
+   * Meter on a monotonically increasing count.
+   */
+  private static class Meter implements Metric {
+    /** Count source */
+    final LongSupplier count;
+
+    /** Count at the previous snapshot */
+    long prevCount = 0;
+
+    /** Creation time */
+    final long start = System.nanoTime();
+
+    /**
+     * Constructor.
+     *
+     * @param count Count source
+     */
+    Meter(LongSupplier count) {
+      this.count = count;
+    }
+
+    /**
+     * Average rate since creation.
+     *
+     * @return Rate per second
+     */
+    double meanRate() {
+      final long ns = System.nanoTime() - start;
+      return ns > 0 ? count.getAsLong() * 1e9 / ns : 0.;
+    }
+
+    @Override
+    public void snapshot(Map<String, Object> out, double elapsed, boolean reset) {
+      final long c = count.getAsLong();
+      out.put("count", c);
+      out.put("rate", elapsed > 0 ? (c - prevCount) / elapsed : 0.);
+      out.put("mean_rate", meanRate());
+      if(reset)
+        prevCount = c;
+    }
+  }
+
+  /**
+   * Counter, for events that are not counted elsewhere already.
+   */
+  public static class Counter extends Meter {
+    /** Count */
+    private final LongAdder adder;
+
+    /**
+     * Constructor.
+     *
+     * @param adder Count
+     */
+    private Counter(LongAdder adder) {
+      super(adder::sum);
+      this.adder = adder;
+    }
+
+    /**
+     * Count one event.
+     */
+    public void increment() {
+      adder.increment();
+    }
+
+    /**
+     * Count events.
+     *
+     * @param n Number of events
+     */
+    public void add(long n) {
+      adder.add(n);
+    }
+
+    /**
+     * Get the count.
+     *
+     * @return Count
+     */
+    public long get() {
+      return adder.sum();
+    }
+
+    /**
+     * Average rate since creation.
+     *
+     * @return Rate per second
+     */
+    public double getMeanRate() {
+      return meanRate();
+    }
+  }
+
+  /**
+   * Gauge on a current value.
+   */
+  private static class Gauge implements Metric {
+    /** Value source */
+    final DoubleSupplier value;
+
+    /**
+     * Constructor.
+     *
+     * @param value Value source
+     */
+    Gauge(DoubleSupplier value) {
+      this.value = value;
+    }
+
+    @Override
+    public void snapshot(Map<String, Object> out, double elapsed, boolean reset) {
+      out.put("value", value.getAsDouble());
+    }
+  }
+
+  /**
+   * Latency histogram, with power of two buckets of nanoseconds.
+   */
+  public static class Histogram implements Metric {
+    /** Buckets, since the previous snapshot */
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+    /** Total count, and time since the previous snapshot */
+    private final LongAdder count = new LongAdder(), total = new LongAdder();
+
+    /** Maximum since the previous snapshot */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a duration.
+     *
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(long nanos) {
+      if(nanos < 0)
+        nanos = 0;
+      buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+      count.increment();
+      total.add(nanos);
+      for(long m; nanos > (m = max.get()) && !max.compareAndSet(m, nanos);) {
+        // Retry
+      }
+    }
+
+    /**
+     * Record the time since a start time.
+     *
+     * @param start Start time, from {@link System#nanoTime()}
+     */
+    public void recordSince(long start) {
+      record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void snapshot(Map<String, Object> out, double elapsed, boolean reset) {
+      long[] b = new long[64];
+      long n = 0;
+      for(int i = 0; i < 64; i++)
+        n += b[i] = reset ? buckets.getAndSet(i, 0) : buckets.get(i);
+      final long c = count.sum(), t = reset ? total.sumThenReset() : total.sum(),
+          m = reset ? max.getAndSet(0) : max.get();
+      out.put("count", c);
+      out.put("mean_us", n > 0 ? t / (n * 1000.) : 0.);
+      out.put("p50_us", percentile(b, n, .5, m));
+      out.put("p90_us", percentile(b, n, .9, m));
+      out.put("p99_us", percentile(b, n, .99, m));
+      out.put("max_us", m / 1000.);
+    }
+
+    /**
+     * Estimate a percentile, as the upper bound of its bucket.
+     *
+     * @param b Buckets
+     * @param n Total count
+     * @param q Quantile
+     * @param max Maximum, in nanoseconds
+     * @return Percentile in microseconds
+     */
+    private static double percentile(long[] b, long n, double q, long max) {
+      long seen = 0;
+      for(int i = 0; i < 64; i++)
+        if((seen += b[i]) > 0 && seen >= q * n)
+          return Math.min(Math.pow(2, i + 1), max) / 1000.;
+      return 0.;
+    }
+  }
+
+  /**
+   * Get or make a counter.
+   *
+   * @param name Metric name
+   * @return Counter
+   */
+  public static Counter counter(String name) {
+    return (Counter) METRICS.computeIfAbsent(name, n -> new Counter(new LongAdder()));
+  }
+
+  /**
+   * Register a meter on an existing count.
+   *
+   * @param name Metric name
+   * @param count Count source
+   */
+  public static void meter(String name, LongSupplier count) {
+    METRICS.put(name, new Meter(count));
+  }
+
+  /**
+   * Register a gauge.
+   *
+   * @param name Metric name
+   * @param value Value source
+   */
+  public static void gauge(String name, DoubleSupplier value) {
+    METRICS.put(name, new Gauge(value));
+  }
+
+  /**
+   * Get or make a latency histogram.
+   *
+   * @param name Metric name
+   * @return Histogram
+   */
+  public static Histogram histogram(String name) {
+    return (Histogram) METRICS.computeIfAbsent(name, n -> new Histogram());
+  }
+
+  /**
+   * Take a snapshot of all metrics.
+   *
+   * @return Snapshot
+   */
+  public static synchronized Map<String, Object> snapshot() {
+    return last = snapshot(true);
+  }
+
+  /**
+   * Take a snapshot of all metrics.
+   *
+   * @param reset Start a new interval; otherwise the values refer to the
+   *        interval since the previous snapshot that reset
+   * @return Snapshot
+   */
+  private static synchronized Map<String, Object> snapshot(boolean reset) {
+    final long now = System.nanoTime();
+    final double elapsed = (now - prev) / 1e9;
+    if(reset)
+      prev = now;
+    Map<String, Object> snap = new LinkedHashMap<>();
+    snap.put("time", System.currentTimeMillis());
+    snap.put("uptime", (now - START) / 1e9);
+    for(Map.Entry<String, Metric> e : METRICS.entrySet()) {
+      Map<String, Object> values = new LinkedHashMap<>();
+      e.getValue().snapshot(values, elapsed, reset);
+      snap.put(e.getKey(), values);
+    }
+    return snap;
+  }
+
+  /**
+   * Start reporting, and register the JMX bean.
+   *
+   * @param output Output file for JSON lines, {@code null} for JMX only
+   * @param interval Reporting interval in seconds, 0 to take snapshots only
+   *        when queried via JMX
+   * @throws IOException when the output cannot be opened
+   */
+  public static synchronized void start(String output, double interval) throws IOException {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(JMX_NAME);
+      if(!server.isRegistered(name))
+        server.registerMBean(new MetricsBean(), name);
+    }
+    catch(JMException e) {
+      System.err.println("Could not register metrics with JMX: " + e.getMessage());
+    }
+    if(interval > 0 && reporter == null) {
+      reporter = new Reporter(output != null ? Util.openOutput(output) : null, (long) (interval * 1000));
+      reporter.start();
+    }
+  }
+
+  /**
+   * Stop reporting, after a final snapshot.
+   */
+  public static void stop() {
+    Reporter r;
+    synchronized(Metrics.class) {
+      r = reporter;
+      reporter = null;
+    }
+    if(r == null)
+      return;
+    r.interrupt();
+    try {
+      r.join();
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Thread writing periodic snapshots.
+   */
+  private static class Reporter extends Thread {
+    /** Output, may be {@code null} */
+    private final PrintStream out;
+
+    /** Interval in milliseconds */
+    private final long interval;
+
+    /** JSON writer */
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Constructor.
+     *
+     * @param out Output, may be {@code null}
+     * @param interval Interval in milliseconds
+     */
+    Reporter(PrintStream out, long interval) {
+      super("Metrics");
+      setDaemon(true);
+      this.out = out;
+      this.interval = interval;
+    }
+
+    @Override
+    public void run() {
+      boolean running = true;
+      while(running) {
+        try {
+          Thread.sleep(interval);
+        }
+        catch(InterruptedException e) {
+          running = false; // Final snapshot.
+        }
+        Map<String, Object> snap = snapshot();
+        if(out != null) {
+          try {
+            out.append(mapper.writeValueAsString(snap)).append('\n');
+            out.flush();
+          }
+          catch(IOException e) {
+            System.err.println("Could not write metrics: " + e.getMessage());
+          }
+        }
+      }
+      if(out != null)
+        out.close();
+    }
+  }
+
+  /**
+   * Get the latest snapshot for JMX, flattened to numeric attributes. Without
+   * a reporter, the current values are read without starting a new interval,
+   * so that JMX queries do not reset the histograms.
+   *
+   * @return Attribute values
+   */
+  private static Map<String, Object> flatSnapshot() {
+    Map<String, Object> snap;
+    synchronized(Metrics.class) {
+      snap = reporter != null && last != null ? last : snapshot(false);
+    }
+    Map<String, Object> flat = new LinkedHashMap<>();
+    for(Map.Entry<String, Object> e : snap.entrySet()) {
+      if(e.getValue() instanceof Map)
+        for(Map.Entry<?, ?> v : ((Map<?, ?>) e.getValue()).entrySet())
+          flat.put(e.getKey() + "." + v.getKey(), v.getValue());
+      else
+        flat.put(e.getKey(), e.getValue());
+    }
+    return flat;
+  }
+
+  /**
+   * JMX view on the metrics.
+   */
+  private static class MetricsBean implements DynamicMBean {
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+      Object v = flatSnapshot().get(attribute);
+      if(v == null)
+        throw new AttributeNotFoundException(attribute);
+      return v;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+      Map<String, Object> flat = flatSnapshot();
+      AttributeList list = new AttributeList();
+      for(String a : attributes)
+        if(flat.containsKey(a))
+          list.add(new Attribute(a, flat.get(a)));
+      return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+      throw new AttributeNotFoundException("Metrics are read-only.");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+      return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+      throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+      List<MBeanAttributeInfo> attrs = new ArrayList<>();
+      for(Map.Entry<String, Object> e : flatSnapshot().entrySet())
+        attrs.add(new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(), e.getKey(), true, false, false));
+      return new MBeanInfo(getClass().getName(), "Pipeline metrics", attrs.toArray(new MBeanAttributeInfo[attrs.size()]), null, null, null);
+    }
+  }
+}
@@ -3,6 +3,7 @@ package com.github.kno10.wikipediaentities.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 
 import org.apache.commons.compress.compressors.CompressorInputStream;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
@@ -12,13 +13,13 @@ import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
  */
 public class MultiStreamBZip2InputStream extends CompressorInputStream
 {
-    private InputStream fInputStream;
+    private PushbackInputStream fInputStream;
     private BZip2CompressorInputStream fBZip2;
 
     public MultiStreamBZip2InputStream(InputStream in) throws IOException
     {
-        fInputStream = in;
-        fBZip2 = new BZip2CompressorInputStream(in);
+        fInputStream = new PushbackInputStream(in);
+        fBZip2 = new BZip2CompressorInputStream(fInputStream);
     }
 
     @Override
@@ -29,9 +30,12 @@ public class MultiStreamBZip2InputStream extends CompressorInputStream
             /*
              * If this is a multistream file, there will be more data that
              * follows that is a valid compressor input stream. Restart the
-             * decompressor engine on the new segment of the data.
+             * decompressor engine on the new segment of the data. Peek at
+             * the next byte, as available() may be 0 before the end.
              */
-            if (fInputStream.available() > 0) {
+            int next = fInputStream.read();
+            if (next != -1) {
+                fInputStream.unread(next);
                 // Make use of the fact that if we hit EOF, the data for
                 // the old compressor was deleted already, so we don't need
                 // to close.
@@ -0,0 +1,213 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Input stream that decodes independent chunks of a file in parallel, but
+ * returns the decoded data in the original order.
+ *
+ * Subclasses enumerate the chunks, and supply a task to decode each of them.
+ * At most a small window of chunks is in flight at any time, so memory usage
+ * stays bounded even when the consumer is slow.
+ */
+public abstract class OrderedChunkInputStream extends InputStream {
+  /** Empty array */
+  private static final byte[] EMPTY = new byte[0];
+
+  /** Thread pool decoding the chunks */
+  private final ExecutorService pool;
+
+  /** Chunks in flight, in input order */
+  private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+
+  /** Maximum number of chunks in flight */
+  private final int window;
+
+  /** Current decoded chunk */
+  private byte[] cur = EMPTY;
+
+  /** Position in the current chunk */
+  private int pos = 0;
+
+  /** No more chunks to schedule */
+  private boolean exhausted = false;
+
+  /**
+   * Constructor.
+   *
+   * @param name Thread name prefix
+   * @param threads Number of decoding threads
+   */
+  protected OrderedChunkInputStream(final String name, int threads) {
+    final AtomicInteger count = new AtomicInteger();
+    this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    this.window = threads * 2 + 2;
+  }
+
+  /**
+   * Get the task to decode the next chunk.
+   *
+   * This is always called from the consuming thread.
+   *
+   * @return Decoding task, or {@code null} when the input is exhausted.
+   * @throws IOException on input errors
+   */
+  protected abstract Callable<byte[]> nextChunk() throws IOException;
+
+  /**
+   * Try to recover from a failed chunk, by merging it with the following
+   * chunk. This is used when chunk boundaries are only guessed.
+   *
+   * @param failed Failed task
+   * @param next Next task, may be {@code null}
+   * @return Merged task, or {@code null} if we cannot recover.
+   */
+  protected Callable<byte[]> merge(Callable<byte[]> failed, Callable<byte[]> next) {
+    return null;
+  }
+
+  /**
+   * Release the underlying input.
+   *
+   * @throws IOException on errors
+   */
+  protected abstract void closeInput() throws IOException;
+
+  /**
+   * Make sure the current buffer has data available.
+   *
+   * @return {@code false} at the end of the stream
+   * @throws IOException on decoding errors
+   */
+  private boolean fill() throws IOException {
+    while(pos >= cur.length) {
+      schedule();
+      Pending next = pending.poll();
+      if(next == null)
+        return false;
+      cur = get(next);
+      pos = 0;
+    }
+    return true;
+  }
+
+  /**
+   * Schedule chunks until the window is full.
+   *
+   * @throws IOException on input errors
+   */
+  private void schedule() throws IOException {
+    while(!exhausted && pending.size() < window) {
+      Callable<byte[]> task = nextChunk();
+      if(task == null) {
+        exhausted = true;
+        break;
+      }
+      pending.add(new Pending(task, pool.submit(task)));
+    }
+  }
+
+  /**
+   * Wait for a chunk to be decoded, and try to recover on errors.
+   *
+   * @param p Pending chunk
+   * @return Decoded data
+   * @throws IOException on unrecoverable errors
+   */
+  private byte[] get(Pending p) throws IOException {
+    while(true) {
+      try {
+        return p.future.get();
+      }
+      catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while decoding.", e);
+      }
+      catch(ExecutionException e) {
+        schedule();
+        Pending next = pending.peek();
+        Callable<byte[]> merged = merge(p.task, next != null ? next.task : null);
+        if(merged == null) {
+          Throwable c = e.getCause();
+          throw c instanceof IOException ? (IOException) c : new IOException(c);
+        }
+        if(next != null) {
+          pending.poll().future.cancel(true);
+        }
+        p = new Pending(merged, pool.submit(merged));
+      }
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    return fill() ? (cur[pos++] & 0xFF) : -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if((off < 0) || (len < 0) || (off + len > b.length))
+      throw new IndexOutOfBoundsException();
+    if(len == 0)
+      return 0;
+    if(!fill())
+      return -1;
+    int c = Math.min(len, cur.length - pos);
+    System.arraycopy(cur, pos, b, off, c);
+    pos += c;
+    return c;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return cur.length - pos;
+  }
+
+  /**
+   * A chunk in flight.
+   */
+  private static class Pending {
+    /** Decoding task */
+    Callable<byte[]> task;
+
+    /** Result */
+    Future<byte[]> future;
+
+    /**
+     * Constructor.
+     *
+     * @param task Decoding task
+     * @param future Result
+     */
+    Pending(Callable<byte[]> task, Future<byte[]> future) {
+      this.task = task;
+      this.future = future;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    pool.shutdownNow();
+    pending.clear();
+    cur = EMPTY;
+    pos = 0;
+    exhausted = true;
+    closeInput();
+  }
+}
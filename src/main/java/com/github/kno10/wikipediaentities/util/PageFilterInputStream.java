@@ -0,0 +1,125 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Input stream that removes all pages outside of the main namespace from a
+ * MediaWiki dump, before XML parsing.
+ *
+ * Dropped pages are replaced with an empty {@code <page/>} element, so that
+ * page counts remain valid. The site information before the first page is
+ * dropped, too, and the pages are wrapped in a bare {@code <mediawiki>}
+ * element.
+ */
+public class PageFilterInputStream extends InputStream {
+  /** Document start */
+  private static final byte[] HEADER = "<mediawiki>".getBytes(StandardCharsets.US_ASCII);
+
+  /** Document end */
+  private static final byte[] FOOTER = "</mediawiki>".getBytes(StandardCharsets.US_ASCII);
+
+  /** Replacement for dropped pages */
+  private static final byte[] EMPTY_PAGE = "<page/>".getBytes(StandardCharsets.US_ASCII);
+
+  /** Input stream */
+  private InputStream in;
+
+  /** Page splitter */
+  private PageSplitter splitter;
+
+  /** Pool of the page buffers */
+  private BufferPool pool;
+
+  /** Current data */
+  private ByteBuffer cur;
+
+  /** Pooled buffer of the current page, or {@code null} */
+  private byte[] owned;
+
+  /** Pages passed on, including placeholders */
+  private long passed = 0;
+
+  /** Next page, after the placeholders */
+  private ByteBuffer next;
+
+  /** End of input reached */
+  private boolean eof = false;
+
+  /**
+   * Constructor.
+   *
+   * @param in Input stream
+   * @param pool Pool for page buffers
+   */
+  public PageFilterInputStream(InputStream in, BufferPool pool) {
+    this.in = in;
+    this.pool = pool;
+    this.splitter = new PageSplitter(in, pool).setMainOnly(true);
+    this.cur = ByteBuffer.wrap(HEADER);
+  }
+
+  /**
+   * Make sure there is data available.
+   *
+   * @return {@code false} at the end of the stream.
+   * @throws IOException on read errors
+   */
+  private boolean fill() throws IOException {
+    while(!cur.hasRemaining()) {
+      if(owned != null) {
+        pool.release(owned);
+        owned = null;
+      }
+      if(next == null && !eof) {
+        next = splitter.next();
+        eof = next == null;
+      }
+      // Placeholders for dropped pages.
+      final long pages = splitter.getPageCount() - (next != null ? 1 : 0);
+      if(passed < pages) {
+        ++passed;
+        cur = ByteBuffer.wrap(EMPTY_PAGE);
+      }
+      else if(next != null) {
+        ++passed;
+        cur = next;
+        owned = next.array();
+        next = null;
+      }
+      else if(cur.array() != FOOTER)
+        cur = ByteBuffer.wrap(FOOTER);
+      else
+        return false;
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    return fill() ? cur.get() & 0xFF : -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if(len == 0)
+      return 0;
+    if(!fill())
+      return -1;
+    int c = Math.min(len, cur.remaining());
+    cur.get(b, off, c);
+    return c;
+  }
+
+  @Override
+  public int available() {
+    return cur.remaining();
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
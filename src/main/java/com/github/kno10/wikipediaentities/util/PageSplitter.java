@@ -0,0 +1,264 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Split a MediaWiki XML dump into pages, on the raw UTF-8 bytes.
+ *
+ * This only looks for the {@code <page>} and {@code </page>} tags, which is
+ * much cheaper than XML parsing. Within the page text, {@code <} is always
+ * escaped, so these tags cannot occur inside the content.
+ *
+ * Every page is returned as a separate buffer, which is a complete XML
+ * document on its own and can be parsed independently. When splitting a
+ * buffer (e.g. a memory mapped region), the pages are views of the original
+ * buffer, and are not copied.
+ *
+ * Optionally, pages outside of the main namespace are dropped on the byte
+ * level, by looking only at the {@code <ns>} element.
+ */
+public class PageSplitter {
+  /** Page start tag */
+  private static final byte[] START = "<page>".getBytes(StandardCharsets.US_ASCII);
+
+  /** Page end tag */
+  private static final byte[] END = "</page>".getBytes(StandardCharsets.US_ASCII);
+
+  /** Page start tag, for aligning segments */
+  public static final byte[] PAGE_START = START;
+
+  /** Namespace tag */
+  private static final byte[] NS = "<ns>".getBytes(StandardCharsets.US_ASCII);
+
+  /** Input stream */
+  private InputStream in;
+
+  /** Input buffer, when splitting a buffer */
+  private ByteBuffer data;
+
+  /** Pool for page buffers, may be {@code null} */
+  private BufferPool pool;
+
+  /** Buffer */
+  private byte[] buf = new byte[1 << 20];
+
+  /** Current position and valid data in the buffer */
+  private int pos = 0, lim = 0;
+
+  /** End of input reached */
+  private boolean eof = false;
+
+  /** Only return pages of the main namespace */
+  private boolean mainOnly = false;
+
+  /** Number of pages seen, including dropped pages */
+  private long pages = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param in Input stream
+   */
+  public PageSplitter(InputStream in) {
+    this.in = in;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param in Input stream
+   * @param pool Pool to take page buffers from; the page buffers should be
+   *        returned to this pool when no longer needed.
+   */
+  public PageSplitter(InputStream in, BufferPool pool) {
+    this.in = in;
+    this.pool = pool;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param data Input buffer, from the current position to the limit.
+   */
+  public PageSplitter(ByteBuffer data) {
+    this.data = data.duplicate();
+    this.pos = data.position();
+    this.lim = data.limit();
+  }
+
+  /**
+   * Only return pages of the main namespace.
+   *
+   * @param mainOnly Flag to drop all other pages
+   * @return {@code this}
+   */
+  public PageSplitter setMainOnly(boolean mainOnly) {
+    this.mainOnly = mainOnly;
+    return this;
+  }
+
+  /**
+   * Get the number of pages seen, including pages that were dropped. After
+   * {@link #next}, this is the number of the returned page.
+   *
+   * @return Number of pages
+   */
+  public long getPageCount() {
+    return pages;
+  }
+
+  /**
+   * Get the next page.
+   *
+   * @return Page data, including the page tags, or {@code null} at the end.
+   * @throws IOException on read errors
+   */
+  public ByteBuffer next() throws IOException {
+    while(true) {
+      ByteBuffer page = data != null ? nextView() : nextInBuffer();
+      if(page == null)
+        return null;
+      ++pages;
+      if(!mainOnly || isMain(page, page.position()))
+        return data != null ? page : copy(page);
+    }
+  }
+
+  /**
+   * Test if a page is in the main namespace. Pages without a namespace are
+   * kept, and left to the parser.
+   *
+   * @param page Page data
+   * @param from Start of the page
+   * @return {@code false} if the page is in a different namespace
+   */
+  private static boolean isMain(ByteBuffer page, int from) {
+    int s = MappedFile.indexOf(page, NS, from);
+    if(s < 0)
+      return true;
+    s += NS.length;
+    return s + 1 < page.limit() && page.get(s) == '0' && page.get(s + 1) == '<';
+  }
+
+  /**
+   * Copy a page out of the stream buffer.
+   *
+   * @param page Page, as view of the stream buffer
+   * @return Copy
+   */
+  private ByteBuffer copy(ByteBuffer page) {
+    final int from = page.position(), len = page.remaining();
+    if(pool == null)
+      return ByteBuffer.wrap(Arrays.copyOfRange(buf, from, from + len));
+    byte[] copy = pool.acquire(len);
+    System.arraycopy(buf, from, copy, 0, len);
+    return ByteBuffer.wrap(copy, 0, len);
+  }
+
+  /**
+   * Find the next page in the stream.
+   *
+   * @return Page, as a view of the stream buffer, valid until the next call.
+   * @throws IOException on read errors
+   */
+  private ByteBuffer nextInBuffer() throws IOException {
+    int s;
+    while((s = indexOf(START, pos)) < 0) {
+      // Keep a potential partial start tag.
+      pos = Math.max(pos, lim - START.length + 1);
+      if(!fill())
+        return null;
+    }
+    pos = s;
+    int e, from = s + START.length;
+    while((e = indexOf(END, from)) < 0) {
+      from = Math.max(from, lim - END.length + 1);
+      final int base = pos;
+      if(!fill()) {
+        System.err.println("Incomplete page at end of input.");
+        pos = lim;
+        return null;
+      }
+      from -= base - pos; // Adjust for compaction.
+    }
+    e += END.length;
+    ByteBuffer page = ByteBuffer.wrap(buf, pos, e - pos);
+    pos = e;
+    return page;
+  }
+
+  /**
+   * Get the next page from the input buffer.
+   *
+   * @return Page data, or {@code null}
+   */
+  private ByteBuffer nextView() {
+    int s = MappedFile.indexOf(data, START, pos);
+    if(s < 0) {
+      pos = lim;
+      return null;
+    }
+    int e = MappedFile.indexOf(data, END, s + START.length);
+    if(e < 0) {
+      System.err.println("Incomplete page at end of input.");
+      pos = lim;
+      return null;
+    }
+    pos = e + END.length;
+    ((Buffer) data).limit(pos).position(s);
+    ByteBuffer page = data.slice();
+    ((Buffer) data).limit(lim);
+    return page;
+  }
+
+  /**
+   * Read more data, discarding everything before the current position.
+   *
+   * @return {@code false} at the end of the input
+   * @throws IOException on read errors
+   */
+  private boolean fill() throws IOException {
+    if(eof)
+      return false;
+    if(pos > 0) {
+      System.arraycopy(buf, pos, buf, 0, lim - pos);
+      lim -= pos;
+      pos = 0;
+    }
+    if(lim == buf.length)
+      buf = Arrays.copyOf(buf, buf.length << 1);
+    int c = in.read(buf, lim, buf.length - lim);
+    if(c < 0) {
+      eof = true;
+      return false;
+    }
+    lim += c;
+    return true;
+  }
+
+  /**
+   * Find a byte sequence in the buffer.
+   *
+   * @param pat Pattern
+   * @param from Starting position
+   * @return Position, or -1
+   */
+  private int indexOf(byte[] pat, int from) {
+    final byte first = pat[0];
+    final int last = lim - pat.length;
+    outer: for(int i = from; i <= last; i++) {
+      if(buf[i] != first)
+        continue;
+      for(int j = 1; j < pat.length; j++)
+        if(buf[i + j] != pat[j])
+          continue outer;
+      return i;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,335 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Decode BZip2 files using multiple threads, in the style of pbzip2.
+ *
+ * BZip2 blocks are not byte aligned, but every block begins with the 48 bit
+ * magic number {@code 0x314159265359}, and every stream ends with
+ * {@code 0x177245385090}. We scan the bit stream for these markers, and
+ * decompress each block as a separate single-block stream. This also works for
+ * concatenated (multistream) files.
+ *
+ * The magic numbers may occur inside compressed data by chance. Such a false
+ * split makes the block fail its checksum, and we then retry with the
+ * following segment merged back in.
+ */
+public class ParallelBZip2InputStream extends OrderedChunkInputStream {
+  /** Block header magic */
+  private static final long BLOCK_MAGIC = 0x314159265359L;
+
+  /** End of stream magic */
+  private static final long EOS_MAGIC = 0x177245385090L;
+
+  /** Mask for 48 bit markers */
+  private static final long MASK = (1L << 48) - 1;
+
+  /**
+   * For each byte value, the bit alignments at which it can be the
+   * second-to-last byte of a marker. This is a cheap filter.
+   */
+  private static final int[] CANDIDATES = new int[256];
+
+  static {
+    for(int k = 0; k < 8; k++) {
+      CANDIDATES[(int) (BLOCK_MAGIC >>> (8 - k)) & 0xFF] |= 1 << k;
+      CANDIDATES[(int) (EOS_MAGIC >>> (8 - k)) & 0xFF] |= 1 << k;
+    }
+  }
+
+  /** Compressed input */
+  private InputStream in;
+
+  /** Read buffer */
+  private byte[] rbuf = new byte[1 << 20];
+
+  /** Read buffer position and length */
+  private int rpos = 0, rlen = 0;
+
+  /** Bytes read so far */
+  private long nbytes = 0;
+
+  /** The most recent 64 bits */
+  private long bits = 0;
+
+  /** Bytes of the current segment */
+  private byte[] seg = new byte[1 << 20];
+
+  /** Used bytes in segment buffer */
+  private int seglen = 0;
+
+  /** Bit position of the current segment, -1 before the first marker */
+  private long start = -1;
+
+  /** Whether the current segment starts with a block magic */
+  private boolean isBlock = false;
+
+  /**
+   * Constructor.
+   *
+   * @param in Compressed input stream
+   * @param threads Number of decoding threads
+   */
+  public ParallelBZip2InputStream(InputStream in, int threads) {
+    super("BZip2-Decoder", threads);
+    this.in = in;
+  }
+
+  @Override
+  protected Callable<byte[]> nextChunk() throws IOException {
+    while(true) {
+      if(rpos >= rlen) {
+        rlen = in.read(rbuf, 0, rbuf.length);
+        rpos = 0;
+        if(rlen <= 0) {
+          rlen = 0;
+          return finish();
+        }
+      }
+      final int b = rbuf[rpos++] & 0xFF;
+      append(b);
+      bits = (bits << 8) | b;
+      ++nbytes;
+      final int cand = CANDIDATES[(int) (bits >>> 8) & 0xFF];
+      if(cand == 0 || nbytes < 8)
+        continue;
+      for(int k = 7; k >= 0; k--) {
+        if((cand & (1 << k)) == 0)
+          continue;
+        final long w = (bits >>> k) & MASK;
+        final boolean block = w == BLOCK_MAGIC;
+        if(!block && w != EOS_MAGIC)
+          continue;
+        final long mstart = (nbytes << 3) - k - 48;
+        Callable<byte[]> task = start >= 0 ? makeTask(mstart) : null;
+        // Begin the next segment at the marker.
+        final int drop = (int) ((mstart >>> 3) - (nbytes - seglen));
+        System.arraycopy(seg, drop, seg, 0, seglen - drop);
+        seglen -= drop;
+        start = mstart;
+        isBlock = block;
+        if(task != null)
+          return task;
+      }
+    }
+  }
+
+  /**
+   * Handle the end of the input.
+   *
+   * @return Final task, or {@code null}
+   */
+  private Callable<byte[]> finish() {
+    if(start < 0 || !isBlock)
+      return null;
+    // Truncated input; this will most likely fail to decode.
+    Callable<byte[]> task = makeTask(nbytes << 3);
+    start = -1;
+    return task;
+  }
+
+  /**
+   * Append a byte to the segment buffer.
+   *
+   * @param b Byte
+   */
+  private void append(int b) {
+    if(start < 0 && seglen >= 64) {
+      // Before the first marker, only keep a few bytes.
+      System.arraycopy(seg, seglen - 8, seg, 0, 8);
+      seglen = 8;
+    }
+    if(seglen == seg.length)
+      seg = Arrays.copyOf(seg, seg.length << 1);
+    seg[seglen++] = (byte) b;
+  }
+
+  /**
+   * Make a task for the current segment.
+   *
+   * @param end End bit position (exclusive)
+   * @return Task
+   */
+  private Callable<byte[]> makeTask(long end) {
+    final long first = start >>> 3;
+    final int len = (int) (((end + 7) >>> 3) - first);
+    final byte[] data = Arrays.copyOfRange(seg, 0, len);
+    return new Segment(data, first, start, end, isBlock);
+  }
+
+  @Override
+  protected Callable<byte[]> merge(Callable<byte[]> failed, Callable<byte[]> next) {
+    if(!(failed instanceof Segment) || !(next instanceof Segment))
+      return null;
+    Segment a = (Segment) failed, b = (Segment) next;
+    if(a.end != b.start)
+      return null;
+    final int keep = (int) (b.first - a.first);
+    byte[] data = Arrays.copyOf(a.data, keep + b.data.length);
+    System.arraycopy(b.data, 0, data, keep, b.data.length);
+    return new Segment(data, a.first, a.start, b.end, a.block);
+  }
+
+  @Override
+  protected void closeInput() throws IOException {
+    in.close();
+  }
+
+  /**
+   * A segment of the bit stream, beginning with a marker.
+   */
+  private static class Segment implements Callable<byte[]> {
+    /** Empty result, for segments that are not blocks. */
+    private static final byte[] EMPTY = new byte[0];
+
+    /** Data, beginning at the byte containing the start bit */
+    final byte[] data;
+
+    /** Byte offset of the data */
+    final long first;
+
+    /** Start and end bit positions */
+    final long start, end;
+
+    /** Segment begins with a block magic */
+    final boolean block;
+
+    /**
+     * Constructor.
+     *
+     * @param data Data
+     * @param first Byte offset of data
+     * @param start Start bit
+     * @param end End bit (exclusive)
+     * @param block Flag for data blocks
+     */
+    Segment(byte[] data, long first, long start, long end, boolean block) {
+      this.data = data;
+      this.first = first;
+      this.start = start;
+      this.end = end;
+      this.block = block;
+    }
+
+    @Override
+    public byte[] call() throws IOException {
+      if(!block)
+        return EMPTY; // End of stream marker, and stream headers.
+      final int off = (int) (start & 7);
+      final long nbits = end - start;
+      // Build a single block stream: header, block, end of stream, CRC.
+      // The combined CRC of a single block stream is the block CRC.
+      BitWriter w = new BitWriter((int) (nbits >>> 3) + 20);
+      w.write('B', 8);
+      w.write('Z', 8);
+      w.write('h', 8);
+      w.write('9', 8);
+      long crc = 0;
+      for(int i = 0; i < 32; i++)
+        crc = (crc << 1) | bit(off + 48 + i);
+      final int full = (int) (nbits >>> 3);
+      w.writeShifted(data, off, full);
+      for(long i = ((long) full) << 3; i < nbits; i++)
+        w.write(bit(off + i), 1);
+      w.write(EOS_MAGIC, 48);
+      w.write(crc, 32);
+      w.flush();
+      try (InputStream bz = new BZip2CompressorInputStream(new ByteArrayInputStream(w.buf, 0, w.len), false)) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 5);
+        byte[] buf = new byte[1 << 16];
+        for(int c; (c = bz.read(buf)) > 0;)
+          out.write(buf, 0, c);
+        return out.toByteArray();
+      }
+    }
+
+    /**
+     * Get a single bit of the data.
+     *
+     * @param i Bit index
+     * @return Bit value
+     */
+    private int bit(long i) {
+      return (data[(int) (i >>> 3)] >>> (7 - (int) (i & 7))) & 1;
+    }
+  }
+
+  /**
+   * Minimal MSB-first bit writer.
+   */
+  private static class BitWriter {
+    /** Output buffer */
+    byte[] buf;
+
+    /** Bytes used */
+    int len = 0;
+
+    /** Pending bits */
+    long acc = 0;
+
+    /** Number of pending bits */
+    int nacc = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param size Initial size
+     */
+    BitWriter(int size) {
+      buf = new byte[size];
+    }
+
+    /**
+     * Write bits.
+     *
+     * @param v Value
+     * @param n Number of bits, at most 48
+     */
+    void write(long v, int n) {
+      acc = (acc << n) | (v & ((1L << n) - 1));
+      nacc += n;
+      while(nacc >= 8) {
+        nacc -= 8;
+        if(len == buf.length)
+          buf = Arrays.copyOf(buf, buf.length << 1);
+        buf[len++] = (byte) (acc >>> nacc);
+      }
+    }
+
+    /**
+     * Write whole bytes, from a bit offset into the source. The writer must be
+     * byte aligned.
+     *
+     * @param src Source data
+     * @param off Bit offset in the first byte, 0 to 7
+     * @param n Number of bytes to write
+     */
+    void writeShifted(byte[] src, int off, int n) {
+      assert (nacc == 0);
+      if(len + n > buf.length)
+        buf = Arrays.copyOf(buf, Math.max(len + n, buf.length << 1));
+      if(off == 0)
+        System.arraycopy(src, 0, buf, len, n);
+      else {
+        final int rev = 8 - off;
+        for(int i = 0; i < n; i++)
+          buf[len + i] = (byte) (((src[i] & 0xFF) << off) | ((src[i + 1] & 0xFF) >>> rev));
+      }
+      len += n;
+    }
+
+    /** Flush the remaining bits, zero padded. */
+    void flush() {
+      if(nacc > 0)
+        write(0, 8 - nacc);
+    }
+  }
+}
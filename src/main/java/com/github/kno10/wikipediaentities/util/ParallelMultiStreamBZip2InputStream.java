@@ -0,0 +1,205 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Decode multistream BZip2 files (such as Wikipedia's
+ * {@code pages-articles-multistream.xml.bz2}) using multiple threads.
+ *
+ * Every stream in such a file can be decompressed independently. The stream
+ * offsets are taken from the companion {@code -multistream-index.txt.bz2}
+ * file if it exists, otherwise we scan the compressed data for stream headers.
+ */
+public class ParallelMultiStreamBZip2InputStream extends OrderedChunkInputStream {
+  /** Stream header: "BZh", block size, and the block magic "1AY&SY". */
+  private static final byte[] HEADER = { 'B', 'Z', 'h', 0, 0x31, 0x41, 0x59, 0x26, 0x53, 0x59 };
+
+  /** Buffer size for scanning */
+  private static final int SCANBUF = 1 << 20;
+
+  /** Input file */
+  private FileChannel channel;
+
+  /** File size */
+  private long size;
+
+  /** Start of the next chunk */
+  private long start = 0;
+
+  /** Index file reader, may be {@code null} */
+  private BufferedReader index;
+
+  /** Scanning buffer, if we do not have an index */
+  private ByteBuffer scan;
+
+  /** File offset of the scanning buffer */
+  private long scanoff;
+
+  /**
+   * Constructor.
+   *
+   * @param fname Input file name
+   * @param threads Number of decoding threads
+   * @throws IOException on errors opening the file
+   */
+  public ParallelMultiStreamBZip2InputStream(String fname, int threads) throws IOException {
+    super("BZip2-Decoder", threads);
+    channel = FileChannel.open(new File(fname).toPath(), StandardOpenOption.READ);
+    size = channel.size();
+    String iname = indexFileName(fname);
+    if(iname != null && new File(iname).exists()) {
+      index = new BufferedReader(new InputStreamReader(Util.openInput(iname), StandardCharsets.UTF_8));
+    }
+    else {
+      System.err.println("No multistream index found for " + fname + ", scanning for stream headers.");
+      scan = ByteBuffer.allocate(SCANBUF);
+      ((Buffer) scan).flip();
+      scanoff = 0;
+    }
+  }
+
+  /**
+   * Derive the file name of the multistream index.
+   *
+   * @param fname Data file name
+   * @return Index file name, or {@code null}
+   */
+  public static String indexFileName(String fname) {
+    int p = fname.lastIndexOf("multistream.xml.bz2");
+    if(p < 0)
+      return null;
+    return fname.substring(0, p) + "multistream-index.txt.bz2";
+  }
+
+  @Override
+  protected Callable<byte[]> nextChunk() throws IOException {
+    if(start >= size)
+      return null;
+    long end = index != null ? nextIndexOffset() : nextHeaderOffset();
+    final long cstart = start, cend = end;
+    start = end;
+    return new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws IOException {
+        return decode(cstart, cend);
+      }
+    };
+  }
+
+  /**
+   * Read the next stream offset from the index. The index lists the stream
+   * offset for every page, so we need to skip duplicates.
+   *
+   * @return Next offset, or the file size
+   * @throws IOException on read errors
+   */
+  private long nextIndexOffset() throws IOException {
+    String line;
+    while((line = index.readLine()) != null) {
+      int p = line.indexOf(':');
+      if(p <= 0)
+        continue;
+      long off = Long.parseLong(line.substring(0, p));
+      if(off > start && off <= size)
+        return off;
+    }
+    return size;
+  }
+
+  /**
+   * Scan for the next stream header, after the current start.
+   *
+   * @return Offset of the next stream header, or the file size
+   * @throws IOException on read errors
+   */
+  private long nextHeaderOffset() throws IOException {
+    long from = start + 1;
+    while(true) {
+      if(from < scanoff || from + HEADER.length > scanoff + scan.limit()) {
+        // Refill the buffer, starting at the search position.
+        if(from + HEADER.length > size)
+          return size;
+        ((Buffer) scan).clear();
+        scanoff = from;
+        while(scan.hasRemaining() && channel.read(scan, scanoff + scan.position()) > 0) {
+          // Keep reading
+        }
+        ((Buffer) scan).flip();
+      }
+      final byte[] buf = scan.array();
+      final int lim = scan.limit() - HEADER.length;
+      for(int i = (int) (from - scanoff); i <= lim; i++) {
+        if(buf[i] == 'B' && matchesHeader(buf, i))
+          return scanoff + i;
+      }
+      from = scanoff + lim + 1;
+    }
+  }
+
+  /**
+   * Test for a stream header at the given position.
+   *
+   * @param buf Buffer
+   * @param i Position
+   * @return {@code true} if a stream header begins here
+   */
+  private static boolean matchesHeader(byte[] buf, int i) {
+    for(int j = 0; j < HEADER.length; j++) {
+      if(j == 3) { // Block size, '1' to '9'
+        if(buf[i + j] < '1' || buf[i + j] > '9')
+          return false;
+        continue;
+      }
+      if(buf[i + j] != HEADER[j])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Decode one chunk of streams.
+   *
+   * @param from Start offset
+   * @param to End offset
+   * @return Decompressed data
+   * @throws IOException on decoding errors
+   */
+  private byte[] decode(long from, long to) throws IOException {
+    ByteBuffer in = ByteBuffer.allocate((int) (to - from));
+    while(in.hasRemaining()) {
+      if(channel.read(in, from + in.position()) < 0)
+        throw new EOFException("Unexpected end of file at " + (from + in.position()));
+    }
+    Util.FILE_BYTES.add(to - from);
+    // A chunk may contain more than one stream, e.g. the footer.
+    try (InputStream bz = new BZip2CompressorInputStream(new ByteArrayInputStream(in.array()), true)) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(in.capacity() * 5);
+      byte[] buf = new byte[1 << 16];
+      for(int c; (c = bz.read(buf)) > 0;)
+        out.write(buf, 0, c);
+      return out.toByteArray();
+    }
+  }
+
+  @Override
+  protected void closeInput() throws IOException {
+    if(index != null)
+      index.close();
+    channel.close();
+  }
+}
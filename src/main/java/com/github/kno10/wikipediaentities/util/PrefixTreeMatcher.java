@@ -11,7 +11,7 @@ import java.util.Arrays;
  * 
  * @author Erich Schubert
  */
-public class PrefixTreeMatcher {
+public class PrefixTreeMatcher implements SubstitutionMatcher {
 	/** Empty array */
 	private static final char[] EMPTY_CHAR = new char[0];
 	/** Empty array */
@@ -137,11 +137,21 @@ public class PrefixTreeMatcher {
 	 * @throws IOException
 	 *             when {@link Appendable#append} fails.
 	 */
+	@Override
 	public int match(CharSequence seq, int pos, int len, Appendable out)
 			throws IOException {
 		return match(seq, pos, len, out, 0);
 	}
 
+	@Override
+	public int skip(CharSequence seq, int pos, int len) {
+		if (rep != null)
+			return pos;
+		while (pos < len && Arrays.binarySearch(m, 0, size, seq.charAt(pos)) < 0)
+			++pos;
+		return pos;
+	}
+
 	/**
 	 * Try to match the current pattern.
 	 * 
@@ -177,6 +187,59 @@ public class PrefixTreeMatcher {
 		return 0;
 	}
 
+	/**
+	 * Length of the longest pattern, i.e. the depth of the tree.
+	 *
+	 * @return Maximum pattern length
+	 */
+	@Override
+	public int depth() {
+		int d = 0;
+		for (int i = 0; i < size; ++i) {
+			final int c = t[i].depth();
+			d = Math.max(d, c == Integer.MAX_VALUE ? c : c + 1);
+		}
+		return d;
+	}
+
+	/**
+	 * Test that no replacement is longer than its pattern, so that the
+	 * substitution can be done in place.
+	 *
+	 * @return {@code true} if the text never grows.
+	 */
+	@Override
+	public boolean isShrinking() {
+		return isShrinking(0);
+	}
+
+	/**
+	 * Test that no replacement is longer than its pattern.
+	 *
+	 * @param i
+	 *            Length of the pattern so far
+	 * @return {@code true} if the text never grows.
+	 */
+	protected boolean isShrinking(int i) {
+		if (rep != null && rep.length() > i)
+			return false;
+		for (int j = 0; j < size; ++j)
+			if (!t[j].isShrinking(i + 1))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Compile into a flat automaton, for faster matching.
+	 * 
+	 * Later changes to this tree are not reflected in the compiled matcher.
+	 * 
+	 * @return Compiled matcher
+	 */
+	public CompiledMatcher compile() {
+		return new CompiledMatcher(this);
+	}
+
 	/** Whitespace for faster debug printing. */
 	final static String SPACES = "                                        ";
 	/** Amount of whitespace */
@@ -229,6 +292,28 @@ public class PrefixTreeMatcher {
 			int r = super.match(seq, pos, len, out, i);
 			if (r > 0 || pos == len)
 				return r;
+			return matchNumber(seq, pos, len, out, i);
+		}
+
+		/**
+		 * Match the number of a numerical entity, after the "&#".
+		 * 
+		 * @param seq
+		 *            Character source
+		 * @param pos
+		 *            Current position, before the end
+		 * @param len
+		 *            Length of source
+		 * @param out
+		 *            Output buffer
+		 * @param i
+		 *            Length of already matched sequence
+		 * @return Number of consumed characters
+		 * @throws IOException
+		 *             when {@link Appendable#append} fails.
+		 */
+		static int matchNumber(CharSequence seq, int pos, int len,
+				Appendable out, int i) throws IOException {
 			char c = seq.charAt(pos);
 			if (c == 'x' || c == 'X') {
 				++pos;
@@ -240,7 +325,7 @@ public class PrefixTreeMatcher {
 				return matchDecimal(seq, pos, len, out, i);
 		}
 
-		private int matchDecimal(CharSequence seq, int start, int len,
+		private static int matchDecimal(CharSequence seq, int start, int len,
 				Appendable out, int i) throws IOException {
 			int pos = start;
 			int buf = 0;
@@ -271,7 +356,7 @@ public class PrefixTreeMatcher {
 			return i + (pos - start);
 		}
 
-		private int matchHex(CharSequence seq, int start, int len,
+		private static int matchHex(CharSequence seq, int start, int len,
 				Appendable out, int i) throws IOException {
 			int pos = start;
 			int buf = 0;
@@ -307,6 +392,17 @@ public class PrefixTreeMatcher {
 			return i + (pos - start);
 		}
 
+		@Override
+		public int depth() {
+			return Integer.MAX_VALUE; // Any number of digits.
+		}
+
+		@Override
+		protected boolean isShrinking(int i) {
+			// At least one digit, for at most two characters.
+			return i + 1 >= 2 && super.isShrinking(i);
+		}
+
 		@Override
 		public StringBuilder debug(StringBuilder out, int depth) {
 			out.append("<numerical entites>");
@@ -12,7 +12,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class Progress {
 	/** Step size */
-	int step = 10;
+	volatile int step = 10;
 
 	/** Name of this progress */
 	String label;
@@ -21,11 +21,14 @@ public class Progress {
 	AtomicInteger counter;
 
 	/** Maximum value */
-	int max;
+	volatile int max;
 
 	/** Starting time of job */
 	long start, prev;
 
+	/** Value at the previous report */
+	int prevCount;
+
 	/**
 	 * Constructor.
 	 * 
@@ -54,11 +57,8 @@ public class Progress {
 	/** Thread-safe increment */
 	public void incrementAndLog() {
 		final int c = counter.incrementAndGet();
-		if (c % step == 0) {
+		if (c % step == 0)
 			report(c);
-			if (c == 20 * step)
-				step *= 10;
-		}
 	}
 
 	/**
@@ -67,18 +67,24 @@ public class Progress {
 	 * @param c
 	 *            Value to report.
 	 */
-	void report(final int c) {
+	synchronized void report(final int c) {
+		if (c <= prevCount)
+			return; // Reported already, concurrently.
 		long now = System.currentTimeMillis();
+		final double current = (c - prevCount) * 1000. / Math.max(1, now - prev);
 		if (max > 0)
 			System.err.format(
 					"%s: %.2f%% %d (%.2f/s average, %.2f/s current).\n", label,
-					c * 100. / max, c, (c * 1000. / (now - start)),
-					(step * 1000. / (now - prev)));
+					c * 100. / max, c, (c * 1000. / Math.max(1, now - start)),
+					current);
 		else
 			System.err.format("%s: %d (%.2f/s average, %.2f/s current).\n",
-					label, c, (c * 1000. / (now - start)),
-					(step * 1000. / (now - prev)));
+					label, c, (c * 1000. / Math.max(1, now - start)), current);
 		prev = now;
+		prevCount = c;
+		// Report less often as the count grows.
+		if (c >= 20 * step)
+			step *= 10;
 	}
 
 	/**
@@ -0,0 +1,162 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Read a file ahead in a separate I/O thread, into a ring of large direct
+ * buffers. This hides read latency spikes (e.g. of network volumes) from the
+ * decompressing and parsing thread.
+ */
+public class ReadAheadInputStream extends InputStream {
+  /** End of file marker */
+  private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+
+  /** Input file */
+  private final FileChannel channel;
+
+  /** Buffers available for reading into */
+  private final ArrayBlockingQueue<ByteBuffer> free;
+
+  /** Buffers filled with data, in file order */
+  private final ArrayBlockingQueue<ByteBuffer> filled;
+
+  /** I/O thread */
+  private final Thread reader;
+
+  /** Read error, reported after the data before it */
+  private volatile IOException error;
+
+  /** Current buffer */
+  private ByteBuffer cur = null;
+
+  /** End of file reached */
+  private boolean eof = false;
+
+  /**
+   * Constructor.
+   *
+   * @param fname File name
+   * @param buffers Number of buffers
+   * @param size Buffer size
+   * @throws IOException when the file cannot be opened
+   */
+  public ReadAheadInputStream(String fname, int buffers, int size) throws IOException {
+    channel = FileChannel.open(new File(fname).toPath(), StandardOpenOption.READ);
+    free = new ArrayBlockingQueue<>(buffers);
+    filled = new ArrayBlockingQueue<>(buffers + 1); // Room for EOF
+    for(int i = 0; i < buffers; i++)
+      free.add(ByteBuffer.allocateDirect(size));
+    reader = new ReaderThread();
+    reader.setName("ReadAhead-" + new File(fname).getName());
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * Thread reading the file into the buffers.
+   */
+  private class ReaderThread extends Thread {
+    @Override
+    public void run() {
+      try {
+        for(int c = 0; c >= 0;) {
+          ByteBuffer buf = free.take();
+          ((Buffer) buf).clear();
+          while(buf.hasRemaining() && (c = channel.read(buf)) >= 0) {
+            // Fill the buffer completely.
+          }
+          ((Buffer) buf).flip();
+          if(buf.hasRemaining())
+            filled.put(buf);
+        }
+      }
+      catch(IOException e) {
+        error = e;
+      }
+      catch(InterruptedException e) {
+        // Closed.
+      }
+      finally {
+        filled.offer(EOF);
+      }
+    }
+  }
+
+  /**
+   * Make sure the current buffer has data.
+   *
+   * @return {@code false} at the end of the file
+   * @throws IOException on read errors
+   */
+  private boolean fill() throws IOException {
+    while(cur == null || !cur.hasRemaining()) {
+      if(eof)
+        return false;
+      if(cur != null) {
+        free.offer(cur);
+        cur = null;
+      }
+      ByteBuffer next;
+      try {
+        next = filled.take();
+      }
+      catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      if(next == EOF) {
+        eof = true;
+        if(error != null)
+          throw error;
+        return false;
+      }
+      cur = next;
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    return fill() ? cur.get() & 0xFF : -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if((off < 0) || (len < 0) || (off + len > b.length))
+      throw new IndexOutOfBoundsException();
+    if(len == 0)
+      return 0;
+    if(!fill())
+      return -1;
+    int c = Math.min(len, cur.remaining());
+    cur.get(b, off, c);
+    return c;
+  }
+
+  /**
+   * Data available without blocking, in the current buffer or else in the next
+   * filled buffer.
+   */
+  @Override
+  public int available() throws IOException {
+    if(cur != null && cur.hasRemaining())
+      return cur.remaining();
+    ByteBuffer next = filled.peek();
+    return next != null ? next.remaining() : 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    eof = true;
+    reader.interrupt();
+    channel.close();
+  }
+}
@@ -0,0 +1,279 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A stage of a processing pipeline: a bounded queue, consumed by its own pool
+ * of threads.
+ *
+ * Every thread has its own {@link Worker}, so workers do not need to be thread
+ * safe. Producers register with the stage before it is started; once all
+ * producers are done and the queue is drained, the threads close their
+ * workers and terminate.
+ *
+ * @param <T> Item type
+ */
+public class Stage<T> {
+  /**
+   * Worker for a single thread of a stage.
+   *
+   * @param <T> Item type
+   */
+  public interface Worker<T> {
+    /**
+     * Process an item.
+     *
+     * @param item Item
+     */
+    void process(T item);
+
+    /**
+     * Flush pending state, for a checkpoint. This is called while the thread
+     * of the worker is paused.
+     */
+    void flush();
+
+    /**
+     * The stage has finished.
+     */
+    void close();
+  }
+
+  /** Stage name */
+  private final String name;
+
+  /** Queued items */
+  private final ArrayDeque<T> queue = new ArrayDeque<>();
+
+  /** Queue capacity */
+  private final int capacity;
+
+  /** Workers */
+  private final List<Worker<T>> workers = new ArrayList<>();
+
+  /** Threads */
+  private final List<Thread> threads = new ArrayList<>();
+
+  /** Lock */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /** Condition for any state change */
+  private final Condition changed = lock.newCondition();
+
+  /** Active producers */
+  private int producers = 0;
+
+  /** Threads currently processing an item */
+  private int busy = 0;
+
+  /** Paused for flushing the workers */
+  private boolean paused = false;
+
+  /** Processed items */
+  private final Metrics.Counter items;
+
+  /** Processing latency */
+  private final Metrics.Histogram latency;
+
+  /**
+   * Constructor.
+   *
+   * @param name Stage name, for thread names
+   * @param threads Number of threads
+   * @param capacity Queue capacity
+   * @param factory Worker factory, called once per thread
+   */
+  public Stage(String name, int threads, int capacity, Supplier<? extends Worker<T>> factory) {
+    this.name = name;
+    this.capacity = capacity;
+    this.items = Metrics.counter("stage." + name + ".items");
+    this.latency = Metrics.histogram("stage." + name + ".latency");
+    Metrics.gauge("stage." + name + ".queue", this::size);
+    for(int i = 0; i < threads; i++) {
+      Worker<T> w = factory.get();
+      workers.add(w);
+      Thread t = new StageThread(w);
+      t.setName(name + "-" + (i + 1));
+      this.threads.add(t);
+    }
+  }
+
+  /**
+   * Get the threads of this stage, to start and join them.
+   *
+   * @return Threads
+   */
+  public List<Thread> getThreads() {
+    return Collections.unmodifiableList(threads);
+  }
+
+  /**
+   * Get the stage name.
+   *
+   * @return Name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the number of queued items.
+   *
+   * @return Queue size
+   */
+  public int size() {
+    lock.lock();
+    try {
+      return queue.size();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Register a producer. This must be done before the stage is started.
+   */
+  public void addProducer() {
+    lock.lock();
+    try {
+      ++producers;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * A producer has finished.
+   */
+  public void producerDone() {
+    lock.lock();
+    try {
+      --producers;
+      changed.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Add an item, waiting for space in the queue.
+   *
+   * @param item Item
+   * @throws InterruptedException when interrupted
+   */
+  public void put(T item) throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while(queue.size() >= capacity)
+        changed.await();
+      queue.add(item);
+      changed.signalAll();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wait until everything queued so far has been processed, then flush all
+   * workers. Items added meanwhile by other producers are processed after the
+   * flush.
+   *
+   * @throws InterruptedException when interrupted
+   */
+  public void flush() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while(paused || !queue.isEmpty() || busy > 0)
+        changed.await();
+      paused = true;
+    }
+    finally {
+      lock.unlock();
+    }
+    try {
+      for(Worker<T> w : workers)
+        w.flush();
+    }
+    finally {
+      lock.lock();
+      try {
+        paused = false;
+        changed.signalAll();
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Thread processing the items of the stage.
+   */
+  private class StageThread extends Thread {
+    /** Worker */
+    private Worker<T> worker;
+
+    /**
+     * Constructor.
+     *
+     * @param worker Worker
+     */
+    StageThread(Worker<T> worker) {
+      this.worker = worker;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while(true) {
+          T item;
+          lock.lockInterruptibly();
+          try {
+            while(paused || (queue.isEmpty() && producers > 0))
+              changed.await();
+            if(queue.isEmpty())
+              break; // All producers are done.
+            item = queue.poll();
+            ++busy;
+            changed.signalAll();
+          }
+          finally {
+            lock.unlock();
+          }
+          final long start = System.nanoTime();
+          try {
+            worker.process(item);
+          }
+          finally {
+            latency.recordSince(start);
+            items.increment();
+            lock.lock();
+            try {
+              --busy;
+              changed.signalAll();
+            }
+            finally {
+              lock.unlock();
+            }
+          }
+        }
+      }
+      catch(InterruptedException e) {
+        System.err.println("Stage " + name + " interrupted.");
+      }
+      finally {
+        worker.close();
+      }
+    }
+  }
+}
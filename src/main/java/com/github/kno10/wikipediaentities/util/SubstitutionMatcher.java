@@ -0,0 +1,48 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.IOException;
+
+/**
+ * String substitution, as used for replacing entities and special characters.
+ *
+ * Implemented by {@link PrefixTreeMatcher}, and by its flat, compiled form
+ * {@link CompiledMatcher}.
+ */
+public interface SubstitutionMatcher {
+  /**
+   * Try to match at the current position.
+   *
+   * @param seq Character source
+   * @param pos Current position
+   * @param len Length of source
+   * @param out Output buffer, for the replacement
+   * @return Number of consumed characters, 0 if there is no match
+   * @throws IOException when {@link Appendable#append} fails.
+   */
+  int match(CharSequence seq, int pos, int len, Appendable out) throws IOException;
+
+  /**
+   * Skip characters where no pattern can begin.
+   *
+   * @param seq Character source
+   * @param pos Current position
+   * @param len Length of source
+   * @return First position where a match is possible, or {@code len}
+   */
+  int skip(CharSequence seq, int pos, int len);
+
+  /**
+   * Length of the longest pattern.
+   *
+   * @return Maximum pattern length
+   */
+  int depth();
+
+  /**
+   * Test that no replacement is longer than its pattern, so that the
+   * substitution can be done in place.
+   *
+   * @return {@code true} if the text never grows.
+   */
+  boolean isShrinking();
+}
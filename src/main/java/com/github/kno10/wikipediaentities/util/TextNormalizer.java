@@ -0,0 +1,245 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Replace HTML entities and special characters in a single pass, into a
+ * reusable buffer.
+ *
+ * The result is the same as {@link Util#removeEntities} followed by
+ * {@link Util#removeSpecial}, but without building two new copies of the text.
+ * The entities are decoded into the buffer, and the special characters are
+ * replaced in place, trailing behind by the length of their longest pattern.
+ *
+ * The normalizer itself is the result: it is only valid until the next call,
+ * and must not be shared by threads.
+ */
+public final class TextNormalizer implements CharSequence {
+  /** Entity substitutions */
+  private final SubstitutionMatcher entities;
+
+  /** Special character substitutions, applied in place */
+  private final SubstitutionMatcher special;
+
+  /** Longest pattern of the special characters */
+  private final int lookahead;
+
+  /** Buffer */
+  private char[] buf = new char[1 << 12];
+
+  /** End of the decoded text */
+  private int end;
+
+  /** Read and write position of the in place substitution */
+  private int rpos, wpos;
+
+  /** Appends the decoded entities */
+  private final Appendable decoded = new Appendable() {
+    @Override
+    public Appendable append(CharSequence csq) {
+      final int l = csq.length();
+      if(end + l > buf.length)
+        grow(end + l);
+      for(int i = 0; i < l; i++)
+        buf[end++] = csq.charAt(i);
+      return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int stop) {
+      return append(csq.subSequence(start, stop));
+    }
+
+    @Override
+    public Appendable append(char c) {
+      if(end == buf.length)
+        grow(end + 1);
+      buf[end++] = c;
+      return this;
+    }
+  };
+
+  /** Appends the special character replacements, never beyond the read position */
+  private final Appendable replaced = new Appendable() {
+    @Override
+    public Appendable append(CharSequence csq) {
+      for(int i = 0, l = csq.length(); i < l; i++)
+        buf[wpos++] = csq.charAt(i);
+      return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int stop) {
+      return append(csq.subSequence(start, stop));
+    }
+
+    @Override
+    public Appendable append(char c) {
+      buf[wpos++] = c;
+      return this;
+    }
+  };
+
+  /**
+   * Constructor, with the substitutions of {@link Util}.
+   */
+  public TextNormalizer() {
+    this(Util.MATCHER, Util.SMATCHER);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param entities Entity substitutions
+   * @param special Special character substitutions, must not make the text
+   *        longer
+   */
+  public TextNormalizer(SubstitutionMatcher entities, SubstitutionMatcher special) {
+    if(!special.isShrinking())
+      throw new IllegalArgumentException("Special character substitutions must not be longer than their patterns.");
+    this.entities = entities;
+    this.special = special;
+    this.lookahead = special.depth();
+  }
+
+  /**
+   * Replace the HTML entities only.
+   *
+   * @param text Text to process
+   * @return The normalized text, valid until the next call
+   */
+  public CharSequence removeEntities(CharSequence text) {
+    try {
+      end = 0;
+      decode(text, false);
+      return this;
+    }
+    catch(IOException e) {
+      // This should be unreachable, unless we run out of memory.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Replace the HTML entities, then the special characters.
+   *
+   * @param text Text to process
+   * @return The normalized text, valid until the next call
+   */
+  public CharSequence normalize(CharSequence text) {
+    try {
+      end = rpos = wpos = 0;
+      decode(text, true);
+      // Finish the text, now that its end is known:
+      replace(end);
+      end = wpos;
+      return this;
+    }
+    catch(IOException e) {
+      // This should be unreachable, unless we run out of memory.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Decode the entities of a text into the buffer.
+   *
+   * @param text Text
+   * @param replace Also replace the special characters, as far as possible
+   * @throws IOException never
+   */
+  private void decode(CharSequence text, boolean replace) throws IOException {
+    final int len = text.length();
+    if(buf.length < len)
+      grow(len);
+    for(int s = 0; s < len;) {
+      int n = entities.skip(text, s, len);
+      if(n > s) { // Copy the text where no entity can begin
+        copy(text, s, n);
+        s = n;
+      }
+      if(s < len) {
+        int c = entities.match(text, s, len, decoded);
+        if(c > 0)
+          s += c;
+        else
+          decoded.append(text.charAt(s++)); // No match
+      }
+      // Replace where the longest pattern has been decoded completely:
+      if(replace && end - rpos > lookahead)
+        replace(end - lookahead);
+    }
+  }
+
+  /**
+   * Copy text into the buffer.
+   *
+   * @param text Text
+   * @param start First character
+   * @param stop End
+   */
+  private void copy(CharSequence text, int start, int stop) {
+    if(end + stop - start > buf.length)
+      grow(end + stop - start);
+    if(text instanceof String)
+      ((String) text).getChars(start, stop, buf, end);
+    else
+      for(int i = start; i < stop; i++)
+        buf[end + i - start] = text.charAt(i);
+    end += stop - start;
+  }
+
+  /**
+   * Replace the special characters beginning before a position.
+   *
+   * @param stop Stop position
+   * @throws IOException never
+   */
+  private void replace(int stop) throws IOException {
+    while(rpos < stop) {
+      int n = special.skip(this, rpos, stop);
+      if(n > rpos) { // Move the text where no pattern can begin
+        System.arraycopy(buf, rpos, buf, wpos, n - rpos);
+        wpos += n - rpos;
+        rpos = n;
+      }
+      if(rpos < stop) {
+        int c = special.match(this, rpos, end, replaced);
+        if(c > 0)
+          rpos += c;
+        else
+          buf[wpos++] = buf[rpos++]; // No match
+      }
+    }
+  }
+
+  /**
+   * Grow the buffer.
+   *
+   * @param size Minimum size
+   */
+  private void grow(int size) {
+    buf = Arrays.copyOf(buf, Math.max(size, buf.length + (buf.length >> 1)));
+  }
+
+  @Override
+  public int length() {
+    return end;
+  }
+
+  @Override
+  public char charAt(int index) {
+    return buf[index];
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int stop) {
+    return new String(buf, start, stop - start);
+  }
+
+  @Override
+  public String toString() {
+    return new String(buf, 0, end);
+  }
+}
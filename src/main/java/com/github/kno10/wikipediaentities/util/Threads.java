@@ -0,0 +1,102 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Start the processing threads either as platform threads, or as virtual
+ * threads on Java 21 and later.
+ *
+ * Virtual threads are created by reflection, so the code still builds and runs
+ * on Java 8. The thread classes are only used as tasks then: their
+ * {@code run()} method is executed by a virtual thread of the same name.
+ */
+public class Threads {
+  /** Thread.ofVirtual(), Thread.Builder.name(String), .unstarted(Runnable) */
+  private static final Method OF_VIRTUAL, NAME, UNSTARTED;
+
+  static {
+    Method ofVirtual = null, name = null, unstarted = null;
+    try {
+      Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      name = builder.getMethod("name", String.class);
+      unstarted = builder.getMethod("unstarted", Runnable.class);
+      ofVirtual.invoke(null); // Fails if a preview feature is not enabled.
+    }
+    catch(ReflectiveOperationException | LinkageError e) {
+      ofVirtual = name = unstarted = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    NAME = name;
+    UNSTARTED = unstarted;
+  }
+
+  /** Use virtual threads */
+  private static boolean virtual = false;
+
+  /**
+   * Fake constructor.
+   */
+  private Threads() {
+    // Static methods only.
+  }
+
+  /**
+   * Enable virtual threads, if supported by the running JVM.
+   *
+   * @param enable Flag to use virtual threads
+   * @return {@code true} if virtual threads will be used
+   */
+  public static boolean setVirtual(boolean enable) {
+    if(enable && OF_VIRTUAL == null)
+      System.err.println("Virtual threads require Java 21, using platform threads.");
+    virtual = enable && OF_VIRTUAL != null;
+    return virtual;
+  }
+
+  /**
+   * Test whether virtual threads are used.
+   *
+   * @return {@code true} for virtual threads
+   */
+  public static boolean isVirtual() {
+    return virtual;
+  }
+
+  /**
+   * Start a thread.
+   *
+   * @param t Thread, not yet started
+   * @return Started thread, to join or interrupt; a virtual thread running the
+   *         given thread's {@code run()} method in virtual mode.
+   */
+  public static Thread start(Thread t) {
+    if(!virtual) {
+      t.start();
+      return t;
+    }
+    try {
+      Thread v = (Thread) UNSTARTED.invoke(NAME.invoke(OF_VIRTUAL.invoke(null), t.getName()), t);
+      v.start();
+      return v;
+    }
+    catch(ReflectiveOperationException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Start all threads.
+   *
+   * @param threads Threads, not yet started
+   * @return Started threads
+   */
+  public static List<Thread> startAll(List<Thread> threads) {
+    List<Thread> started = new ArrayList<>(threads.size());
+    for(Thread t : threads)
+      started.add(start(t));
+    return started;
+  }
+}
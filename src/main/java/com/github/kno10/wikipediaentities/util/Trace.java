@@ -0,0 +1,119 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.util.Arrays;
+
+/**
+ * Java Flight Recorder events for the processed articles and link candidates,
+ * with the time spent in their processing phases.
+ *
+ * The events are only emitted while a recording is running, and only when
+ * they exceed the threshold of the recording settings. The event types are
+ * defined by reflection when the running JVM has the {@code jdk.jfr} API
+ * (Java 11, or Java 8 from update 262); otherwise all methods do nothing.
+ */
+public class Trace {
+  /** Article phases: entity decoding, wikitext regexes, indexing, links */
+  public static final int ENTITIES = 0, REGEX = 1, INDEX = 2, LINKS = 3;
+
+  /** JFR is available */
+  private static final boolean AVAILABLE = TraceEvents.isAvailable();
+
+  /** Events enabled */
+  private static volatile boolean enabled = false;
+
+  /** Time spent in the phases of the current article, per thread */
+  private static final ThreadLocal<long[]> PHASES = ThreadLocal.withInitial(() -> new long[4]);
+
+  /**
+   * Fake constructor.
+   */
+  private Trace() {
+    // Static methods only.
+  }
+
+  /**
+   * Enable the events, if supported by the running JVM.
+   *
+   * @param enable Flag to enable the events
+   * @return {@code true} if events will be emitted
+   */
+  public static boolean setEnabled(boolean enable) {
+    enabled = enable && AVAILABLE;
+    return enabled;
+  }
+
+  /**
+   * Current time, for timing a phase.
+   *
+   * @return Time in nanoseconds, 0 when disabled
+   */
+  public static long now() {
+    return enabled ? System.nanoTime() : 0L;
+  }
+
+  /**
+   * Time elapsed since {@link #now()}.
+   *
+   * @param start Start time
+   * @return Elapsed nanoseconds, 0 when disabled
+   */
+  public static long elapsed(long start) {
+    return enabled ? System.nanoTime() - start : 0L;
+  }
+
+  /**
+   * Add the time since {@link #now()} to a phase of the current article of
+   * this thread.
+   *
+   * @param phase Phase
+   * @param start Start time
+   */
+  public static void phase(int phase, long start) {
+    if(enabled)
+      PHASES.get()[phase] += System.nanoTime() - start;
+  }
+
+  /**
+   * Begin processing an article in this thread.
+   */
+  public static void beginArticle() {
+    if(enabled) {
+      Arrays.fill(PHASES.get(), 0L);
+      TraceEvents.beginArticle();
+    }
+  }
+
+  /**
+   * Finish processing an article in this thread.
+   *
+   * @param prefix Prefix
+   * @param title Title
+   * @param size Size of the article in bytes
+   */
+  public static void endArticle(String prefix, String title, long size) {
+    if(enabled)
+      TraceEvents.endArticle(prefix, title, size, PHASES.get());
+  }
+
+  /**
+   * Begin analyzing a link candidate in this thread.
+   */
+  public static void beginCandidate() {
+    if(enabled)
+      TraceEvents.beginCandidate();
+  }
+
+  /**
+   * Finish analyzing a link candidate in this thread.
+   *
+   * @param phrase Candidate phrase
+   * @param hits Number of matching documents
+   * @param search Time spent searching, in nanoseconds
+   * @param load Time spent loading stored fields, in nanoseconds
+   * @param score Time spent scoring, in nanoseconds
+   */
+  public static void endCandidate(String phrase, long hits, long search, long load, long score) {
+    if(enabled)
+      TraceEvents.endCandidate(phrase, hits, search, load, score);
+  }
+}
@@ -0,0 +1,244 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The JFR event types. Only used via {@link Trace}.
+ *
+ * The events are defined with {@code jdk.jfr.EventFactory}, by reflection, so
+ * the code still builds with {@code --release 8} and runs on JVMs without the
+ * {@code jdk.jfr} API.
+ */
+class TraceEvents {
+  /** Article fields: title, size, and the phases in the order of Trace */
+  private static final int TITLE = 0, SIZE = 1, PHASES = 2;
+
+  /** Candidate fields */
+  private static final int PHRASE = 0, HITS = 1, SEARCH = 2, LOAD = 3, SCORE = 4;
+
+  /** EventFactory.newEvent(), Event.begin(), end(), shouldCommit(), commit(), set(int, Object) */
+  private static final Method NEW_EVENT, BEGIN, END, SHOULD_COMMIT, COMMIT, SET;
+
+  /** Event factories of the articles and the link candidates */
+  private static final Object ARTICLE_TYPE, CANDIDATE_TYPE;
+
+  /** Current article event, per thread */
+  private static final ThreadLocal<Object> ARTICLE = new ThreadLocal<>();
+
+  /** Current candidate event, per thread */
+  private static final ThreadLocal<Object> CANDIDATE = new ThreadLocal<>();
+
+  static {
+    Method newEvent = null, begin = null, end = null, shouldCommit = null,
+        commit = null, set = null;
+    Object article = null, candidate = null;
+    try {
+      Class<?> recorder = Class.forName("jdk.jfr.FlightRecorder");
+      if((Boolean) recorder.getMethod("isAvailable").invoke(null)) {
+        Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+        Class<?> event = Class.forName("jdk.jfr.Event");
+        Method create = factory.getMethod("create", List.class, List.class);
+        article = create.invoke(null, //
+            Arrays.asList(annotation("Name", "com.github.kno10.wikipediaentities.Article"), //
+                annotation("Label", "Article"), //
+                annotation("Category", new String[] { "Wikipedia Entities" }), //
+                annotation("Description", "Processing of a Wikipedia article"), //
+                annotation("Threshold", "20 ms"), //
+                annotation("StackTrace", false)), //
+            Arrays.asList(field(String.class, "title", "Title", null), //
+                field(long.class, "size", "Size", "Estimated memory size of the article", annotation("DataAmount", "BYTES")), //
+                field(long.class, "entities", "Entities", "Time spent decoding HTML entities", annotation("Timespan", "NANOSECONDS")), //
+                field(long.class, "regex", "Regex", "Time spent stripping the wikitext with regular expressions", annotation("Timespan", "NANOSECONDS")), //
+                field(long.class, "index", "Index", "Time spent adding the document to the index, or queueing it", annotation("Timespan", "NANOSECONDS")), //
+                field(long.class, "links", "Links", "Time spent tokenizing link labels in this thread", annotation("Timespan", "NANOSECONDS"))));
+        candidate = create.invoke(null, //
+            Arrays.asList(annotation("Name", "com.github.kno10.wikipediaentities.Candidate"), //
+                annotation("Label", "Link Candidate"), //
+                annotation("Category", new String[] { "Wikipedia Entities" }), //
+                annotation("Description", "Analysis of a link candidate phrase"), //
+                annotation("Threshold", "10 ms"), //
+                annotation("StackTrace", false)), //
+            Arrays.asList(field(String.class, "phrase", "Phrase", null), //
+                field(long.class, "hits", "Hits", null), //
+                field(long.class, "search", "Search", "Time spent in the phrase search", annotation("Timespan", "NANOSECONDS")), //
+                field(long.class, "load", "Load", "Time spent loading stored fields", annotation("Timespan", "NANOSECONDS")), //
+                field(long.class, "score", "Score", "Time spent counting and scoring the link targets", annotation("Timespan", "NANOSECONDS"))));
+        newEvent = factory.getMethod("newEvent");
+        begin = event.getMethod("begin");
+        end = event.getMethod("end");
+        shouldCommit = event.getMethod("shouldCommit");
+        commit = event.getMethod("commit");
+        set = event.getMethod("set", int.class, Object.class);
+      }
+    }
+    catch(ReflectiveOperationException | LinkageError e) {
+      article = candidate = null;
+    }
+    NEW_EVENT = newEvent;
+    BEGIN = begin;
+    END = end;
+    SHOULD_COMMIT = shouldCommit;
+    COMMIT = commit;
+    SET = set;
+    ARTICLE_TYPE = article;
+    CANDIDATE_TYPE = candidate;
+  }
+
+  /**
+   * Fake constructor.
+   */
+  private TraceEvents() {
+    // Static methods only.
+  }
+
+  /**
+   * Make an annotation of an event type or field.
+   *
+   * @param type Annotation class in {@code jdk.jfr}
+   * @param value Value
+   * @return {@code jdk.jfr.AnnotationElement}
+   * @throws ReflectiveOperationException when JFR is not available
+   */
+  private static Object annotation(String type, Object value) throws ReflectiveOperationException {
+    Class<?> element = Class.forName("jdk.jfr.AnnotationElement");
+    return element.getConstructor(Class.class, Object.class).newInstance(Class.forName("jdk.jfr." + type), value);
+  }
+
+  /**
+   * Make a field of an event type.
+   *
+   * @param type Field type
+   * @param name Field name
+   * @param label Label
+   * @param description Description, may be {@code null}
+   * @param unit Unit annotations
+   * @return {@code jdk.jfr.ValueDescriptor}
+   * @throws ReflectiveOperationException when JFR is not available
+   */
+  private static Object field(Class<?> type, String name, String label, String description, Object... unit) throws ReflectiveOperationException {
+    List<Object> annotations = new ArrayList<>();
+    annotations.add(annotation("Label", label));
+    if(description != null)
+      annotations.add(annotation("Description", description));
+    annotations.addAll(Arrays.asList(unit));
+    Constructor<?> c = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+    return c.newInstance(type, name, annotations);
+  }
+
+  /**
+   * Test whether the flight recorder is available.
+   *
+   * @return {@code true} when available
+   */
+  static boolean isAvailable() {
+    return ARTICLE_TYPE != null;
+  }
+
+  /**
+   * Invoke a method of the JFR API.
+   *
+   * @param m Method
+   * @param obj Object
+   * @param args Arguments
+   * @return Result
+   */
+  private static Object invoke(Method m, Object obj, Object... args) {
+    try {
+      return m.invoke(obj, args);
+    }
+    catch(InvocationTargetException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    catch(IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Begin an event.
+   *
+   * @param type Event factory
+   * @return Event
+   */
+  private static Object begin(Object type) {
+    Object e = invoke(NEW_EVENT, type);
+    invoke(BEGIN, e);
+    return e;
+  }
+
+  /**
+   * End an event.
+   *
+   * @param e Event
+   * @return {@code true} if it exceeds the threshold, and should be committed
+   */
+  private static boolean end(Object e) {
+    invoke(END, e);
+    return (Boolean) invoke(SHOULD_COMMIT, e);
+  }
+
+  /**
+   * Begin an article event.
+   */
+  static void beginArticle() {
+    ARTICLE.set(begin(ARTICLE_TYPE));
+  }
+
+  /**
+   * Finish an article event, and commit it if it exceeds the threshold.
+   *
+   * @param prefix Prefix
+   * @param title Title
+   * @param size Size in bytes
+   * @param phases Time spent in the phases
+   */
+  static void endArticle(String prefix, String title, long size, long[] phases) {
+    Object e = ARTICLE.get();
+    if(e == null)
+      return;
+    ARTICLE.set(null);
+    if(end(e)) {
+      invoke(SET, e, TITLE, prefix + title);
+      invoke(SET, e, SIZE, size);
+      for(int i = 0; i < phases.length; i++)
+        invoke(SET, e, PHASES + i, phases[i]);
+      invoke(COMMIT, e);
+    }
+  }
+
+  /**
+   * Begin a candidate event.
+   */
+  static void beginCandidate() {
+    CANDIDATE.set(begin(CANDIDATE_TYPE));
+  }
+
+  /**
+   * Finish a candidate event, and commit it if it exceeds the threshold.
+   *
+   * @param phrase Phrase
+   * @param hits Number of hits
+   * @param search Search time
+   * @param load Stored field loading time
+   * @param score Scoring time
+   */
+  static void endCandidate(String phrase, long hits, long search, long load, long score) {
+    Object e = CANDIDATE.get();
+    if(e == null)
+      return;
+    CANDIDATE.set(null);
+    if(end(e)) {
+      invoke(SET, e, PHRASE, phrase);
+      invoke(SET, e, HITS, hits);
+      invoke(SET, e, SEARCH, search);
+      invoke(SET, e, LOAD, load);
+      invoke(SET, e, SCORE, score);
+      invoke(COMMIT, e);
+    }
+  }
+}
@@ -1,19 +1,21 @@
 package com.github.kno10.wikipediaentities.util;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.text.translate.EntityArrays;
 
@@ -23,6 +25,72 @@ import org.apache.commons.lang3.text.translate.EntityArrays;
  * @author Erich Schubert
  */
 public class Util {
+  /** Number of read-ahead buffers, 0 to disable */
+  private static int readAheadBuffers = 4;
+
+  /** Size of the read-ahead buffers */
+  private static int readAheadSize = 4 << 20;
+
+  /** Bytes read from the input files, before decompression */
+  public static final Metrics.Counter FILE_BYTES = Metrics.counter("input.file.bytes");
+
+  /** Input bytes after decompression */
+  public static final Metrics.Counter INPUT_BYTES = Metrics.counter("input.bytes");
+
+  /** Total size of the opened input files */
+  private static final AtomicLong INPUT_SIZE = new AtomicLong();
+
+  static {
+    Metrics.gauge("input.size", INPUT_SIZE::get);
+    Metrics.gauge("input.eta.seconds", Util::inputETA);
+  }
+
+  /**
+   * Add an input file to the total input size, for estimating the remaining
+   * time.
+   *
+   * @param fname File name
+   */
+  public static void addInputFile(String fname) {
+    INPUT_SIZE.addAndGet(new File(fname).length());
+  }
+
+  /**
+   * Estimate the time until all opened input files are read, from the average
+   * reading rate.
+   *
+   * @return Seconds, or -1 if unknown
+   */
+  private static double inputETA() {
+    final double rate = FILE_BYTES.getMeanRate();
+    return rate > 0 ? Math.max(0, INPUT_SIZE.get() - FILE_BYTES.get()) / rate : -1;
+  }
+
+  /**
+   * Configure reading ahead of compressed inputs in a separate I/O thread.
+   *
+   * @param buffers Number of buffers, 0 to disable
+   * @param size Buffer size
+   */
+  public static void setReadAhead(int buffers, int size) {
+    readAheadBuffers = buffers;
+    readAheadSize = size;
+  }
+
+  /**
+   * Open a file for sequential reading, with read-ahead if configured.
+   *
+   * @param fname File name
+   * @return Input stream
+   * @throws IOException When the file cannot be opened
+   */
+  private static InputStream openFile(String fname) throws IOException {
+    addInputFile(fname);
+    if(readAheadBuffers > 0)
+      return new CountingInputStream(new ReadAheadInputStream(fname, readAheadBuffers, readAheadSize), FILE_BYTES);
+    return new CountingInputStream(new FileInputStream(fname), FILE_BYTES);
+  }
+
   /**
    * Open an output stream.
    *
@@ -42,26 +110,43 @@ public class Util {
     new FileOutputStream(out), false, "UTF-8");
   }
 
-  protected static PrefixTreeMatcher MATCHER, SMATCHER;
+  /** Entity and special character substitutions, as prefix trees */
+  private static final PrefixTreeMatcher ENTITIES, SPECIAL;
+
+  /** Substitutions in use, compiled by default */
+  protected static SubstitutionMatcher MATCHER, SMATCHER;
 
   // Build the prefix tree
   static {
-    MATCHER = PrefixTreeMatcher.makeNumericalEntityMatcher();
+    ENTITIES = PrefixTreeMatcher.makeNumericalEntityMatcher();
     for(String[] p : EntityArrays.BASIC_UNESCAPE())
-      MATCHER.add(p[0], p[1]);
+      ENTITIES.add(p[0], p[1]);
     for(String[] p : EntityArrays.ISO8859_1_UNESCAPE())
-      MATCHER.add(p[0], p[1]);
+      ENTITIES.add(p[0], p[1]);
     for(String[] p : EntityArrays.HTML40_EXTENDED_UNESCAPE())
-      MATCHER.add(p[0], p[1]);
+      ENTITIES.add(p[0], p[1]);
 
-    SMATCHER = new PrefixTreeMatcher();
-    SMATCHER.add("–", "-");
-    SMATCHER.add("—", "-");
-    SMATCHER.add("`", "'");
-    SMATCHER.add("’", "'");
-    SMATCHER.add("\t", " ");
-    SMATCHER.add("\r\n", "\n");
-    SMATCHER.add("\r", "\n");
+    SPECIAL = new PrefixTreeMatcher();
+    SPECIAL.add("–", "-");
+    SPECIAL.add("—", "-");
+    SPECIAL.add("`", "'");
+    SPECIAL.add("’", "'");
+    SPECIAL.add("\t", " ");
+    SPECIAL.add("\r\n", "\n");
+    SPECIAL.add("\r", "\n");
+    setCompiledMatchers(true);
+  }
+
+  /**
+   * Choose between the compiled matchers, and the prefix trees.
+   *
+   * This only affects {@link TextNormalizer}s created afterwards.
+   *
+   * @param compiled Use the compiled matchers
+   */
+  public static void setCompiledMatchers(boolean compiled) {
+    MATCHER = compiled ? ENTITIES.compile() : ENTITIES;
+    SMATCHER = compiled ? SPECIAL.compile() : SPECIAL;
   }
 
   /**
@@ -81,8 +166,16 @@ public class Util {
     try {
       StringBuilder buf = new StringBuilder(text.length());
       final int end = text.length();
+      final SubstitutionMatcher m = MATCHER;
       for(int s = 0; s >= 0 && s < end;) {
-        int c = MATCHER.match(text, s, end, buf);
+        int n = m.skip(text, s, end);
+        if(n > s) {
+          buf.append(text, s, n); // No match possible
+          s = n;
+          if(s == end)
+            break;
+        }
+        int c = m.match(text, s, end, buf);
         if(c > 0)
           s += c;
         else
@@ -102,8 +195,16 @@ public class Util {
     try {
       StringBuilder buf = new StringBuilder(text.length());
       final int end = text.length();
+      final SubstitutionMatcher m = SMATCHER;
       for(int s = 0; s >= 0 && s < end;) {
-        int c = SMATCHER.match(text, s, end, buf);
+        int n = m.skip(text, s, end);
+        if(n > s) {
+          buf.append(text, s, n); // No match possible
+          s = n;
+          if(s == end)
+            break;
+        }
+        int c = m.match(text, s, end, buf);
         if(c > 0)
           s += c;
         else
@@ -120,23 +221,112 @@ public class Util {
   /**
    * Open a file, choosing a decompressor if necessary.
    *
+   * BZip2 files are decompressed using all available processors.
+   *
    * @param fname Filename to open
    * @return Input stream
-   * @throws FileNotFoundException When the file does not exist
+   * @throws IOException When the file cannot be opened
    */
-  public static InputStream openInput(String fname) throws FileNotFoundException {
-    InputStream fin = new FileInputStream(fname);
+  public static InputStream openInput(String fname) throws IOException {
+    return openInput(fname, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Open a file, choosing a decompressor if necessary.
+   *
+   * @param fname Filename to open
+   * @param threads Number of threads for BZip2 decompression
+   * @return Input stream
+   * @throws IOException When the file cannot be opened
+   */
+  public static InputStream openInput(String fname, int threads) throws IOException {
+    // Not compressed, read via memory mapping instead.
+    if(!isCompressed(fname)) {
+      addInputFile(fname);
+      return new CountingInputStream(new CountingInputStream(new MappedInputStream(fname), FILE_BYTES), INPUT_BYTES);
+    }
+    BufferedInputStream in = new BufferedInputStream(openFile(fname));
     try {
-      return new CompressorStreamFactory(true).createCompressorInputStream(new BufferedInputStream(fin));
+      if(threads > 1 && isBZip2(in))
+        return new CountingInputStream(new ParallelBZip2InputStream(in, threads), INPUT_BYTES);
+      return new CountingInputStream(new CompressorStreamFactory(true).createCompressorInputStream(in), INPUT_BYTES);
     }
     catch(CompressorException e) {
-      return fin;
+      in.close();
+      throw new IOException(e);
     }
   }
 
+  /**
+   * Test whether a file is compressed.
+   *
+   * @param fname File name
+   * @return {@code true} when a decompressor would be used.
+   * @throws IOException When the file cannot be opened
+   */
+  public static boolean isCompressed(String fname) throws IOException {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(fname))) {
+      new CompressorStreamFactory(true).createCompressorInputStream(in).close();
+      return true;
+    }
+    catch(CompressorException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Open an input file for reading only its beginning, such as the header of
+   * a dump. The file is not added to the input metrics.
+   *
+   * @param fname File name
+   * @return Input stream, decompressed if necessary
+   * @throws IOException When the file cannot be opened
+   */
+  public static InputStream openHeader(String fname) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(fname));
+    try {
+      return new CompressorStreamFactory(true).createCompressorInputStream(in);
+    }
+    catch(CompressorException e) {
+      return in; // Not compressed.
+    }
+  }
+
+  /**
+   * Check for the BZip2 signature, without consuming input.
+   *
+   * @param in Input stream, must support marking
+   * @return {@code true} if the input begins with a BZip2 header.
+   * @throws IOException on read errors
+   */
+  private static boolean isBZip2(InputStream in) throws IOException {
+    byte[] sig = new byte[4];
+    in.mark(sig.length);
+    int len = 0;
+    for(int c; len < sig.length && (c = in.read(sig, len, sig.length - len)) > 0;)
+      len += c;
+    in.reset();
+    return BZip2CompressorInputStream.matches(sig, len);
+  }
+
   public static InputStream openMultiStreamBZip2(String fname) throws IOException{
-      InputStream fin = new FileInputStream(fname);
-      return new MultiStreamBZip2InputStream(fin);
+      InputStream fin = openFile(fname);
+      return new CountingInputStream(new MultiStreamBZip2InputStream(fin), INPUT_BYTES);
+  }
+
+  /**
+   * Open a multistream BZip2 file, decoding streams in parallel.
+   *
+   * @param fname Filename to open
+   * @param threads Number of decoding threads; 1 decodes sequentially
+   * @return Input stream
+   * @throws IOException When the file cannot be opened
+   */
+  public static InputStream openMultiStreamBZip2(String fname, int threads) throws IOException {
+    if(threads <= 1)
+      return openMultiStreamBZip2(fname);
+    addInputFile(fname);
+    return new CountingInputStream(new ParallelMultiStreamBZip2InputStream(fname, threads), INPUT_BYTES);
   }
 
   /**
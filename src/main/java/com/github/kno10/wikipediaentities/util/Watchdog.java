@@ -0,0 +1,274 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Watchdog enforcing a time budget per article.
+ *
+ * Each processing thread has a {@link Budget}, started for every article. A
+ * daemon thread marks budgets as expired once an article takes longer than
+ * the budget. Regular expressions run on text wrapped with
+ * {@link Budget#wrap}, which then throws a {@link Timeout}, so that a
+ * pathological page cannot pin a thread by backtracking. The offenders are
+ * written to a report file, and cleaned with a cheaper method instead.
+ *
+ * Time spent waiting for later stages, between {@link Budget#suspend} and
+ * {@link Budget#resume}, does not count against the budget.
+ */
+public class Watchdog {
+  /** Not running */
+  private static final long IDLE = Long.MIN_VALUE;
+
+  /** Running monitor, may be {@code null} */
+  private static volatile Monitor monitor;
+
+  /** Budget that never expires */
+  private static final Budget UNLIMITED = new Budget(null);
+
+  /**
+   * Fake constructor.
+   */
+  private Watchdog() {
+    // Static methods only.
+  }
+
+  /**
+   * Start the watchdog.
+   *
+   * @param budget Budget per article in milliseconds, 0 to disable
+   * @param report Report file name, may be {@code null}
+   * @throws IOException when the report cannot be opened
+   */
+  public static synchronized void start(long budget, String report) throws IOException {
+    if(budget <= 0 || monitor != null)
+      return;
+    monitor = new Monitor(budget, report != null ? Util.openOutput(report) : null);
+    monitor.start();
+  }
+
+  /**
+   * Stop the watchdog, and close the report.
+   */
+  public static void stop() {
+    Monitor m;
+    synchronized(Watchdog.class) {
+      m = monitor;
+      monitor = null;
+    }
+    if(m == null)
+      return;
+    m.interrupt();
+    try {
+      m.join();
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if(m.report != null)
+      m.report.close();
+  }
+
+  /**
+   * Get the budget of the current thread.
+   *
+   * @return Budget
+   */
+  public static Budget budget() {
+    Monitor m = monitor;
+    return m != null ? m.local.get() : UNLIMITED;
+  }
+
+  /**
+   * Thread checking the budgets.
+   */
+  private static class Monitor extends Thread {
+    /** Budget in nanoseconds */
+    private final long budget;
+
+    /** Report output, may be {@code null} */
+    private final PrintStream report;
+
+    /** Budgets of all threads */
+    private final Queue<Budget> budgets = new ConcurrentLinkedQueue<>();
+
+    /** Budgets, per thread */
+    private final ThreadLocal<Budget> local = ThreadLocal.withInitial(this::register);
+
+    /** Timeouts */
+    private final Metrics.Counter timeouts = Metrics.counter("watchdog.timeouts");
+
+    /**
+     * Constructor.
+     *
+     * @param budget Budget in milliseconds
+     * @param report Report output, may be {@code null}
+     */
+    Monitor(long budget, PrintStream report) {
+      super("Watchdog");
+      setDaemon(true);
+      this.budget = budget * 1_000_000L;
+      this.report = report;
+    }
+
+    /**
+     * Register the budget of a new thread.
+     *
+     * @return Budget
+     */
+    private Budget register() {
+      Budget b = new Budget(this);
+      budgets.add(b);
+      return b;
+    }
+
+    @Override
+    public void run() {
+      final long interval = Math.max(1L, budget / 10_000_000L);
+      while(!isInterrupted()) {
+        try {
+          Thread.sleep(interval);
+        }
+        catch(InterruptedException e) {
+          break;
+        }
+        final long now = System.nanoTime();
+        for(Budget b : budgets) {
+          final long s = b.started;
+          if(s != IDLE && b.suspendedAt == IDLE && now - s - b.suspended > budget)
+            b.expired = s;
+        }
+      }
+    }
+  }
+
+  /**
+   * Time budget of a single thread.
+   */
+  public static class Budget {
+    /** Monitor, {@code null} for no limit */
+    private final Monitor monitor;
+
+    /** Start time of the current article, or {@link Watchdog#IDLE} */
+    private volatile long started = IDLE;
+
+    /** Start time of the article that exceeded the budget */
+    private volatile long expired = IDLE;
+
+    /** Time suspended during the current article, in nanoseconds */
+    private volatile long suspended = 0;
+
+    /** Start of the current suspension, or {@link Watchdog#IDLE} */
+    private volatile long suspendedAt = IDLE;
+
+    /** Previous start time */
+    private long prev = IDLE;
+
+    /**
+     * Constructor.
+     *
+     * @param monitor Monitor
+     */
+    private Budget(Monitor monitor) {
+      this.monitor = monitor;
+    }
+
+    /**
+     * Start the budget for the next article.
+     */
+    public void start() {
+      if(monitor == null)
+        return;
+      // Start times must differ, to identify the article that expired.
+      final long t = Math.max(System.nanoTime(), prev + 1);
+      suspended = 0;
+      suspendedAt = IDLE;
+      started = prev = t;
+    }
+
+    /**
+     * Suspend the budget, e.g. while blocked by a later stage.
+     */
+    public void suspend() {
+      if(monitor != null && started != IDLE)
+        suspendedAt = System.nanoTime();
+    }
+
+    /**
+     * Resume the budget after {@link #suspend}.
+     */
+    public void resume() {
+      final long t = suspendedAt;
+      if(t != IDLE) {
+        suspended += System.nanoTime() - t;
+        suspendedAt = IDLE;
+      }
+    }
+
+    /**
+     * Stop the budget, when the article is finished.
+     */
+    public void stop() {
+      started = IDLE;
+    }
+
+    /**
+     * Wrap text for regular expression matching, so that matching fails with
+     * a {@link Timeout} once the budget of the current article is exceeded.
+     *
+     * @param text Text
+     * @return Wrapped text
+     */
+    public CharSequence wrap(CharSequence text) {
+      final long s = started;
+      return monitor != null && s != IDLE ? new InterruptibleCharSequence(text, this, s) : text;
+    }
+
+    /**
+     * Test if the article started at the given time has expired.
+     *
+     * @param s Start time
+     * @return {@code true} when expired
+     */
+    boolean isExpired(long s) {
+      return expired == s;
+    }
+
+    /**
+     * Report an article that exceeded the budget.
+     *
+     * @param title Article title
+     * @param phase Processing phase
+     * @param length Text length
+     */
+    public void report(String title, String phase, int length) {
+      if(monitor == null)
+        return;
+      monitor.timeouts.increment();
+      final long s = started;
+      final double ms = s != IDLE ? (System.nanoTime() - s - suspended) / 1e6 : 0.;
+      System.err.format("Time budget exceeded in %s after %.0f ms: %s\n", phase, ms, title);
+      if(monitor.report != null)
+        synchronized(monitor.report) {
+          monitor.report.format("%s\t%s\t%d\t%.0f\n", title, phase, length, ms);
+        }
+    }
+  }
+
+  /**
+   * Thrown when matching exceeds the time budget.
+   */
+  public static class Timeout extends RuntimeException {
+    /** Serialization version */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     */
+    Timeout() {
+      super("Time budget exceeded", null, false, false);
+    }
+  }
+}
@@ -0,0 +1,704 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.util.Arrays;
+
+/**
+ * Wikitext cleaner, replacing the cascade of regular expressions previously
+ * used for indexing with hand-written scanners, in linear time.
+ *
+ * While reading the input, comments, formulas, sub- and superscript tags and
+ * magic words such as {@code __TOC__} are removed, and templates are reduced
+ * with a stack of braces. The remaining text is then scanned once for links,
+ * which are replaced by their labels, and once for references, tables and
+ * leftover links. The result is the same as that of the regular expressions:
+ * <ul>
+ * <li>Comments, formulas and tables are only removed if they end on the same
+ * line.</li>
+ * <li>Templates are removed up to a nesting depth of four.</li>
+ * <li>Link targets are reported without anchor, labels as given.</li>
+ * </ul>
+ *
+ * Scans that fail at the end of a line are remembered, so that later
+ * candidates on the same line do not scan it again.
+ *
+ * Text wrapped with {@link Watchdog.Budget#wrap} is read through the wrapper,
+ * and the time budget is also checked in the passes over the buffers.
+ *
+ * The buffers are reused, so a lexer must not be shared by threads.
+ */
+public class WikitextLexer {
+  /** Maximum nesting depth of removed templates */
+  private static final int MAX_TEMPLATE_DEPTH = 4;
+
+  /** Interval of the budget checks in the buffers, minus one */
+  private static final int CHECK_INTERVAL = (1 << 12) - 1;
+
+  /** Input text */
+  private CharSequence in;
+
+  /** Wrapped input, to check the time budget, may be {@code null} */
+  private InterruptibleCharSequence watch;
+
+  /** Text without templates, and text with links replaced */
+  private char[] a = new char[1 << 12], b = new char[1 << 12];
+
+  /** Lengths of the buffers */
+  private int alen, blen;
+
+  /** Positions of the braces in the first buffer */
+  private int[] braces = new int[64];
+
+  /**
+   * Maximum nesting depth of the templates removed before each brace, since
+   * the previous brace
+   */
+  private int[] removed = new int[64];
+
+  /** Number of braces */
+  private int nbraces;
+
+  /** Maximum depth of the templates removed since the last brace */
+  private int gap;
+
+  /** No magic word can begin before this position */
+  private int noMagic;
+
+  /** No comment or formula ends on the line before this position */
+  private int noComment, noMath;
+
+  /** End of the last scan, see {@link #findOnLine} */
+  private int scanEnd;
+
+  /** No anchor starting in this range is followed by a link end */
+  private int noAnchorStart, noAnchorEnd;
+
+  /** No table ends on the line before this position */
+  private int noTable;
+
+  /** Label of the last link, -1 for none */
+  private int labelStart, labelEnd;
+
+  /** End of the last link */
+  private int linkEnd;
+
+  /**
+   * Link handler, reading the link from the buffer of the lexer.
+   */
+  public interface LinkHandler {
+    /**
+     * Handle a link.
+     *
+     * @param buf Buffer, only valid during the call
+     * @param start Start of the target, without anchor
+     * @param end End of the target
+     * @param lstart Start of the label, -1 if there is none
+     * @param lend End of the label
+     * @return Text to replace the link with, {@code null} to keep the link.
+     */
+    CharSequence link(char[] buf, int start, int end, int lstart, int lend);
+  }
+
+  /**
+   * Clean a text.
+   *
+   * @param text Wikitext
+   * @param links Link handler
+   * @return Cleaned text
+   */
+  public String clean(CharSequence text, LinearCleaner.LinkHandler links) {
+    return clean(text, (buf, start, end, lstart, lend) -> links.link(new String(buf, start, end - start), lstart < 0 ? null : new String(buf, lstart, lend - lstart)));
+  }
+
+  /**
+   * Clean a text, without copying the links.
+   *
+   * @param text Wikitext
+   * @param links Link handler
+   * @return Cleaned text
+   */
+  public String clean(CharSequence text, LinkHandler links) {
+    in = text;
+    watch = text instanceof InterruptibleCharSequence ? (InterruptibleCharSequence) text : null;
+    try {
+      stripBasics();
+      in = null;
+      replaceLinks(links);
+      return stripCruft();
+    }
+    finally {
+      in = null;
+      watch = null;
+    }
+  }
+
+  /**
+   * Check the time budget, if the input was wrapped.
+   */
+  private void checkBudget() {
+    if(watch != null)
+      watch.check();
+  }
+
+  /**
+   * Remove comments, formulas, tags and magic words from the input, and
+   * reduce the templates.
+   */
+  private void stripBasics() {
+    final int len = in.length();
+    if(a.length < len)
+      a = new char[len];
+    alen = nbraces = gap = noMagic = noComment = noMath = 0;
+    for(int i = 0; i < len;) {
+      final char c = in.charAt(i);
+      if(c == '<') {
+        final int e = tag(i, len);
+        if(e > 0) {
+          i = e;
+          continue;
+        }
+      }
+      else if((c == '_' || isSpace(c)) && i >= noMagic && isLineStart(i, len)) {
+        final int e = magicWord(i, len);
+        if(e > 0) {
+          i = e;
+          continue;
+        }
+      }
+      if(c == '{' || c == '}')
+        brace(c);
+      else
+        a[alen++] = c;
+      i++;
+    }
+  }
+
+  /**
+   * Match a comment, formula, or sub- or superscript tag.
+   *
+   * @param i Position of the {@code <}
+   * @param len Input length
+   * @return End of the tag, or -1
+   */
+  private int tag(int i, int len) {
+    if(i >= noComment && startsWith(in, len, i, "<!--")) {
+      final int e = findOnLine(i + 4, len, "-->");
+      noComment = e < 0 ? scanEnd : noComment;
+      return e < 0 ? -1 : e + 3;
+    }
+    if(i >= noMath && startsWith(in, len, i, "<math>")) {
+      final int e = findOnLine(i + 6, len, "</math>");
+      noMath = e < 0 ? scanEnd : noMath;
+      return e < 0 ? -1 : e + 7;
+    }
+    if(startsWith(in, len, i, "<sub>") || startsWith(in, len, i, "<sup>"))
+      return i + 5;
+    if(startsWith(in, len, i, "</sub>") || startsWith(in, len, i, "</sup>"))
+      return i + 6;
+    return -1;
+  }
+
+  /**
+   * Find a string, ignoring case, before the end of the line.
+   *
+   * @param i Start position
+   * @param len Input length
+   * @param s String to find, lower case
+   * @return Position, or -1, with the end of the line in {@link #scanEnd}
+   */
+  private int findOnLine(int i, int len, String s) {
+    for(; i < len; i++) {
+      final char c = in.charAt(i);
+      if(isLineTerminator(c))
+        break;
+      if(c == s.charAt(0) && startsWith(in, len, i, s))
+        return i;
+    }
+    scanEnd = i;
+    return -1;
+  }
+
+  /**
+   * Match a line with a magic word only, such as {@code __TOC__}, together
+   * with the preceding blank lines.
+   *
+   * @param i Line start
+   * @param len Input length
+   * @return End of the magic word and trailing whitespace, before the line
+   *         break, or -1
+   */
+  private int magicWord(int i, int len) {
+    final int s = skipSpace(in, i, len);
+    int e = s;
+    while(e < len && isWord(in.charAt(e)))
+      e++;
+    if(e - s < 5 || in.charAt(s) != '_' || in.charAt(s + 1) != '_' || in.charAt(e - 2) != '_' || in.charAt(e - 1) != '_') {
+      noMagic = s + 1; // Same for all line starts up to here.
+      return -1;
+    }
+    final int f = skipSpace(in, e, len);
+    if(f == len || isLineTerminator(in.charAt(f)))
+      return f;
+    // Keep the last line break:
+    for(int j = f - 1; j >= e; j--)
+      if(isLineTerminator(in.charAt(j)) && !(in.charAt(j) == '\n' && in.charAt(j - 1) == '\r'))
+        return j;
+    noMagic = s + 1;
+    return -1;
+  }
+
+  /**
+   * Test if a magic word may begin at this position.
+   *
+   * @param i Position
+   * @param len Input length
+   * @return {@code true} at the beginning of a line
+   */
+  private boolean isLineStart(int i, int len) {
+    if(i == 0)
+      return true;
+    final char p = in.charAt(i - 1);
+    return isLineTerminator(p) && !(p == '\r' && in.charAt(i) == '\n');
+  }
+
+  /**
+   * Append a brace, and remove the template it closes.
+   *
+   * A template without braces inside is removed, unless templates of depth
+   * {@link #MAX_TEMPLATE_DEPTH} were removed inside it. Braces remaining from
+   * an unbalanced template prevent the removal of the enclosing templates.
+   *
+   * @param c Brace
+   */
+  private void brace(char c) {
+    final int n = nbraces;
+    if(c == '}' && n >= 3 && braces[n - 1] == alen - 1 && a[alen - 1] == '}' //
+        && a[braces[n - 2]] == '{' && braces[n - 3] == braces[n - 2] - 1 && a[braces[n - 3]] == '{') {
+      final int depth = 1 + Math.max(gap, Math.max(removed[n - 1], removed[n - 2]));
+      if(depth <= MAX_TEMPLATE_DEPTH) {
+        alen = braces[n - 3];
+        gap = Math.max(removed[n - 3], depth);
+        nbraces = n - 3;
+        return;
+      }
+    }
+    if(n == braces.length) {
+      braces = Arrays.copyOf(braces, n << 1);
+      removed = Arrays.copyOf(removed, n << 1);
+    }
+    braces[n] = alen;
+    removed[n] = gap;
+    nbraces = n + 1;
+    gap = 0;
+    a[alen++] = c;
+  }
+
+  /**
+   * Replace the links with their labels.
+   *
+   * @param links Link handler
+   */
+  private void replaceLinks(LinkHandler links) {
+    if(b.length < alen)
+      b = new char[alen];
+    blen = noAnchorStart = noAnchorEnd = 0;
+    int pos = 0; // Copied up to here
+    for(int i = 0; i + 1 < alen;) {
+      if(a[i] != '[' || a[i + 1] != '[') {
+        if((++i & CHECK_INTERVAL) == 0)
+          checkBudget();
+        continue;
+      }
+      checkBudget();
+      if(!link(i)) {
+        i++;
+        continue;
+      }
+      final int g1 = skipSpace(a, i + 2, alen), g1e = linkTarget;
+      final CharSequence label = g1e > g1 ? links.link(a, g1, g1e, labelStart, labelEnd) : null;
+      // Links without target, to a section, are replaced by their label.
+      if(label != null || g1e == g1) {
+        append(a, pos, i);
+        if(label != null)
+          append(label);
+        else if(labelStart >= 0)
+          append(a, labelStart, labelEnd);
+        pos = linkEnd;
+      }
+      i = linkEnd;
+    }
+    append(a, pos, alen);
+  }
+
+  /** End of the target of the last link */
+  private int linkTarget;
+
+  /**
+   * Match a link: {@code [[target#anchor|...|label]]}.
+   *
+   * @param i Position of the brackets
+   * @return {@code true} on success, with the link in {@link #linkTarget},
+   *         {@link #labelStart}, {@link #labelEnd} and {@link #linkEnd}.
+   */
+  private boolean link(int i) {
+    // The shortest target for which the remainder matches.
+    for(int k = skipSpace(a, i + 2, alen);; k++) {
+      if(anchor(k)) {
+        linkTarget = k;
+        return true;
+      }
+      k = skipSpace(a, k, alen); // Same result for the whitespace
+      if(k >= alen || a[k] == '[' || a[k] == ']' || a[k] == '|')
+        return false;
+    }
+  }
+
+  /**
+   * Match an optional anchor, and the remainder of a link.
+   *
+   * @param p Position after the target
+   * @return Success
+   */
+  private boolean anchor(int p) {
+    final int q = skipSpace(a, p, alen);
+    // An anchor within a failed one ends on the same line, and fails too.
+    if(q < alen && a[q] == '#' && (q < noAnchorStart || q >= noAnchorEnd)) {
+      // The shortest anchor on this line for which the remainder matches.
+      for(int m = q + 1;; m++) {
+        if(label(m))
+          return true;
+        m = skipBlank(a, m, alen); // Same result for the whitespace
+        if(m >= alen || isLineTerminator(a[m])) {
+          noAnchorStart = q;
+          noAnchorEnd = m;
+          break;
+        }
+      }
+    }
+    return label(p);
+  }
+
+  /**
+   * Match an optional label, and the end of a link.
+   *
+   * @param p Position after the target and anchor
+   * @return Success
+   */
+  private boolean label(int p) {
+    final int q = skipSpace(a, p, alen);
+    if(q < alen && a[q] == '|') {
+      final int r = labelRun(q + 1);
+      // Skip one parameter, such as "thumb" of images, if possible.
+      if(r < alen && a[r] == '|' && label(r + 1, labelRun(r + 1)))
+        return true;
+      if(label(q + 1, r))
+        return true;
+    }
+    if(!closes(q))
+      return false;
+    labelStart = -1;
+    linkEnd = q + 2;
+    return true;
+  }
+
+  /**
+   * Match a label, and the end of the link.
+   *
+   * @param p Position after the bar
+   * @param e End of the label, see {@link #labelRun}
+   * @return Success
+   */
+  private boolean label(int p, int e) {
+    int s = skipSpace(a, p, alen);
+    if(s == e) { // Label of whitespace only.
+      if(s == p)
+        return false;
+      s--;
+    }
+    if(!closes(e))
+      return false;
+    labelStart = s;
+    labelEnd = e;
+    linkEnd = e + 2;
+    return true;
+  }
+
+  /**
+   * Find the end of a label, at a bracket, bar or hash sign.
+   *
+   * @param i Start position
+   * @return End position
+   */
+  private int labelRun(int i) {
+    for(; i < alen; i++) {
+      final char c = a[i];
+      if(c == '[' || c == ']' || c == '|' || c == '#')
+        return i;
+    }
+    return alen;
+  }
+
+  /**
+   * Test for closing brackets.
+   *
+   * @param i Position
+   * @return {@code true} if the link is closed here.
+   */
+  private boolean closes(int i) {
+    return i + 1 < alen && a[i] == ']' && a[i + 1] == ']';
+  }
+
+  /**
+   * Remove references, single line tables, remaining links, and a leading
+   * list bullet.
+   *
+   * @return Cleaned text
+   */
+  private String stripCruft() {
+    final char[] t = b;
+    final int len = blen;
+    int o = 0, i = 0;
+    noTable = 0;
+    // Leading list bullet:
+    int s = 0;
+    while(s < len && t[s] == ' ')
+      s++;
+    if(s < len && t[s] == '*') {
+      while(s < len && t[s] == '*')
+        s++;
+      i = s;
+    }
+    while(i < len) {
+      final char c = t[i];
+      int e = -1;
+      if(c == '<')
+        e = ref(i);
+      else if(c == '{' && i + 1 < len && t[i + 1] == '|') {
+        checkBudget();
+        e = i + 2 < noTable ? -1 : table(i + 2);
+      }
+      else if(c == '[' && i + 1 < len && t[i + 1] == '[') {
+        checkBudget();
+        int r = i + 2;
+        while(r < len && t[r] != '[' && t[r] != ']')
+          r++;
+        e = r + 1 < len && t[r] == ']' && t[r + 1] == ']' ? r + 2 : -1;
+      }
+      if(e > 0) {
+        i = e;
+        continue;
+      }
+      t[o++] = c; // In place, never ahead of the input
+      if((++i & CHECK_INTERVAL) == 0)
+        checkBudget();
+    }
+    return new String(t, 0, o);
+  }
+
+  /**
+   * Match a reference: {@code <ref>...</ref>}, {@code <ref name=...>} or
+   * {@code <ref .../>>}.
+   *
+   * @param i Position of the {@code <}
+   * @return End of the reference, or -1
+   */
+  private int ref(int i) {
+    final char[] t = b;
+    final int len = blen;
+    if(!startsWith(t, len, i, "<ref"))
+      return -1;
+    final int s = i + 4;
+    int r = s; // Next tag
+    while(r < len && t[r] != '<')
+      r++;
+    if(startsWith(t, len, r, "</ref") && r + 5 < len && t[r + 5] == '>')
+      return r + 6;
+    int p = skipSpace(t, s, len);
+    if(p > s && startsWith(t, len, p, "name")) {
+      p = skipSpace(t, p + 4, len);
+      if(p < len && t[p] == '=')
+        for(int g = r - 1; g > p; g--)
+          if(t[g] == '>')
+            return g + 1;
+    }
+    for(int g = r - 3; g >= s; g--)
+      if(t[g] == '/' && t[g + 1] == '>' && t[g + 2] == '>')
+        return g + 3;
+    return -1;
+  }
+
+  /**
+   * Match the remainder of a table on the same line.
+   *
+   * @param i Position after the {@code {|}
+   * @return End of the table, or -1, with the end of the line in
+   *         {@link #noTable}
+   */
+  private int table(int i) {
+    final char[] t = b;
+    for(; i + 1 < blen; i++) {
+      if(isLineTerminator(t[i]))
+        break;
+      if(t[i] == '|' && t[i + 1] == '}')
+        return i + 2;
+    }
+    noTable = i;
+    return -1;
+  }
+
+  /**
+   * Append to the second buffer.
+   *
+   * @param src Source
+   * @param start Start
+   * @param end End
+   */
+  private void append(char[] src, int start, int end) {
+    ensure(end - start);
+    System.arraycopy(src, start, b, blen, end - start);
+    blen += end - start;
+  }
+
+  /**
+   * Append to the second buffer.
+   *
+   * @param s Text
+   */
+  private void append(CharSequence s) {
+    final int l = s.length();
+    ensure(l);
+    if(s instanceof String)
+      ((String) s).getChars(0, l, b, blen);
+    else
+      for(int i = 0; i < l; i++)
+        b[blen + i] = s.charAt(i);
+    blen += l;
+  }
+
+  /**
+   * Ensure the capacity of the second buffer.
+   *
+   * @param n Number of characters to append
+   */
+  private void ensure(int n) {
+    if(blen + n > b.length)
+      b = Arrays.copyOf(b, Math.max(blen + n, b.length << 1));
+  }
+
+  /**
+   * Test for a prefix, ignoring the case of ASCII letters.
+   *
+   * @param t Text
+   * @param len Text length
+   * @param i Position
+   * @param s Prefix, lower case
+   * @return {@code true} if the text continues with the prefix.
+   */
+  private static boolean startsWith(CharSequence t, int len, int i, String s) {
+    if(i + s.length() > len)
+      return false;
+    for(int j = 0; j < s.length(); j++)
+      if(lower(t.charAt(i + j)) != s.charAt(j))
+        return false;
+    return true;
+  }
+
+  /**
+   * Test for a prefix, ignoring the case of ASCII letters.
+   *
+   * @param t Text
+   * @param len Text length
+   * @param i Position
+   * @param s Prefix, lower case
+   * @return {@code true} if the text continues with the prefix.
+   */
+  private static boolean startsWith(char[] t, int len, int i, String s) {
+    if(i + s.length() > len)
+      return false;
+    for(int j = 0; j < s.length(); j++)
+      if(lower(t[i + j]) != s.charAt(j))
+        return false;
+    return true;
+  }
+
+  /**
+   * Lower case of ASCII letters.
+   *
+   * @param c Character
+   * @return Lower case character
+   */
+  private static char lower(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+
+  /**
+   * Skip whitespace.
+   *
+   * @param t Text
+   * @param i Position
+   * @param len Text length
+   * @return Position of the next other character
+   */
+  private static int skipSpace(CharSequence t, int i, int len) {
+    while(i < len && isSpace(t.charAt(i)))
+      i++;
+    return i;
+  }
+
+  /**
+   * Skip whitespace.
+   *
+   * @param t Text
+   * @param i Position
+   * @param len Text length
+   * @return Position of the next other character
+   */
+  private static int skipSpace(char[] t, int i, int len) {
+    while(i < len && isSpace(t[i]))
+      i++;
+    return i;
+  }
+
+  /**
+   * Skip whitespace, except line breaks.
+   *
+   * @param t Text
+   * @param i Position
+   * @param len Text length
+   * @return Position of the next other character
+   */
+  private static int skipBlank(char[] t, int i, int len) {
+    while(i < len && isSpace(t[i]) && !isLineTerminator(t[i]))
+      i++;
+    return i;
+  }
+
+  /**
+   * Whitespace, as {@code \s} of regular expressions.
+   *
+   * @param c Character
+   * @return {@code true} for whitespace
+   */
+  private static boolean isSpace(char c) {
+    return c == ' ' || (c >= '\t' && c <= '\r');
+  }
+
+  /**
+   * Line terminators, which {@code .} of regular expressions does not match.
+   *
+   * @param c Character
+   * @return {@code true} for line terminators
+   */
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || (c | 1) == '\u2029';
+  }
+
+  /**
+   * Word characters, as {@code \w} of regular expressions.
+   *
+   * @param c Character
+   * @return {@code true} for word characters
+   */
+  private static boolean isWord(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+  }
+}
@@ -0,0 +1,138 @@
+package com.github.kno10.wikipediaentities.util;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal helpers to extract element contents from UTF-8 encoded XML, without
+ * an XML parser.
+ *
+ * This is only meant for the very regular XML of MediaWiki dumps, where
+ * element contents never contain CDATA sections or nested markup.
+ */
+public final class XMLBytes {
+  /**
+   * Fake constructor: do not instantiate.
+   */
+  private XMLBytes() {
+    // Static methods only
+  }
+
+  /**
+   * Encode an ASCII tag.
+   *
+   * @param tag Tag
+   * @return Bytes
+   */
+  public static byte[] tag(String tag) {
+    return tag.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Find the contents of an element with a literal start tag.
+   *
+   * @param buf Buffer
+   * @param start Start tag
+   * @param end End tag
+   * @param from Search position
+   * @return Start and end offsets of the content, or {@code null} if not found.
+   */
+  public static int[] content(ByteBuffer buf, byte[] start, byte[] end, int from) {
+    int s = MappedFile.indexOf(buf, start, from);
+    if(s < 0)
+      return null;
+    s += start.length;
+    int e = MappedFile.indexOf(buf, end, s);
+    return e < 0 ? null : new int[] { s, e };
+  }
+
+  /**
+   * Decode an element content or attribute value.
+   *
+   * @param buf Buffer
+   * @param start Start offset
+   * @param end End offset
+   * @return Decoded and unescaped string
+   */
+  public static String decode(ByteBuffer buf, int start, int end) {
+    final String s;
+    if(buf.hasArray())
+      s = new String(buf.array(), buf.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+    else {
+      byte[] tmp = new byte[end - start];
+      ByteBuffer dup = buf.duplicate();
+      ((Buffer) dup).limit(end).position(start);
+      dup.get(tmp);
+      s = new String(tmp, StandardCharsets.UTF_8);
+    }
+    return unescape(s);
+  }
+
+  /**
+   * Resolve the XML entities and character references, and normalize line
+   * breaks, as an XML parser would.
+   *
+   * @param s Escaped string
+   * @return Unescaped string
+   */
+  public static String unescape(String s) {
+    int i = 0;
+    final int len = s.length();
+    while(i < len) {
+      char c = s.charAt(i);
+      if(c == '&' || c == '\r')
+        break;
+      ++i;
+    }
+    if(i == len)
+      return s; // Nothing to do
+    StringBuilder buf = new StringBuilder(len);
+    buf.append(s, 0, i);
+    while(i < len) {
+      char c = s.charAt(i);
+      if(c == '\r') {
+        buf.append('\n');
+        i += (i + 1 < len && s.charAt(i + 1) == '\n') ? 2 : 1;
+        continue;
+      }
+      int semi;
+      if(c != '&' || (semi = s.indexOf(';', i + 1)) < 0 || semi - i > 10) {
+        buf.append(c);
+        ++i;
+        continue;
+      }
+      if(s.charAt(i + 1) == '#') {
+        try {
+          int cp = (s.charAt(i + 2) == 'x') ? Integer.parseInt(s.substring(i + 3, semi), 16) : Integer.parseInt(s.substring(i + 2, semi));
+          buf.appendCodePoint(cp);
+          i = semi + 1;
+          continue;
+        }
+        catch(IllegalArgumentException e) {
+          buf.append(c); // Invalid, keep as is.
+          ++i;
+          continue;
+        }
+      }
+      else if(s.startsWith("lt", i + 1) && semi == i + 3)
+        c = '<';
+      else if(s.startsWith("gt", i + 1) && semi == i + 3)
+        c = '>';
+      else if(s.startsWith("amp", i + 1) && semi == i + 4)
+        c = '&';
+      else if(s.startsWith("quot", i + 1) && semi == i + 5)
+        c = '"';
+      else if(s.startsWith("apos", i + 1) && semi == i + 5)
+        c = '\'';
+      else {
+        buf.append(c);
+        ++i;
+        continue;
+      }
+      buf.append(c);
+      i = semi + 1;
+    }
+    return buf.toString();
+  }
+}
@@ -0,0 +1,203 @@
+package com.github.kno10.wikipediaentities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import com.github.kno10.wikipediaentities.util.BatchQueue;
+
+/**
+ * Tests of the checkpoint protocol, with a reader and workers that follow the
+ * protocol of {@link ParseWikipedia}.
+ */
+public class CheckpointerTest {
+  /** Input name */
+  private static final String SOURCE = "test-pages-articles.xml";
+
+  /** Number of pages */
+  private static final int PAGES = 300;
+
+  /** Number of workers */
+  private static final int WORKERS = 3;
+
+  /**
+   * State of a checkpoint, and the pages processed at that time.
+   */
+  static class Snapshot {
+    /** Checkpoint state */
+    final Map<String, String> state;
+
+    /** Pages processed */
+    final Set<Integer> processed;
+
+    /**
+     * Constructor.
+     *
+     * @param state Checkpoint state
+     * @param processed Pages processed
+     */
+    Snapshot(Map<String, String> state, Set<Integer> processed) {
+      this.state = new HashMap<>(state);
+      this.processed = new HashSet<>(processed);
+    }
+
+    /**
+     * Get the reader position.
+     *
+     * @return Number of pages read
+     */
+    int position() {
+      return Integer.parseInt(state.get("checkpoint.position:" + SOURCE));
+    }
+  }
+
+  /**
+   * Run a reader and workers, with checkpoints.
+   *
+   * @param interval Checkpoint interval
+   * @param resume Checkpoint to resume from
+   * @param processed Output of processed pages
+   * @param snapshots Output of the checkpoints
+   * @return Checkpointer
+   * @throws InterruptedException when interrupted
+   */
+  static Checkpointer run(long interval, Map<String, String> resume, final Set<Integer> processed, final List<Snapshot> snapshots) throws InterruptedException {
+    final BatchQueue<Integer> queue = new BatchQueue<>(1 << 20, 64, 4, x -> 1L);
+    final Checkpointer cp = new Checkpointer(interval, resume, queue);
+    cp.addParticipant((gen, state) -> {
+      synchronized(snapshots) {
+        snapshots.add(new Snapshot(state, processed));
+      }
+    });
+    final List<Throwable> errors = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    queue.addProducer();
+    cp.register(true);
+    threads.add(new Thread(() -> {
+      final long skip = cp.getPosition(SOURCE);
+      long pages = 0;
+      boolean complete = false;
+      try {
+        BatchQueue<Integer>.Publisher out = queue.publisher();
+        for(int i = 0; i < PAGES; i++) {
+          if(++pages <= skip)
+            continue;
+          out.add(i);
+          if(cp.isRequested()) {
+            out.flush();
+            cp.readerPause(SOURCE, pages);
+          }
+        }
+        out.flush();
+        complete = true;
+      }
+      catch(Throwable e) {
+        synchronized(errors) {
+          errors.add(e);
+        }
+      }
+      finally {
+        cp.readerDone(SOURCE, complete ? pages : -1);
+        queue.producerDone();
+      }
+    }));
+    for(int w = 0; w < WORKERS; w++) {
+      cp.register(false);
+      threads.add(new Thread(() -> {
+        Handler h = new AbstractHandler() {
+        };
+        try {
+          for(List<Integer> batch; (batch = queue.take()) != null;) {
+            for(Integer i : batch)
+              if(!processed.add(i))
+                throw new AssertionError("Page processed twice: " + i);
+            if(cp.isRequested())
+              cp.workerPause(h);
+          }
+        }
+        catch(Throwable e) {
+          synchronized(errors) {
+            errors.add(e);
+          }
+        }
+        h.checkpoint();
+        h.close();
+        cp.workerDone();
+      }));
+    }
+    for(Thread t : threads)
+      t.start();
+    for(Thread t : threads)
+      t.join();
+    assertTrue("Errors: " + errors, errors.isEmpty());
+    return cp;
+  }
+
+  /**
+   * Pages in a range.
+   *
+   * @param start First page
+   * @param end End
+   * @return Set of pages
+   */
+  static Set<Integer> range(int start, int end) {
+    Set<Integer> s = new HashSet<>();
+    for(int i = start; i < end; i++)
+      s.add(i);
+    return s;
+  }
+
+  @Test
+  public void testResumeState() {
+    Map<String, String> state = new HashMap<>();
+    state.put(Checkpointer.GENERATION, "3");
+    state.put("checkpoint.position:" + SOURCE, "42");
+    Checkpointer cp = new Checkpointer(1000L, state, new BatchQueue<Integer>(100, 10, 2, x -> 1L));
+    assertEquals(3, cp.getGeneration());
+    assertEquals(42L, cp.getPosition(SOURCE));
+    assertEquals(0L, cp.getPosition("other"));
+    assertEquals(0, new Checkpointer(1000L, new HashMap<>(), new BatchQueue<Integer>(100, 10, 2, x -> 1L)).getGeneration());
+  }
+
+  @Test(timeout = 60000)
+  public void testConsistentCheckpoints() throws InterruptedException {
+    Set<Integer> processed = ConcurrentHashMap.newKeySet();
+    List<Snapshot> snapshots = new ArrayList<>();
+    Checkpointer cp = run(0L, new HashMap<>(), processed, snapshots);
+    assertEquals(range(0, PAGES), processed);
+    assertFalse("No checkpoint was made.", snapshots.isEmpty());
+    assertEquals(snapshots.size(), cp.getGeneration());
+    for(int i = 0; i < snapshots.size(); i++) {
+      Snapshot s = snapshots.get(i);
+      assertEquals(Integer.toString(i + 1), s.state.get(Checkpointer.GENERATION));
+      // Exactly the pages before the reader position are processed.
+      assertEquals(range(0, s.position()), s.processed);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testResume() throws InterruptedException {
+    List<Snapshot> snapshots = new ArrayList<>();
+    run(0L, new HashMap<>(), ConcurrentHashMap.newKeySet(), snapshots);
+    // Resume from a checkpoint in the middle, as after a crash.
+    Snapshot mid = null;
+    for(Snapshot s : snapshots)
+      if(mid == null && s.position() >= PAGES / 2)
+        mid = s;
+    Set<Integer> processed = ConcurrentHashMap.newKeySet();
+    Checkpointer cp = run(Long.MAX_VALUE >>> 1, mid.state, processed, new ArrayList<>());
+    assertEquals(Integer.parseInt(mid.state.get(Checkpointer.GENERATION)), cp.getGeneration());
+    // The skipped and the remaining pages are all pages, without duplicates.
+    assertEquals(range(mid.position(), PAGES), processed);
+  }
+}
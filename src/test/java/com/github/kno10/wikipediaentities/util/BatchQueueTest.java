@@ -0,0 +1,225 @@
+package com.github.kno10.wikipediaentities.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Tests of the batch queue.
+ */
+public class BatchQueueTest {
+  /**
+   * Thread running a task that may fail or block.
+   */
+  static class Task extends Thread {
+    /** Task */
+    final Callable task;
+
+    /** Result */
+    final AtomicReference<Object> result = new AtomicReference<>();
+
+    /** Failure */
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    /**
+     * Constructor.
+     *
+     * @param task Task
+     */
+    Task(Callable task) {
+      this.task = task;
+      setDaemon(true);
+      start();
+    }
+
+    @Override
+    public void run() {
+      try {
+        result.set(task.call());
+      }
+      catch(Throwable e) {
+        error.set(e);
+      }
+    }
+
+    /**
+     * Wait for the task, and rethrow its failure.
+     *
+     * @return Result
+     * @throws InterruptedException when interrupted
+     */
+    Object get() throws InterruptedException {
+      join();
+      if(error.get() != null)
+        throw new AssertionError(error.get());
+      return result.get();
+    }
+
+    /**
+     * Test that the task is blocked.
+     *
+     * @return {@code true} if it has not finished after a while
+     * @throws InterruptedException when interrupted
+     */
+    boolean blocks() throws InterruptedException {
+      join(200);
+      return isAlive();
+    }
+  }
+
+  /**
+   * Task that may throw an InterruptedException.
+   */
+  interface Callable {
+    /**
+     * Run the task.
+     *
+     * @return Result
+     * @throws InterruptedException when interrupted
+     */
+    Object call() throws InterruptedException;
+  }
+
+  @Test(timeout = 10000)
+  public void testWrapAround() throws InterruptedException {
+    // A ring of four slots, with one element per batch.
+    BatchQueue<Integer> q = new BatchQueue<>(Long.MAX_VALUE, 4, 1, x -> 1L);
+    q.addProducer();
+    BatchQueue<Integer>.Publisher p = q.publisher();
+    int next = 0, expect = 0;
+    for(int round = 0; round < 1000; round++) {
+      for(int i = 0; i < 1 + round % 4; i++)
+        p.add(next++);
+      assertEquals(1 + round % 4, q.size());
+      while(!q.isEmpty())
+        assertEquals(Arrays.asList(expect++), q.take());
+    }
+    assertEquals(next, expect);
+    assertEquals(0, q.getWeight());
+  }
+
+  @Test(timeout = 30000)
+  public void testConcurrent() throws InterruptedException {
+    final int producers = 3, consumers = 2, n = 50_000;
+    final BatchQueue<Integer> q = new BatchQueue<>(1000, 64, 8, x -> 1L);
+    final AtomicIntegerArray seen = new AtomicIntegerArray(producers * n);
+    List<Task> tasks = new ArrayList<>();
+    for(int t = 0; t < producers; t++) {
+      final int base = t * n;
+      q.addProducer();
+      tasks.add(new Task(() -> {
+        BatchQueue<Integer>.Publisher p = q.publisher();
+        for(int i = 0; i < n; i++)
+          p.add(base + i);
+        p.flush();
+        q.producerDone();
+        return null;
+      }));
+    }
+    for(int t = 0; t < consumers; t++)
+      tasks.add(new Task(() -> {
+        int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        for(List<Integer> b; (b = q.take()) != null;)
+          for(Integer i : b) {
+            seen.incrementAndGet(i);
+            // Each consumer sees the elements of a producer in order.
+            assertTrue(i % n > last[i / n]);
+            last[i / n] = i % n;
+          }
+        return null;
+      }));
+    for(Task t : tasks)
+      t.get();
+    for(int i = 0; i < seen.length(); i++)
+      assertEquals("Element " + i, 1, seen.get(i));
+    assertTrue(q.isEmpty());
+    assertEquals(0, q.getWeight());
+  }
+
+  @Test(timeout = 10000)
+  public void testHeavyBatch() throws InterruptedException {
+    final BatchQueue<Long> q = new BatchQueue<>(100, 1000, 10, x -> x);
+    q.addProducer();
+    final BatchQueue<Long>.Publisher p = q.publisher();
+    // Accepted, although beyond the maximum weight, as the queue is empty.
+    p.add(1000L);
+    assertEquals(1, q.size());
+    assertEquals(1000, q.getWeight());
+    // Further batches wait until the heavy batch was taken.
+    Task t = new Task(() -> {
+      p.add(20L);
+      return null;
+    });
+    assertTrue(t.blocks());
+    assertEquals(1, q.size());
+    assertEquals(Arrays.asList(1000L), q.take());
+    t.get();
+    assertEquals(20, q.getWeight());
+    assertEquals(Arrays.asList(20L), q.take());
+    assertEquals(0, q.getWeight());
+  }
+
+  @Test(timeout = 10000)
+  public void testPaused() throws InterruptedException {
+    final BatchQueue<Integer> q = new BatchQueue<>(100, 100, 2, x -> 1L);
+    q.addProducer();
+    BatchQueue<Integer>.Publisher p = q.publisher();
+    q.setPaused(true);
+    // Empty batches while paused, but not the end of the stream.
+    List<Integer> b = q.take();
+    assertNotNull(b);
+    assertTrue(b.isEmpty());
+    // Queued batches are still delivered while paused.
+    p.add(1);
+    p.add(2);
+    assertEquals(Arrays.asList(1, 2), q.take());
+    assertTrue(q.take().isEmpty());
+    // When resumed, consumers wait, until paused again.
+    q.setPaused(false);
+    Task t = new Task(q::take);
+    assertTrue(t.blocks());
+    q.setPaused(true);
+    assertEquals(Arrays.asList(), t.get());
+    // Or until a batch arrives.
+    q.setPaused(false);
+    t = new Task(q::take);
+    assertTrue(t.blocks());
+    p.add(3);
+    p.flush();
+    assertEquals(Arrays.asList(3), t.get());
+  }
+
+  @Test(timeout = 10000)
+  public void testEndOfStream() throws InterruptedException {
+    final BatchQueue<Integer> q = new BatchQueue<>(100, 100, 2, x -> 1L);
+    q.addProducer();
+    q.addProducer();
+    BatchQueue<Integer>.Publisher p = q.publisher();
+    p.add(1);
+    p.add(2);
+    p.add(3);
+    p.flush();
+    q.producerDone();
+    // Batches queued before the end are delivered first.
+    assertEquals(Arrays.asList(1, 2), q.take());
+    assertEquals(Arrays.asList(3), q.take());
+    // One producer is still active.
+    Task t = new Task(q::take);
+    assertTrue(t.blocks());
+    q.producerDone();
+    assertNull(t.get());
+    assertNull(q.take());
+    assertFalse(t.isAlive());
+  }
+}
@@ -0,0 +1,152 @@
+package com.github.kno10.wikipediaentities.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.lang3.text.translate.EntityArrays;
+import org.junit.Test;
+
+/**
+ * Differential tests of the compiled matchers against the prefix trees they
+ * are compiled from.
+ */
+public class CompiledMatcherTest {
+  /**
+   * Random string over an alphabet.
+   *
+   * @param r Random generator
+   * @param alphabet Alphabet
+   * @param len Length
+   * @return String
+   */
+  static String random(Random r, String alphabet, int len) {
+    char[] c = new char[len];
+    for(int i = 0; i < len; i++)
+      c[i] = alphabet.charAt(r.nextInt(alphabet.length()));
+    return new String(c);
+  }
+
+  /**
+   * Compare the matchers at every position of a text, also with a shorter
+   * length limit.
+   *
+   * @param tree Prefix tree
+   * @param comp Compiled matcher
+   * @param text Text
+   * @throws IOException never
+   */
+  static void check(PrefixTreeMatcher tree, CompiledMatcher comp, String text) throws IOException {
+    for(int len : new int[] { text.length(), text.length() >> 1 }) {
+      StringBuilder a = new StringBuilder(), b = new StringBuilder();
+      int[] matched = new int[len + 1];
+      for(int p = 0; p < len; p++) {
+        a.setLength(0);
+        b.setLength(0);
+        matched[p] = tree.match(text, p, len, a);
+        assertEquals(text + " at " + p, matched[p], comp.match(text, p, len, b));
+        assertEquals(text + " at " + p, a.toString(), b.toString());
+      }
+      // Skipping must not pass a position where a pattern matches.
+      for(int p = 0; p < len; p++) {
+        final int q = comp.skip(text, p, len);
+        assertTrue(q >= p && q <= len);
+        for(int i = p; i < q; i++)
+          assertEquals(text + " skipped " + i, 0, matched[i]);
+      }
+    }
+  }
+
+  /**
+   * Compare the matchers on random texts.
+   *
+   * @param tree Prefix tree
+   * @param alphabet Alphabet of the texts
+   * @param seed Random seed
+   * @param n Number of texts
+   * @throws IOException never
+   */
+  static void fuzz(PrefixTreeMatcher tree, String alphabet, long seed, int n) throws IOException {
+    CompiledMatcher comp = tree.compile();
+    assertEquals(tree.depth(), comp.depth());
+    assertEquals(tree.isShrinking(), comp.isShrinking());
+    Random r = new Random(seed);
+    for(int i = 0; i < n; i++)
+      check(tree, comp, random(r, alphabet, r.nextInt(40)));
+  }
+
+  @Test
+  public void testEntities() throws IOException {
+    PrefixTreeMatcher tree = PrefixTreeMatcher.makeNumericalEntityMatcher();
+    for(String[] p : EntityArrays.BASIC_UNESCAPE())
+      tree.add(p[0], p[1]);
+    for(String[] p : EntityArrays.HTML40_EXTENDED_UNESCAPE())
+      tree.add(p[0], p[1]);
+    CompiledMatcher comp = tree.compile();
+    for(String s : new String[] { "", "&", "&#", "&#x", "&#X", "&#;", "&#x;", "&#13", "&#13;", "&#x2014;", "&#X2014;", //
+        "&#99999999999;", "&#0;", "&#x1F600;", "&amp", "&amp;", "&amp;amp;", "&&amp;", "&ndash;", "&ndash", "&nd;", //
+        "a&lt;b&gt;c", "&#65&#66;", "&#x4g;" })
+      check(tree, comp, s);
+    fuzz(tree, "&#;xX0123456789abdfghilmnopqrstu", 1L, 20000);
+  }
+
+  @Test
+  public void testSpecial() throws IOException {
+    PrefixTreeMatcher tree = new PrefixTreeMatcher();
+    tree.add("–", "-");
+    tree.add("—", "-");
+    tree.add("`", "'");
+    tree.add("’", "'");
+    tree.add("\t", " ");
+    tree.add("\r\n", "\n");
+    tree.add("\r", "\n");
+    fuzz(tree, "ab –—`’\t\r\n", 2L, 5000);
+  }
+
+  @Test
+  public void testRandomTrees() throws IOException {
+    Random r = new Random(3L);
+    for(int t = 0; t < 200; t++) {
+      PrefixTreeMatcher tree = new PrefixTreeMatcher();
+      // Overlapping patterns over a small alphabet, some sharing prefixes.
+      Set<String> patterns = new HashSet<>();
+      for(int i = 0, n = 1 + r.nextInt(20); i < n; i++) {
+        String p = random(r, "abcd", 1 + r.nextInt(5));
+        if(patterns.add(p))
+          tree.add(p, random(r, "XYZ", r.nextInt(8)));
+      }
+      fuzz(tree, "abcde", t, 200);
+    }
+  }
+
+  @Test
+  public void testWideStates() throws IOException {
+    // More edges than are scanned linearly.
+    PrefixTreeMatcher tree = new PrefixTreeMatcher();
+    for(char c = 'A'; c <= 'Z'; c += 2)
+      tree.add("&" + c, Character.toString(Character.toLowerCase(c)));
+    for(char c = 'a'; c <= 'z'; c += 3)
+      tree.add("&" + c + c, "");
+    fuzz(tree, "&ABCDEFGHIJKLMNOPQRSTUVWXYZadgjmpsvy", 4L, 5000);
+  }
+
+  @Test
+  public void testNumericalTree() throws IOException {
+    // Further patterns beside the numerical entities.
+    Random r = new Random(5L);
+    for(int t = 0; t < 50; t++) {
+      PrefixTreeMatcher tree = PrefixTreeMatcher.makeNumericalEntityMatcher();
+      Set<String> patterns = new HashSet<>();
+      for(int i = 0, n = 1 + r.nextInt(10); i < n; i++) {
+        String p = "&" + random(r, "ax1;", 1 + r.nextInt(4));
+        if(patterns.add(p))
+          tree.add(p, random(r, "XY", r.nextInt(3)));
+      }
+      fuzz(tree, "&#;ax1X2", 100 + t, 500);
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package com.github.kno10.wikipediaentities.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.Test;
+
+/**
+ * Tests of the parallel BZip2 decoder against the data compressed by commons
+ * compress.
+ */
+public class ParallelBZip2InputStreamTest {
+  /** Block header magic */
+  private static final long BLOCK_MAGIC = 0x314159265359L;
+
+  /**
+   * Generate text with some redundancy, so that blocks compress to varying,
+   * unaligned lengths.
+   *
+   * @param seed Random seed
+   * @param len Length
+   * @return Text
+   */
+  static byte[] text(long seed, int len) {
+    String[] words = { "Wikipedia", "entity", "link", "the", "of", "and", "Berlin", "Paris", "river", "[[", "]]", "{{", "}}", "\n" };
+    Random r = new Random(seed);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(len + 16);
+    while(out.size() < len) {
+      String w = words[r.nextInt(words.length)];
+      out.write(w.getBytes(), 0, w.length());
+      out.write(r.nextInt(10) == 0 ? '0' + r.nextInt(10) : ' ');
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Compress data as a single BZip2 stream.
+   *
+   * @param data Data
+   * @param blockSize Block size, 1 to 9 (times 100k)
+   * @return Compressed data
+   * @throws IOException never
+   */
+  static byte[] compress(byte[] data, int blockSize) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (BZip2CompressorOutputStream bz = new BZip2CompressorOutputStream(out, blockSize)) {
+      bz.write(data);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Read an input stream completely.
+   *
+   * @param in Input
+   * @return Data
+   * @throws IOException on errors
+   */
+  static byte[] readAll(InputStream in) throws IOException {
+    try (InputStream i = in) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[1 << 14];
+      for(int c; (c = i.read(buf)) >= 0;)
+        out.write(buf, 0, c);
+      return out.toByteArray();
+    }
+  }
+
+  /**
+   * Count the block markers at bit positions that are not byte aligned.
+   *
+   * @param data Compressed data
+   * @return Number of unaligned markers
+   */
+  static int unalignedMarkers(byte[] data) {
+    int count = 0;
+    for(long p = 0, n = ((long) data.length << 3) - 48; p <= n; p++) {
+      long w = 0;
+      for(int i = 0; i < 48; i++) {
+        final long q = p + i;
+        w = (w << 1) | ((data[(int) (q >>> 3)] >>> (7 - (q & 7))) & 1);
+      }
+      if(w == BLOCK_MAGIC && (p & 7) != 0)
+        ++count;
+    }
+    return count;
+  }
+
+  @Test
+  public void testUnalignedBlocks() throws IOException {
+    byte[] data = text(1L, 700_000);
+    byte[] comp = compress(data, 1);
+    assertTrue("Test data should have unaligned blocks.", unalignedMarkers(comp) > 0);
+    for(int threads : new int[] { 1, 3 })
+      assertArrayEquals(data, readAll(new ParallelBZip2InputStream(new ByteArrayInputStream(comp), threads)));
+  }
+
+  @Test
+  public void testMultiStream() throws IOException {
+    ByteArrayOutputStream expect = new ByteArrayOutputStream(), comp = new ByteArrayOutputStream();
+    for(int i = 0; i < 4; i++) {
+      byte[] data = text(10L + i, 50_000 + 90_000 * i);
+      expect.write(data, 0, data.length);
+      byte[] c = compress(data, 1);
+      comp.write(c, 0, c.length);
+    }
+    assertArrayEquals(expect.toByteArray(), readAll(new ParallelBZip2InputStream(new ByteArrayInputStream(comp.toByteArray()), 2)));
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    byte[] comp = compress(new byte[0], 9);
+    assertArrayEquals(new byte[0], readAll(new ParallelBZip2InputStream(new ByteArrayInputStream(comp), 2)));
+  }
+
+  /**
+   * A false block marker inside a block. The block header contains a bitmap
+   * of the byte values used, 16 bits for each group of 16 values that occurs.
+   * Using only values of the first three groups, chosen to spell out the
+   * block magic in their bitmaps, puts a false marker into the bit stream,
+   * right after the true one.
+   */
+  @Test
+  public void testFalseMarker() throws IOException {
+    final int[] maps = { (int) (BLOCK_MAGIC >>> 32) & 0xFFFF, (int) (BLOCK_MAGIC >>> 16) & 0xFFFF, (int) BLOCK_MAGIC & 0xFFFF };
+    byte[] alphabet = new byte[48];
+    int n = 0;
+    for(int g = 0; g < 3; g++)
+      for(int i = 0; i < 16; i++)
+        if((maps[g] & (0x8000 >>> i)) != 0)
+          alphabet[n++] = (byte) (g * 16 + i);
+    Random r = new Random(0L);
+    byte[] data = new byte[200_000];
+    for(int i = 0; i < data.length; i++) {
+      data[i] = alphabet[r.nextInt(n)];
+      // Avoid runs of four, as their run lengths would be further byte values.
+      if(i >= 3 && data[i] == data[i - 1] && data[i] == data[i - 2] && data[i] == data[i - 3])
+        data[i] = alphabet[(Arrays.binarySearch(alphabet, 0, n, data[i]) + 1) % n];
+    }
+    byte[] comp = compress(data, 1);
+    final AtomicInteger merged = new AtomicInteger();
+    InputStream in = new ParallelBZip2InputStream(new ByteArrayInputStream(comp), 2) {
+      @Override
+      protected Callable<byte[]> merge(Callable<byte[]> failed, Callable<byte[]> next) {
+        merged.incrementAndGet();
+        return super.merge(failed, next);
+      }
+    };
+    assertArrayEquals(data, readAll(in));
+    assertTrue("The false markers should have been merged.", merged.get() > 0);
+  }
+}
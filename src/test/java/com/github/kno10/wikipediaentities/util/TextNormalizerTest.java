@@ -0,0 +1,82 @@
+package com.github.kno10.wikipediaentities.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Differential tests of the single pass normalization, against the two passes
+ * of {@link Util#removeEntities} and {@link Util#removeSpecial}.
+ */
+public class TextNormalizerTest {
+  /** Text fragments, around entities and special characters */
+  private static final String[] TOKENS = { "a", "b", "Berlin", " ", "\n", "\r", "\r\n", "\t", "–", "—", "`", "’", //
+      "&", ";", "#", "x", "1", "3", "&amp;", "&lt;", "&gt;", "&quot;", "&nbsp;", "&ndash;", "&mdash;", "&rsquo;", //
+      "&eacute;", "&Eacute;", "&#13;", "&#10;", "&#9;", "&#x2013;", "&#X2014;", "&#8217;", "&#96;", "&#0;", //
+      "&amp", "&#", "&#x", "&#13", "&#x20", "&#;", "&#x;", "&#99999999999;", "&unknown;", "&amp;amp;", "&&amp;" };
+
+  /** Edge cases */
+  private static final String[] EDGE = { "", "&", "&amp", "&#", "&#x", "&#13", "text&", "text&#1", "&#13;&#10;", //
+      "&#13;", "\r", "\r\n\r", "\r&#10;", "&#13;\n", "&#x2013;&#x2014;", "&amp;ndash;", "&#38;ndash;", "&&&;;;", //
+      "&#65;&#x42;&#X43;", "&#x1F600;", "&ndash", "a&ndash", "&nbsp", "\t&#9;\t" };
+
+  /**
+   * Generate a random text from the fragments.
+   *
+   * @param r Random generator
+   * @param n Number of fragments
+   * @return Text
+   */
+  static String random(Random r, int n) {
+    StringBuilder buf = new StringBuilder();
+    for(int i = 0; i < n; i++)
+      buf.append(TOKENS[r.nextInt(TOKENS.length)]);
+    return buf.toString();
+  }
+
+  /**
+   * Compare a text with both methods.
+   *
+   * @param norm Normalizer, reused
+   * @param text Text
+   */
+  static void check(TextNormalizer norm, String text) {
+    assertEquals(text, Util.removeSpecial(Util.removeEntities(text)), norm.normalize(text).toString());
+    assertEquals(text, Util.removeEntities(text), norm.removeEntities(text).toString());
+    // Also as a character sequence other than a string:
+    assertEquals(text, Util.removeSpecial(Util.removeEntities(text)), norm.normalize(new StringBuilder(text)).toString());
+  }
+
+  /**
+   * Run the tests with the current matchers.
+   */
+  static void checkAll() {
+    TextNormalizer norm = new TextNormalizer();
+    for(String s : EDGE)
+      check(norm, s);
+    Random r = new Random(0L);
+    for(int i = 0; i < 5000; i++)
+      check(norm, random(r, r.nextInt(30)));
+    // Long texts, to grow the buffers.
+    for(int i = 0; i < 20; i++)
+      check(norm, random(r, 10000 + r.nextInt(10000)));
+  }
+
+  @Test
+  public void testCompiled() {
+    checkAll();
+  }
+
+  @Test
+  public void testPrefixTree() {
+    Util.setCompiledMatchers(false);
+    try {
+      checkAll();
+    }
+    finally {
+      Util.setCompiledMatchers(true);
+    }
+  }
+}
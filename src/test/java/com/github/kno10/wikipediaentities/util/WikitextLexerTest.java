@@ -0,0 +1,253 @@
+package com.github.kno10.wikipediaentities.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Differential tests of the wikitext lexer, against the cascade of regular
+ * expressions it replaced.
+ */
+public class WikitextLexerTest {
+  /** Markup fragments */
+  private static final String[] TOKENS = { "a", "Berlin", "x y", " ", "  ", "\n", "\r", "\t", "*", "**", " *", //
+      "[[", "]]", "[", "]", "|", "#", "{{", "}}", "{", "}", "{|", "|}", "{{{", "}}}", ":", "Category:", "category:", //
+      "<", ">", "/", "=", "\"", "<ref>", "</ref>", "<ref/>", "<ref />", "<ref name=x/>", "<ref name=\"a b\">", //
+      "<REF>", "</Ref>", "<ref name = x>", "<!--", "-->", "<!-- c -->", "<math>", "</math>", "<MATH>", "<sub>", //
+      "</sub>", "<sup>", "</SUP>", "<su>", "__TOC__", "__NOTOC__", "__x__", "_", "\n__TOC__\n", "[[a]]", "[[a|b]]", //
+      "[[a#s|b]]", "[[#s]]", "[[#s|t]]", "[[ a | b | c ]]", "[[Category:x]]", "[[:a]]", "{{t|[[a|b]]}}", "&amp;" };
+
+  /** Edge cases */
+  private static final String[] EDGE = { "", "[[", "]]", "[[]]", "[[|]]", "[[#]]", "[[#s]]", "[[ #s | x ]]", "[[a|]]", //
+      "[[a||b]]", "[[a|b|c|d]]", "[[a[[b]]c]]", "[[[[a]]]]", "[[a]b]]", "[[a\nb|c\nd]]", "{{", "}}", "{{}}", //
+      "{{a}}", "{{{{a}}}}", "{{a{{b{{c{{d{{e}}}}}}}}}}", "{{a{{b{{c{{d{{e{{f}}}}}}}}}}}}", "{{a}}}}{{", "}}{{a}}{{", //
+      "{{a|[[b]]}}[[c]]", "[[a|{{b}}]]", "{{[[a]]", "<ref/>", "<ref />", "<ref>a</ref>", "<ref name=x/>", //
+      "<ref name=\"x\">y</ref>", "<ref>[[a|b]]</ref>", "<ref><ref>a</ref>", "<ref", "<ref>unterminated", //
+      "<!-- a", "<!-- a --> b <!-- c -->", "<!--\n-->", "<math>x</math>", "<math>\n</math>", "<sub>a</sup>", //
+      "{|\n|}", "{| a |}", "* a\n** b", "  * a", "__TOC__", " __TOC__ \nx", "x __TOC__", "\n__NOTOC__", //
+      "[[Category:a]] b [[c]]", "x [[Category:a]] y [[Category:b]] z", "[[:Category:a]]", "a\r\n__TOC__\r\nb", //
+      "&", "&amp", "&#", "&#x2013", "[[a&amp|b&#]]", "{{a&amp}}", "<ref name=&amp/>", "&lt;ref/&gt;", "[[&#91;]]" };
+
+  /** Wikitext fixtures, shared with the benchmarks */
+  private static final String[] FIXTURES = { "de-person", "en-city", "en-stub" };
+
+  /**
+   * The regular expressions of the former index handler.
+   */
+  static class RegexCleaner {
+    /** Patterns to strip from the wiki text */
+    private Matcher stripBasics = Pattern.compile("(<!--.*?-->|<math>(.*?)</math>|</?su[bp]>|^\\s*__\\w+__\\s*$)", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE).matcher("");
+
+    /** Pattern to strip all templates, as we cannot reasonably parse them */
+    private Matcher stripTemplates = Pattern.compile("\\{\\{([^}{]*?)\\}\\}").matcher("");
+
+    /** Pattern for recognizing links */
+    private Matcher linkMatcher = Pattern.compile("\\[\\[\\s*([^\\]\\[\\|]*?)(?:\\s*#.*?)?(?:\\s*\\|(?:[^\\]\\[\\#\\|]*\\|)?\\s*([^\\]\\[\\#\\|]+))?\\s*\\]\\]").matcher("");
+
+    /** Pattern for stripping remaining markup */
+    private Matcher stripCruft = Pattern.compile("(?:<ref(?:[^<]*</ref|\\s+name\\s*=\\s*[^<]*|[^<]*/>)>|\\{\\|(.*?)\\|\\}|^ *\\*+|\\[\\[(?:([^\\]\\[]*)\\s*\\|\\s*)?([^\\]\\[]*)\\]\\])", Pattern.CASE_INSENSITIVE).matcher("");
+
+    /**
+     * Clean a text.
+     *
+     * @param intext Wikitext
+     * @param links Link handler
+     * @return Cleaned text
+     */
+    String clean(CharSequence intext, LinearCleaner.LinkHandler links) {
+      String text = stripBasics.reset(intext).replaceAll("");
+      for(int i = 0; i < 4; i++) {
+        String text2 = stripTemplates.reset(text).replaceAll("");
+        if(text2.equals(text))
+          break; // No more changes
+        text = text2;
+      }
+      // Parse, and replace links with their text only:
+      StringBuilder buf = new StringBuilder();
+      int pos = 0;
+      linkMatcher.reset(text);
+      while(linkMatcher.find()) {
+        String targ = linkMatcher.group(1);
+        if(targ == null || targ.length() == 0) {
+          buf.append(text, pos, linkMatcher.start());
+          // Fixed by the lexer: "null" was appended without label.
+          if(linkMatcher.group(2) != null)
+            buf.append(linkMatcher.group(2));
+          pos = linkMatcher.end();
+          continue; // Internal link.
+        }
+        String labl = links.link(targ, linkMatcher.group(2));
+        if(labl == null)
+          continue; // Removed with the cruft.
+        // Fixed by the lexer: this was appended before the check above, so the
+        // text before a dropped link was appended twice.
+        buf.append(text, pos, linkMatcher.start());
+        buf.append(labl);
+        pos = linkMatcher.end();
+      }
+      buf.append(text, pos, text.length());
+      return stripCruft.reset(buf).replaceAll("");
+    }
+  }
+
+  /**
+   * Link handler recording the links, and dropping some as the index handler
+   * does for namespaces.
+   */
+  static class Recorder implements LinearCleaner.LinkHandler {
+    /** Links seen */
+    final List<String> links = new ArrayList<>();
+
+    @Override
+    public String link(String target, String label) {
+      links.add(target + "|" + label);
+      final String t = target.trim();
+      if(t.startsWith(":") || t.regionMatches(true, 0, "Category:", 0, 9))
+        return null;
+      return (label != null ? label : target).replace('\n', ' ').trim();
+    }
+  }
+
+  /**
+   * Compare the lexer with the regular expressions.
+   *
+   * @param lexer Lexer, reused
+   * @param regex Regular expressions
+   * @param text Text
+   */
+  static void check(WikitextLexer lexer, RegexCleaner regex, String text) {
+    Recorder expect = new Recorder(), got = new Recorder();
+    assertEquals(text, regex.clean(text, expect), lexer.clean(text, got));
+    assertEquals(text, expect.links, got.links);
+  }
+
+  /**
+   * Random markup.
+   *
+   * @param r Random generator
+   * @param n Number of fragments
+   * @return Text
+   */
+  static String random(Random r, int n) {
+    StringBuilder buf = new StringBuilder();
+    for(int i = 0; i < n; i++)
+      buf.append(TOKENS[r.nextInt(TOKENS.length)]);
+    return buf.toString();
+  }
+
+  /**
+   * Repeat a string.
+   *
+   * @param s String
+   * @param n Number of repetitions
+   * @return Text
+   */
+  static String repeat(String s, int n) {
+    StringBuilder buf = new StringBuilder(s.length() * n);
+    for(int i = 0; i < n; i++)
+      buf.append(s);
+    return buf.toString();
+  }
+
+  /**
+   * Read a fixture.
+   *
+   * @param name Fixture name
+   * @return Wikitext
+   * @throws IOException on errors
+   */
+  static String fixture(String name) throws IOException {
+    try (InputStream in = WikitextLexerTest.class.getResourceAsStream("/fixtures/" + name + ".wiki")) {
+      assertNotNull("Missing fixture: " + name, in);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[8192];
+      for(int n; (n = in.read(buf)) > 0;)
+        out.write(buf, 0, n);
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void testEdgeCases() {
+    WikitextLexer lexer = new WikitextLexer();
+    RegexCleaner regex = new RegexCleaner();
+    for(String s : EDGE)
+      check(lexer, regex, s);
+  }
+
+  @Test
+  public void testRandom() {
+    WikitextLexer lexer = new WikitextLexer();
+    RegexCleaner regex = new RegexCleaner();
+    Random r = new Random(0L);
+    for(int i = 0; i < 20000; i++)
+      check(lexer, regex, random(r, r.nextInt(40)));
+    // Long texts, to grow the buffers.
+    for(int i = 0; i < 20; i++)
+      check(lexer, regex, random(r, 5000 + r.nextInt(5000)));
+  }
+
+  @Test
+  public void testFixtures() throws IOException {
+    WikitextLexer lexer = new WikitextLexer();
+    RegexCleaner regex = new RegexCleaner();
+    for(String name : FIXTURES)
+      check(lexer, regex, fixture(name));
+  }
+
+  @Test
+  public void testRepeated() {
+    WikitextLexer lexer = new WikitextLexer();
+    RegexCleaner regex = new RegexCleaner();
+    // Candidates on a line after a failed one, and on the next line.
+    for(String s : new String[] { "#", "#|", "# |b", "[[a#", "{|", "{| |", "<!--", "<math>", "<ref" }) {
+      check(lexer, regex, "[[a" + repeat(s, 200));
+      check(lexer, regex, repeat(s, 200) + "\n" + repeat(s, 100) + "|}]]-->");
+      check(lexer, regex, repeat(s + "\n", 100) + "|}]]-->");
+    }
+  }
+
+  @Test(timeout = 2000)
+  public void testLinear() {
+    // Each of these took seconds with repeated scans to the end of the line.
+    WikitextLexer lexer = new WikitextLexer();
+    lexer.clean("[[a" + repeat("#", 40000), (t, l) -> t);
+    lexer.clean(repeat("{|", 80000), (t, l) -> t);
+    lexer.clean(repeat("<!--", 80000), (t, l) -> t);
+    lexer.clean(repeat("<math>", 80000), (t, l) -> t);
+  }
+
+  @Test(timeout = 10000, expected = Watchdog.Timeout.class)
+  public void testBudget() throws IOException {
+    // The budget expires in the link handler, after the input was read.
+    Watchdog.start(20, null);
+    Watchdog.Budget budget = Watchdog.budget();
+    try {
+      budget.start();
+      new WikitextLexer().clean(budget.wrap("[[a]] " + repeat("x ", 10000) + "[[b]]"), (t, l) -> {
+        try {
+          Thread.sleep(200);
+        }
+        catch(InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return t;
+      });
+    }
+    finally {
+      budget.stop();
+      Watchdog.stop();
+    }
+  }
+}